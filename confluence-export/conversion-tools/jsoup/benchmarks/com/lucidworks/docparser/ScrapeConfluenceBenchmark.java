@@ -0,0 +1,157 @@
+package com.lucidworks.docparser;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.solr.refguide.TextFileReader;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The per-page work {@link ScrapeConfluence} does, against synthetic exports of 1k, 10k &amp; 100k pages.
+ * <p>
+ * Since <code>cleanupContent</code> modifies the Document, each invocation gets a freshly parsed page
+ * (prepared the same way <code>ScrapeConfluence.main</code> does) -- the parsing is not included in the
+ * measured time.  <code>cleanupContentSelects</code> does the same w/{@link SelectCleanup} (the way
+ * <code>cleanupContent</code> used to work) for comparison.  <code>fixLink</code> is measured one link at a time,
+ * cycling through every link in the export.  <code>writeAsciiDoc</code> writes a (freshly parsed &amp; cleaned up)
+ * page w/{@link AsciiDocWriter}.
+ * </p>
+ * <p>
+ * <code>parsePageTree</code> loads the {@link PageTree} from <code>page-tree.xml</code>, and
+ * <code>readPageTreeIndex</code> from the index file it writes (the way repeated scrapes load it).
+ * </p>
+ * <p>
+ * <code>readPage</code> reads one page at a time w/a {@link TextFileReader}, and <code>readPageLines</code> does 
+ * the same the way <code>ScrapeConfluence</code> used to (line by line, then replacing the nbsps) for comparison;
+ * run them w/<code>-prof gc</code> to see how much garbage each creates.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ScrapeConfluenceBenchmark {
+
+  @Param({"1000", "10000", "100000"})
+  public int numPages;
+
+  private SyntheticExport export;
+  private PageTree pageTree;
+  private File pageTreeIndex;
+  private final List<File> linkPages = new ArrayList<File>();
+  private final List<String> hrefs = new ArrayList<String>();
+
+  private int nextLink = 0;
+  private int nextPage = 0;
+  private final TextFileReader textReader = new TextFileReader(true);
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    export = new SyntheticExport(numPages);
+    pageTree = PageTree.parse(export.pageTreeXml);
+    pageTreeIndex = new File(export.dir, "page-tree.idx");
+    pageTree.write(pageTreeIndex);
+    for (int i = 0; i < numPages; i++) {
+      for (String href : export.hrefs(i)) {
+        linkPages.add(export.page(i));
+        hrefs.add(href);
+      }
+    }
+  }
+
+  /** A freshly parsed page for each invocation, cycling through every page in the export */
+  @State(Scope.Thread)
+  public static class FreshPage {
+    private int nextPage = 0;
+    private final TextFileReader textReader = new TextFileReader(true);
+    private Document docOut;
+
+    @Setup(Level.Invocation)
+    public void parse(ScrapeConfluenceBenchmark bench) throws Exception {
+      final File page = bench.export.page(nextPage);
+      nextPage = (nextPage + 1) % bench.numPages;
+
+      final Document doc = Jsoup.parse(textReader.read(page));
+      final Element mainContent = doc.select("#main-content").first();
+      docOut = Document.createShell(page.toURI().toString());
+      docOut.body().appendChild(mainContent);
+      docOut.normalise();
+    }
+  }
+
+  /** A freshly parsed (and cleaned up) page for each invocation, cycling through every page in the export */
+  @State(Scope.Thread)
+  public static class CleanPage {
+    private final FreshPage fresh = new FreshPage();
+
+    @Setup(Level.Invocation)
+    public void parse(ScrapeConfluenceBenchmark bench) throws Exception {
+      fresh.parse(bench);
+      ScrapeConfluence.cleanupContent(fresh.docOut);
+    }
+  }
+
+  @Benchmark
+  public Document cleanupContent(FreshPage page) {
+    ScrapeConfluence.cleanupContent(page.docOut);
+    return page.docOut;
+  }
+
+  @Benchmark
+  public Document cleanupContentSelects(FreshPage page) {
+    SelectCleanup.cleanupContent(page.docOut);
+    return page.docOut;
+  }
+
+  @Benchmark
+  public String writeAsciiDoc(CleanPage page) {
+    return AsciiDocWriter.write(page.fresh.docOut);
+  }
+
+  @Benchmark
+  public String fixLink() {
+    final int i = nextLink;
+    nextLink = (nextLink + 1) % hrefs.size();
+    return ScrapeConfluence.fixLink(linkPages.get(i), pageTree, hrefs.get(i));
+  }
+
+  @Benchmark
+  public PageTree parsePageTree() throws IOException {
+    return PageTree.parse(export.pageTreeXml);
+  }
+
+  @Benchmark
+  public PageTree readPageTreeIndex() throws IOException {
+    return PageTree.read(pageTreeIndex);
+  }
+
+  @Benchmark
+  public String readPage() throws IOException {
+    final File page = export.page(nextPage);
+    nextPage = (nextPage + 1) % numPages;
+    return textReader.read(page);
+  }
+
+  @Benchmark
+  public String readPageLines() throws IOException {
+    final File page = export.page(nextPage);
+    nextPage = (nextPage + 1) % numPages;
+    try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(page), "UTF-8"))) {
+      final StringBuilder sb = new StringBuilder();
+      for (String line = br.readLine(); null != line; line = br.readLine()) {
+        sb.append(line);
+        sb.append("\n");
+      }
+      return sb.toString().replace('\u00a0', ' ');
+    }
+  }
+}
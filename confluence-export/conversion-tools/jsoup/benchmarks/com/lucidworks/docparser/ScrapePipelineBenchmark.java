@@ -0,0 +1,73 @@
+package com.lucidworks.docparser;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.solr.refguide.PhaseTimings;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * An entire {@link ScrapeConfluence} run (into a fresh output dir each time) against synthetic exports of
+ * 1k &amp; 10k pages, w/a single thread (the sequential loop) and w/the pipeline using one thread per cpu
+ * for each stage.
+ * <p>
+ * The per-page output of the run is discarded, so it doesn't drown out the results.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ScrapePipelineBenchmark {
+
+  @Param({"1000", "10000"})
+  public int numPages;
+
+  /** 0 == one per cpu */
+  @Param({"1", "0"})
+  public int threads;
+
+  private SyntheticExport export;
+  private PageTree pageTree;
+  private File outputDir;
+  private final PhaseTimings timings = new PhaseTimings("ScrapePipelineBenchmark", null, 0);
+  private PrintStream stdout;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    export = new SyntheticExport(numPages);
+    pageTree = PageTree.parse(export.pageTreeXml);
+    stdout = System.out;
+    System.setOut(new PrintStream(new OutputStream() {
+      public void write(int b) {
+        // NOOP
+      }
+      public void write(byte[] b, int off, int len) {
+        // NOOP
+      }
+    }));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    System.setOut(stdout);
+  }
+
+  @Setup(Level.Invocation)
+  public void freshOutputDir() throws IOException {
+    if (null != outputDir) {
+      SyntheticExport.delete(outputDir);
+    }
+    outputDir = SyntheticExport.tempDir("cleaned-export");
+  }
+
+  @Benchmark
+  public File scrape() throws Exception {
+    ScrapeConfluence.scrape(export.dir, pageTree, outputDir, null, false,
+                            (0 == threads) ? Runtime.getRuntime().availableProcessors() : threads, timings);
+    return outputDir;
+  }
+}
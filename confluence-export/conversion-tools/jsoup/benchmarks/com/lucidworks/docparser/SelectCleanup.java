@@ -0,0 +1,335 @@
+package com.lucidworks.docparser;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.parser.Tag;
+import org.jsoup.select.Elements;
+
+/**
+ * The way {@link ScrapeConfluence#cleanupContent} used to clean up a page -- a separate <code>select</code>
+ * (each walking the whole page) for every step, and then some -- kept as is for comparison in
+ * {@link ScrapeConfluenceBenchmark}.  The result is the same.
+ */
+public class SelectCleanup {
+
+  static void cleanupContent(Document docOut) {
+    // start cleanup
+    Elements elements = null;
+    
+    // remove side panels (page-internal ToCs)
+    Element sideBar = docOut.select("[data-type=aside]").first();
+    if (null == sideBar) {
+      // sometimes they aren't an 'aside', they are columns cotaining panels
+      elements = docOut.select("div.columnMacro");
+      for (Element element : elements) {
+        if (! element.select("div.toc-macro").isEmpty()) {
+          sideBar = element;
+          break;
+        }
+      }
+    }
+    if (null == sideBar) {
+      // final scnereo: toc by itself in the page body...
+      elements = docOut.select("div.toc-macro");
+      for (Element element : elements) {
+        if (! element.select("div.toc-macro").isEmpty()) {
+          sideBar = element;
+          break;
+        }
+      }
+    }
+    if (sideBar != null) {
+      // TODO: this currently replaces the entire aside/column/panel if there was one...
+      // ...would it be better to leave the other panel text and only remove the div.toc-macro?
+      //  examples:
+      //    Covered in this section:
+      //    Topics covered in this section:
+      //    Filters discussed in this section:
+      //    Algorithms discussed in this section:
+
+      // NOTE: conciously choosing to completely remove the TOC, instead of adding any metadata/macros to it
+      // let the page presentation decide if/when to use a TOC...
+      //
+      sideBar.remove();
+      // sideBar.replaceWith(new TextNode("toc::[]",""));
+      // addMetadata(docOut, "toc", "true");
+      
+
+    } else {
+      // sanity check if we missed any (multiple TOCs on a page?) ...
+      elements = docOut.select("div.toc-macro");
+      if (! elements.isEmpty()) {
+        System.out.println("MISSED A TOC: " + elements.toString());
+        System.exit(-1);
+      }
+    }
+    
+    // unwrap various formatting tags if they are empty
+    // NOTE: explicitly not doing 'span' here because it might be used as an anchor
+    elements = docOut.select("strong, em, p, code, pre, span:not([id])");
+    for (Element element : elements) {
+      if (!element.hasText()) {
+        element.unwrap(); // unwrap not remove! (even w/o text might be inner nodes, ex: img)
+      }
+    }
+
+    // these spans aren't particularly problematic, and will largely be ignored by pandoc either way
+    // but by removing them here, they simplify some of the logic we need in other cleanup later
+    // (notably when looking for tags inside of code)
+    elements = docOut.select("span.external-link, span.nolink, span.confluence-link, code span:not([id])");
+    for (Element element : elements) {
+      element.unwrap();
+    }
+    
+    // move any leading/trailing space from the leading/trailing textNodes of formatting tags
+    // out of the tags
+    // (completley removing it is dangerous because it might create run on "words")
+    for (String tag : Arrays.asList("span", "strong", "em", "code", "p")) { 
+      elements = docOut.getElementsByTag(tag);
+      for (Element element : elements) {
+        // Note: not using textNodes() because our first text node may not be our first child,
+        // we don't want to munge spaces from the middle of our html if it just happens to be the
+        // first direct TextNode 
+        List<Node> kids = element.childNodes();
+        if (! kids.isEmpty()) {
+          if (kids.get(0) instanceof TextNode) {
+            TextNode t = (TextNode) kids.get(0);
+            Matcher m = ScrapeConfluence.LEADING_SPACE_PATTERN.matcher(t.text());
+            if (m.matches()) {
+              t.text(m.replaceAll(""));
+              element.before(" ");
+            }
+          }
+          if (kids.get(kids.size()-1) instanceof TextNode) {
+            TextNode t = (TextNode) kids.get(kids.size()-1);
+            Matcher m = ScrapeConfluence.TRAILING_SPACE_PATTERN.matcher(t.text());
+            if (m.matches()) {
+              t.text(m.replaceAll(""));
+              element.after(" ");
+            }
+          }
+        }
+      }
+    }
+
+    // this is totally bogus, and yet confluence is doing this...
+    elements = docOut.select("code code");
+    for (Element element : elements) {
+      element.unwrap();
+    }
+    
+    // fake out pandoc when an em or strong tag is inside of a code tag
+    elements = docOut.select("code strong");
+    for (Element element : elements) {
+      element.prependText("**");
+      element.appendText("**");
+      element.unwrap();
+    }
+    elements = docOut.select("code em");
+    for (Element element : elements) {
+      element.prependText("__");
+      element.appendText("__");
+      element.unwrap();
+    }
+
+    // in asciidoc, links can wrap code, but code can not wrap links
+    // so we need to invert the relationship if/when we find it...
+    elements = docOut.select("code > a:only-child");
+    for (Element element : elements) {
+      Element code = element.parent();
+      String href= element.attr("href");
+      element.unwrap();
+      if (! href.equals(code.text())) {
+        // if the entire code block is a URL, we don't need to wrap it in another link
+        // asciidoctor will take care of that for us.
+        code.wrap("<a href=\""+href+"\"></a>");
+      }
+    }
+    
+    // remove confluence styles
+    elements = docOut.select("[style]");
+    for (Element element : elements) {
+      element.removeAttr("style");
+    }
+    // remove confluence themes from <pre> tags
+    elements = docOut.getElementsByTag("pre");
+    for (Element element : elements) {
+      if (element.hasAttr("class")) {
+        Matcher codeType = ScrapeConfluence.PRE_CODE_CLASS_PATTERN.matcher(element.attr("class"));
+        if (codeType.find()) {
+          String codeClass = codeType.group(1);
+          // some munging needed in some cases...
+          if (codeClass.equals("html/xml")) {
+            codeClass = "xml";
+          }
+          if (codeClass.equals("js")) {
+            // almost no javascript in ref guide, assume it should really be json
+            codeClass = "json";
+          }
+          if (element.text().startsWith("curl ")) {
+            // if this looks like a curl command, then ignore whatever class might have been in
+            // confluence and treat it as bash
+            codeClass = "bash";
+          }
+          // TODO: other values we should also change here? "powershell" ?
+          element.attr("class", codeClass);
+        } else {
+          element.removeAttr("class");
+        }
+      }
+    }
+
+    // confluence has a nasty habbit of (sometimes) putting named anchors people explicitly define
+    // *inside* a header, instead of around/before it.
+    // so if we find any of these, we need to rearange some things to work around somr problems...
+    // https://github.com/asciidoctor/asciidoctor/issues/1875
+    // 
+    // NOTE: just moving an explicit anchor before the header should work, but because of how id's on headers
+    // are treated in asciidoc, and some weirdness in how asciidoctor treats multiple anchors
+    // delcared in front of a header this causes all but one of the anchors to be ignored...
+    //
+    // https://github.com/asciidoctor/asciidoctor/issues/1874
+    //
+    // because of this, we'll use the "explicitly" defined ancor macro from confluence as our "main"
+    // id for the header, and move the existing header id to it's own declaration.
+    //
+    // that should result in both still existing in the final adoc file (so they are easy to grep for)
+    // but the one that is most likely to have links to it will be the one used by default in generated html.
+    for (int level = 1; level < 7; level++) {
+      final String h = "h" + level;
+      elements = docOut.getElementsByTag(h);
+      for (Element header : elements) {
+        // first see if we are immediately preceeded by an explicit anchor macro...
+        // (any wrapping <p> tags should have already been uprapped for us)
+        Element previous = header.previousElementSibling();
+        if (null != previous && "span".equals(previous.tagName()) && previous.classNames().contains("confluence-anchor-link")) {
+          // swap the id from this "previous" macro declaration with the "id" of the as our header
+          final String oldId = header.attr("id");
+          header.attr("id", previous.attr("id"));
+          previous.attr("id", oldId);
+        }
+          
+        // next, look for any anchors declared inside the header...
+        Elements inner = header.getElementsByClass("confluence-anchor-link");
+        for (Element anchor : inner) {
+          final String oldId = header.attr("id");
+          header.attr("id", anchor.attr("id"));
+          if (null != oldId) {
+            // flip id and move the anchor before the header
+            anchor.attr("id", oldId);
+            header.before(anchor);
+          } else {
+            // just remove the anchor completley
+            // (don't think this code path is possible, but including for completeness)
+            anchor.remove();
+          }
+        }
+      }
+    }
+    
+    // replace icon text
+    elements = docOut.getElementsByClass("confluence-information-macro");
+    for (Element element : elements) {
+      final String admonishment = ScrapeConfluence.getAdmonishment(element);
+      Elements titles = element.select(".title");
+      if (1 < titles.size()) {
+        System.err.println("admonishment macro has more then 1 title: " + element.outerHtml());
+        System.exit(-1);
+      }
+
+      // it's easier to post-process this, then to try and fight the html->pandoc->adoc conversion
+      for (Element title : titles) { // only one, loop is easy
+        title.prependText("TODO_ADMON_TITLE:");
+        element.before(title); // move it before the block
+      }
+      element.prependChild((new Element(Tag.valueOf("p"), ".")).prependText("[" + admonishment + "]===="));
+      element.appendChild((new Element(Tag.valueOf("p"), ".")).prependText("===="));
+    }
+
+    // unwrap various block tags if they are empty
+    for (String tag : Arrays.asList("div","tbody")) {
+      elements = docOut.getElementsByTag(tag);
+      for (Element element : elements) {
+        element.unwrap(); // unwrap not remove! (might be inner nodes, ex: img)
+      }
+    }
+    
+    // remove breaks -- TODO: why?
+    elements = docOut.getElementsByTag("br");
+    for (Element element : elements) {
+      element.remove();
+    }
+
+    // work around https://github.com/asciidoctor/asciidoctor/issues/1873
+    elements = docOut.select("[id]");
+    for (Element element : elements) {
+      final String oldId = element.attr("id");
+      final String newId = ScrapeConfluence.fixAnchorId(oldId);
+      if (! oldId.equals(newId)) {
+        // would love to use jsoup's Comment class, but it doesn't survive pandoc
+        // ironically, this does...
+        Element fakeComment = new Element(Tag.valueOf("div"), "");
+        fakeComment.text("// OLD_CONFLUENCE_ID: " + oldId);
+        element.before(fakeComment);
+        element.attr("id", newId);
+      }
+    }
+
+    // pandoc gets really confused when <ol>s get nested, add a comment pointing out
+    // manual cleanup is needed
+    elements = docOut.select("ol:has(ol, ul), ul:has(ol)");
+    LIST: for (Element list : elements) {
+      // if we are wrapped in an outer list, nothing to do - already done at top level
+      for (Element parent : list.parents()) {
+        if ("ol".equals(parent.tagName()) || "ul".equals(parent.tagName())) {
+          continue LIST;
+        }
+      }
+      // would love to use jsoup's Comment class, but it doesn't survive pandoc
+      // ironically, this does...
+      Element fakeComment = new Element(Tag.valueOf("div"), "");
+      fakeComment.text("// TODO: This '"+list.tagName()+"' has problematic nested lists inside of it, needs manual editing");
+      list.before(fakeComment);
+    }
+
+    // table cells containing structural elements are problematic in PDFs...
+    elements = docOut.select("table:has(ol, ul, p ~ p, div, pre, table)");
+    TABLE: for (Element table : elements) {
+      // if we are wrapped in another table, nothing to do - already done at top level
+      for (Element parent : table.parents()) {
+        if ("table".equals(parent.tagName())) {
+          continue TABLE;
+        }
+      }
+      // would love to use jsoup's Comment class, but it doesn't survive pandoc
+      // ironically, this does...
+      Element fakeComment = new Element(Tag.valueOf("div"), "");
+      fakeComment.text("// TODO: This table has cells that won't work with PDF: https://github.com/ctargett/refguide-asciidoc-poc/issues/13");
+      table.before(fakeComment);
+    }
+
+    // final modification: get rid of any leading spaces in paragraphs
+    // (otherwise asciidoctor will treat them as a type of code formatting
+    elements = docOut.select("p > span:not([id]):first-child");
+    for (Element element : elements) {
+      if (ScrapeConfluence.ONLY_SPACE_PATTERN.matcher(element.html()).matches()) {
+        element.remove();
+      }
+    }
+    
+    // in general, pandoc/asciidoctor has problems with tags inside of "code" so log if we have anything
+    elements = docOut.select("code:has(*)");
+    for (Element element : elements) {
+      System.out.println("NOTE: code tag w/nested tags: " + element.outerHtml());
+    }
+      
+    
+    docOut.normalise();
+  }
+}
@@ -0,0 +1,205 @@
+package com.lucidworks.docparser;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates synthetic Confluence (HTML) exports, along with a matching <code>page-tree.xml</code>, of
+ * arbitrary size for use in benchmarks.
+ * <p>
+ * Pages are arranged as a tree where page <code>i</code> has the kids <code>i*FANOUT+1</code> through
+ * <code>i*FANOUT+FANOUT</code>.  Every page has a TOC aside, a handful of sections (w/anchors inside the
+ * headers), code blocks, an admonition, a table, links to it's neighbors, javadocs &amp; external sites, and
+ * an image (and a link to the SVG source of it) attached to it's parent page (so every image is used by several
+ * pages), and a list of it's own attachments -- the SVGs are all the same, for de-duping -- so that
+ * {@link ScrapeConfluence#cleanupContent} and {@link ScrapeConfluence#fixLink} have some realistic work to do.
+ * </p>
+ */
+public class SyntheticExport {
+  public static final int FANOUT = 10;
+  public static final int FIRST_ID = 32604160;
+
+  public final int numPages;
+  public final File dir;
+  public final File pageTreeXml;
+
+  /** Writes a new synthetic export to a new temp dir (that will be removed on exit) */
+  public SyntheticExport(int numPages) throws IOException {
+    this.numPages = numPages;
+    this.dir = tempDir("raw-export");
+    this.pageTreeXml = new File(dir, "page-tree.xml");
+    writePageTree();
+    for (int i = 0; i < numPages; i++) {
+      writePage(i);
+      writeAttachment(i);
+    }
+  }
+
+  public String title(int i) {
+    return "Synthetic Page " + i;
+  }
+  public String fileName(int i) {
+    return "Synthetic-Page-" + i + "_" + (FIRST_ID + i) + ".html";
+  }
+  /** the prefix confluence uses for all of the anchors in a page */
+  public String anchorPrefix(int i) {
+    return "SyntheticPage" + i;
+  }
+
+  public File page(int i) {
+    return new File(dir, fileName(i));
+  }
+  /** the (relative) path of the image attached to the page, as used by the <code>img</code> src */
+  public String attachment(int i) {
+    return "attachments/" + (FIRST_ID + i) + "/" + (FIRST_ID + i) + ".png";
+  }
+  /** the (relative) path of the SVG source of the image attached to the page */
+  public String svgAttachment(int i) {
+    return "attachments/" + (FIRST_ID + i) + "/" + (FIRST_ID + i) + ".svg";
+  }
+
+  /** every (raw) href in the page */
+  public List<String> hrefs(int i) {
+    final List<String> hrefs = new ArrayList<String>();
+    hrefs.add("#" + anchorPrefix(i) + "-Section0");
+    hrefs.add(fileName(next(i)));
+    hrefs.add(fileName(next(i)) + "#" + anchorPrefix(next(i)) + "-Section1");
+    hrefs.add("https://lucene.apache.org/solr/6_5_0/solr-core/org/apache/solr/search/Page" + i + ".html");
+    hrefs.add("https://lucene.apache.org/core/6_5_0/core/org/apache/lucene/search/Page" + i + ".html#method()");
+    hrefs.add("http://wiki.apache.org/solr/SyntheticPage" + i);
+    for (int s = 0; s < 4; s++) {
+      hrefs.add("#" + anchorPrefix(i) + "-Section" + s);
+    }
+    return hrefs;
+  }
+
+  private int next(int i) {
+    return (i + 1) % numPages;
+  }
+
+  private void writePageTree() throws IOException {
+    try (Writer w = writer(pageTreeXml)) {
+      w.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<confluence>\n");
+      // (confluence ids are unique across spaces & pages)
+      w.write("<space id=\"" + (FIRST_ID - 1) + "\" name=\"Apache Solr Reference Guide\">\n");
+      writePageTreeNode(w, 0);
+      w.write("</space>\n</confluence>\n");
+    }
+  }
+
+  private void writePageTreeNode(Writer w, int i) throws IOException {
+    w.write("<page id=\"" + (FIRST_ID + i) + "\" title=\"" + title(i) + "\"");
+    if (0 < i) {
+      w.write(" parent=\"" + (FIRST_ID + ((i - 1) / FANOUT)) + "\"");
+    }
+    w.write(">\n");
+    for (long k = (long) i * FANOUT + 1; k <= (long) i * FANOUT + FANOUT && k < numPages; k++) {
+      writePageTreeNode(w, (int) k);
+    }
+    w.write("</page>\n");
+  }
+
+  private void writePage(int i) throws IOException {
+    final List<String> hrefs = hrefs(i);
+    final String prefix = anchorPrefix(i);
+    try (Writer w = writer(page(i))) {
+      w.write("<!DOCTYPE html>\n<html><head><title>Apache Solr Reference Guide : " + title(i) + "</title>\n");
+      w.write("<link rel=\"stylesheet\" href=\"styles/site.css\" type=\"text/css\" /></head>\n");
+      w.write("<body class=\"theme-default aui-theme-default\"><div id=\"page\"><div id=\"main\" class=\"aui-page-panel\">\n");
+      w.write("<div id=\"main-header\"><div id=\"breadcrumb-section\"><ol id=\"breadcrumbs\">"
+              + "<li class=\"first\"><span><a href=\"index.html\">Apache Solr Reference Guide</a></span></li>"
+              + "</ol></div><h1 id=\"title-heading\" class=\"pagetitle\"><span id=\"title-text\">"
+              + title(i) + "</span></h1></div>\n");
+      w.write("<div id=\"content\" class=\"view\"><div class=\"page-metadata\">Created by <span class=\"author\">"
+              + "Someone</span></div>\n");
+      w.write("<div id=\"main-content\" class=\"wiki-content group\">\n");
+      w.write("<div class=\"aside\" data-type=\"aside\"><div class=\"toc-macro client-side-toc-macro\"><ul>");
+      for (int s = 0; s < 4; s++) {
+        w.write("<li><span class=\"toc-item-body\"><a href=\"#" + prefix + "-Section" + s + "\">Section " + s + "</a></span></li>");
+      }
+      w.write("</ul></div></div>\n");
+      w.write("<p>Intro\u00a0for <strong> page " + i + " </strong>, see <a href=\"" + hrefs.get(1) + "\">the next page</a>"
+              + " (or <a href=\"" + hrefs.get(2) + "\">it's first section</a>), "
+              + "<span class=\"nolink\"><a href=\"" + hrefs.get(3) + "\" class=\"external-link\" rel=\"nofollow\">"
+              + "<code>Page" + i + "</code></a></span>, <a href=\"" + hrefs.get(4) + "\"><code>method</code></a>"
+              + " and <a href=\"" + hrefs.get(5) + "\" class=\"external-link\">the wiki</a>.<br/></p>\n");
+      final int parent = (0 == i) ? 0 : ((i - 1) / FANOUT);
+      w.write("<p><span class=\"confluence-embedded-file-wrapper\"><img class=\"confluence-embedded-image\" src=\""
+              + attachment(parent) + "\" data-linked-resource-container-id=\"" + (FIRST_ID + parent)
+              + "\" data-linked-resource-default-alias=\"diagram.png\"></span> (<a href=\"" + svgAttachment(parent)
+              + "\" data-linked-resource-type=\"attachment\" data-linked-resource-container-id=\"" + (FIRST_ID + parent)
+              + "\" data-linked-resource-default-alias=\"diagram.svg\">source</a>)</p>\n");
+      w.write("<div class=\"confluence-information-macro confluence-information-macro-tip\"><p class=\"title\">Tip</p>"
+              + "<span class=\"aui-icon aui-icon-small aui-iconfont-approve confluence-information-macro-icon\"></span>"
+              + "<div class=\"confluence-information-macro-body\"><p>Go back to <a href=\"" + hrefs.get(0)
+              + "\">the first section</a>.</p></div></div>\n");
+      for (int s = 0; s < 4; s++) {
+        w.write("<h2 id=\"" + prefix + "-Section" + s + "\"><span class=\"confluence-anchor-link\" id=\""
+                + prefix + "-anchor" + s + "\"></span>Section " + s + "</h2>\n");
+        w.write("<p style=\"margin-left: 30.0px;\"><em></em>Some text in <a href=\"" + hrefs.get(6 + s) + "\">section "
+                + s + "</a> with <code>code</code> and <strong>bold</strong> words in it.</p>\n");
+        w.write("<div class=\"code panel pdl\" style=\"border-width: 1px;\"><div class=\"codeContent panelContent pdl\">"
+                + "<pre class=\"brush: " + (0 == s % 2 ? "html/xml" : "java") + "; gutter: false; theme: Default\""
+                + " style=\"font-size:12px;\">&lt;field name=\"f" + s + "\" type=\"string\"/&gt;</pre></div></div>\n");
+        w.write("<ul><li>one<ul><li>nested</li></ul></li><li>two</li></ul>\n");
+        w.write("<div class=\"table-wrap\"><table class=\"confluenceTable\"><tbody><tr>"
+                + "<th class=\"confluenceTh\">Param</th><th class=\"confluenceTh\">Description</th></tr>"
+                + "<tr><td class=\"confluenceTd\"><code>f" + s + "</code></td><td class=\"confluenceTd\">"
+                + "<p>the <span>field</span></p></td></tr></tbody></table></div>\n");
+      }
+      w.write("</div>\n<div class=\"pageSection group\"><div class=\"pageSectionHeader\">"
+              + "<h2 id=\"attachments\" class=\"pageSectionTitle\">Attachments:</h2></div><div class=\"greybox\">"
+              + "<img src=\"images/icons/bullet_blue.gif\" height=\"8\" width=\"8\" alt=\"\"/> <a href=\""
+              + attachment(i) + "\">diagram.png</a> (image/png)<br/>"
+              + "<img src=\"images/icons/bullet_blue.gif\" height=\"8\" width=\"8\" alt=\"\"/> <a href=\""
+              + svgAttachment(i) + "\">diagram.svg</a> (image/svg+xml)<br/></div></div>\n");
+      w.write("</div></div>\n<div id=\"footer\" role=\"contentinfo\"><section class=\"footer-body\">"
+              + "<p>Document generated by Confluence</p></section></div></div></body></html>\n");
+    }
+  }
+
+  /**
+   * a (fake, but unique) png for every page, whether or not it has any kids to use it, and an SVG source for it
+   * (the same for every page)
+   */
+  private void writeAttachment(int i) throws IOException {
+    final File file = new File(dir, attachment(i));
+    file.getParentFile().mkdirs();
+    try (OutputStream out = new FileOutputStream(file)) {
+      out.write(new byte[] { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' });
+      out.write(("synthetic image " + i).getBytes("UTF-8"));
+    }
+    try (Writer w = writer(new File(dir, svgAttachment(i)))) {
+      w.write("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"10\" height=\"10\"><rect width=\"10\" height=\"10\"/></svg>\n");
+    }
+  }
+
+  private static Writer writer(File file) throws IOException {
+    return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+  }
+
+  /** Creates a new temp dir (that will be removed on exit) */
+  public static File tempDir(String prefix) throws IOException {
+    final Path dir = Files.createTempDirectory(prefix);
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      public void run() {
+        delete(dir.toFile());
+      }
+    });
+    return dir.toFile();
+  }
+
+  /** Deletes a file, or a dir and everything in it */
+  public static void delete(File file) {
+    final File[] kids = file.listFiles();
+    if (null != kids) {
+      for (File kid : kids) {
+        delete(kid);
+      }
+    }
+    file.delete();
+  }
+}
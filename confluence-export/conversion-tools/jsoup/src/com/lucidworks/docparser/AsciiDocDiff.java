@@ -0,0 +1,163 @@
+package com.lucidworks.docparser;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jsoup.Jsoup;
+
+/**
+ * Compares the AsciiDoc {@link AsciiDocWriter} writes for every page in a cleaned export w/the AsciiDoc the
+ * pandoc pipeline (<code>toAsciidoc.sh</code>) wrote for the same pages, and prints a (line by line) diff of
+ * every page that's different.
+ * <p>
+ * Trailing whitespace is ignored, and so are blank lines (other then in code blocks) since pandoc &amp; the
+ * writer don't always agree on those, and asciidoctor doesn't care.  Pages are converted &amp; compared in
+ * parallel, w/as many threads as {@link ScrapeConfluence#THREADS_PROP} specifies.
+ * </p>
+ * <pre>
+ * java -cp ... com.lucidworks.docparser.AsciiDocDiff cleaned-export ../solr-ref-guide/src [max-lines-per-page]
+ * </pre>
+ */
+public class AsciiDocDiff {
+
+  /** pages w/more then this many (different) lines in both versions are too different to diff */
+  private static final long MAX_DIFF_CELLS = 4L * 1000 * 1000;
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 2 || 3 < args.length) {
+      System.err.println("usage: AsciiDocDiff <cleaned-export dir> <pandoc adoc dir> [max-lines-per-page]");
+      System.exit(-1);
+    }
+    final File htmlDir = new File(args[0]);
+    final File pandocDir = new File(args[1]);
+    final int maxLines = (3 == args.length) ? Integer.parseInt(args[2]) : 50;
+
+    final File[] pages = htmlDir.listFiles(new HtmlFileFilter());
+    if (null == pages) {
+      throw new RuntimeException("Not a dir: " + htmlDir);
+    }
+    Arrays.sort(pages);
+    final ExecutorService pool = Executors.newFixedThreadPool(ScrapeConfluence.getThreads());
+    int same = 0;
+    int different = 0;
+    int missing = 0;
+    try {
+      final List<Future<String>> diffs = new ArrayList<Future<String>>(pages.length);
+      for (final File page : pages) {
+        diffs.add(pool.submit(new Callable<String>() {
+          public String call() throws IOException {
+            return diff(page, pandocDir, maxLines);
+          }
+        }));
+      }
+      // reported in page order, no matter which finishes first
+      for (Future<String> diff : diffs) {
+        final String result = diff.get();
+        if (null == result) {
+          same++;
+        } else {
+          if (result.startsWith("MISSING")) {
+            missing++;
+          } else {
+            different++;
+          }
+          System.out.print(result);
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    System.out.println(pages.length + " pages: " + same + " same, " + different + " different, " + missing
+                       + " missing from " + pandocDir);
+  }
+
+  /** @return null if the writer's AsciiDoc for the page is the same as pandoc's, otherwise a report of the diff */
+  static String diff(File page, File pandocDir, int maxLines) throws IOException {
+    final String name = page.getName().replaceFirst("\\.html?$", ".adoc");
+    final File pandocFile = new File(pandocDir, name);
+    if (! pandocFile.exists()) {
+      return "MISSING " + pandocFile + "\n";
+    }
+    final List<String> expected = normalize
+      (new String(Files.readAllBytes(pandocFile.toPath()), StandardCharsets.UTF_8));
+    final List<String> actual = normalize(AsciiDocWriter.write(Jsoup.parse(page, "UTF-8")));
+
+    // only the lines between the common prefix & suffix need to be diffed
+    int start = 0;
+    while (start < expected.size() && start < actual.size() && expected.get(start).equals(actual.get(start))) {
+      start++;
+    }
+    if (start == expected.size() && start == actual.size()) {
+      return null;
+    }
+    int endExpected = expected.size();
+    int endActual = actual.size();
+    while (start < endExpected && start < endActual
+           && expected.get(endExpected - 1).equals(actual.get(endActual - 1))) {
+      endExpected--;
+      endActual--;
+    }
+    final List<String> a = expected.subList(start, endExpected);
+    final List<String> b = actual.subList(start, endActual);
+
+    final StringBuilder report = new StringBuilder();
+    report.append("DIFF ").append(name).append(" (- pandoc, + AsciiDocWriter)\n");
+    if (MAX_DIFF_CELLS < (long) a.size() * b.size()) {
+      report.append("  too different to diff: ").append(a.size()).append(" vs ").append(b.size())
+        .append(" lines, starting at line ").append(start + 1).append('\n');
+      return report.toString();
+    }
+    // longest common subsequence, then walk it to find the lines only in one or the other
+    final int[][] lcs = new int[a.size() + 1][b.size() + 1];
+    for (int i = a.size() - 1; 0 <= i; i--) {
+      for (int j = b.size() - 1; 0 <= j; j--) {
+        lcs[i][j] = a.get(i).equals(b.get(j)) ? lcs[i + 1][j + 1] + 1 : Math.max(lcs[i + 1][j], lcs[i][j + 1]);
+      }
+    }
+    int lines = 0;
+    int i = 0;
+    int j = 0;
+    while ((i < a.size() || j < b.size()) && lines < maxLines) {
+      if (i < a.size() && j < b.size() && a.get(i).equals(b.get(j))) {
+        i++;
+        j++;
+      } else if (j == b.size() || (i < a.size() && lcs[i + 1][j] >= lcs[i][j + 1])) {
+        report.append("  - ").append(a.get(i++)).append('\n');
+        lines++;
+      } else {
+        report.append("  + ").append(b.get(j++)).append('\n');
+        lines++;
+      }
+    }
+    if (i < a.size() || j < b.size()) {
+      report.append("  ...\n");
+    }
+    return report.toString();
+  }
+
+  /** @return the lines, w/o trailing whitespace or blank lines (unless they are in a code block) */
+  static List<String> normalize(String adoc) {
+    final List<String> lines = new ArrayList<String>();
+    String delimiter = null;
+    for (String line : adoc.split("\n", -1)) {
+      line = line.replaceFirst("\\s+$", "");
+      if (null == delimiter && (line.equals("----") || line.equals("...."))) {
+        delimiter = line;
+      } else if (line.equals(delimiter)) {
+        delimiter = null;
+      } else if (null == delimiter && line.isEmpty()) {
+        continue;
+      }
+      lines.add(line);
+    }
+    return lines;
+  }
+}
@@ -0,0 +1,670 @@
+package com.lucidworks.docparser;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+
+/**
+ * Writes a cleaned up page (see {@link ScrapeConfluence#cleanupContent}) as AsciiDoc, straight from it's Jsoup
+ * Document -- the AsciiDoc that converting the page w/pandoc 1.17 (and <code>custom.pandoc.template</code>) and
+ * then <code>post-process-adocs.pl</code> produces, w/o starting 2 processes (or writing the page out) first.
+ * {@link AsciiDocDiff} compares the two for every page of an export.
+ * <p>
+ * The conversion follows what pandoc's HTML reader &amp; AsciiDoc writer do w/the elements cleanupContent leaves
+ * in a page, and most of the perl fix-ups are done as each element is written instead of after the fact:
+ * relative links (<code>REL_LINK//</code>) become <code>&lt;&lt;xref&gt;&gt;</code>s, links to javadocs keep their
+ * <code>{lucene-javadocs}</code> (or <code>{solr-javadocs}</code>) attribute, admonition titles
+ * (<code>TODO_ADMON_TITLE:</code>) become block titles, and tables are delimited w/a plain <code>|===</code>.  The
+ * fix-ups for images &amp; quoted code are applied to every line of the page, the same way the perl script does.
+ * </p>
+ * <p>
+ * Some of what the pipeline writes, asciidoctor gets wrong.  Each {@link Deviation} fixes one of those (so the
+ * AsciiDoc is no longer the same as the pipeline's) when it's system property is true.
+ * </p>
+ * <p>
+ * Each page is written by a new instance, so any number of pages can be written at once.
+ * </p>
+ */
+public final class AsciiDocWriter {
+
+  private static final String REL_LINK_PREFIX = "REL_LINK//";
+  private static final String ADMON_TITLE_PREFIX = "TODO_ADMON_TITLE:";
+  /** the start of an admonition block, as cleanupContent marks it */
+  private static final Pattern ADMON_START = Pattern.compile("(\\[\\w+\\])====");
+  /** an href that starts w/an attribute, ie: the javadocs */
+  private static final Pattern ATTRIBUTE_HREF = Pattern.compile("(\\{[\\w-]+\\})(.*)", Pattern.DOTALL);
+  private static final Pattern HEADER_TAG = Pattern.compile("h[1-6]");
+  private static final Pattern WHITESPACE = Pattern.compile("\\s");
+  /** obviously intended quoted code (otherwise "`foo`" just gets curly quoted) */
+  private static final Pattern QUOTED_CODE = Pattern.compile("\"`(\\w+)`\"");
+  /** an (inline) image, as pandoc writes it, that the perl script makes a block (on the rest of the line) */
+  private static final Pattern INLINE_IMAGE = Pattern.compile("image:(.*?)\\[(.*?)\\]", Pattern.UNIX_LINES);
+  /** a paragraph starting w/one of these would be an ordered list, so it's escaped */
+  private static final Pattern ORDERED_LIST_MARKER = Pattern.compile
+    ("\\A(?:\\(?(?:[0-9]+|[a-zA-Z]|[ivxlcdmIVXLCDM]+)\\)|(?:[0-9]+|[a-z]|[ivxlcdm]+|#)\\.)\\s");
+  /** the metadata the pandoc template writes (in order) as document attributes */
+  private static final List<String> ATTRIBUTES = Arrays.asList
+    ("page-shortname", "page-permalink", "page-tags", "page-children");
+
+  private static final Set<String> BLOCK_TAGS = new HashSet<String>(Arrays.asList
+    ("p", "h1", "h2", "h3", "h4", "h5", "h6", "pre", "ul", "ol", "dl", "table", "blockquote", "hr",
+     "div", "section", "article", "aside", "header", "footer", "nav", "center", "figure", "address", "form"));
+
+  /** A (deliberate) difference from the pipeline's AsciiDoc, none are on by default */
+  public enum Deviation {
+    /** images in table cells stay inline (w/o breaking the row) and every other image is on a line of it's own */
+    INLINE_CELL_IMAGES("scrape.adoc.inline.cell.images"),
+    /**
+     * a link to another page (or anchor) w/o any text is written as <code>&lt;&lt;target&gt;&gt;</code>
+     * instead of <code>&lt;&lt;target,&gt;&gt;</code>
+     */
+    BARE_XREFS("scrape.adoc.bare.xrefs"),
+    /** bold/italic/etc... inside of a word uses the unconstrained (doubled) markers, so it's not literal text */
+    UNCONSTRAINED_MARKERS("scrape.adoc.unconstrained.markers");
+
+    /** the system property that turns it on */
+    public final String property;
+    private Deviation(String property) {
+      this.property = property;
+    }
+
+    /** @return the deviations whose system property is true */
+    public static Set<Deviation> fromSystemProperties() {
+      final Set<Deviation> deviations = EnumSet.noneOf(Deviation.class);
+      for (Deviation deviation : values()) {
+        if (Boolean.getBoolean(deviation.property)) {
+          deviations.add(deviation);
+        }
+      }
+      return deviations;
+    }
+  }
+
+  /** What kind of block some AsciiDoc is, determines how it's joined w/the blocks around it */
+  private enum Kind {
+    /** inline content that wasn't in a paragraph */
+    PLAIN,
+    PARA,
+    /** belongs to the next block, so there is no blank line after it */
+    TITLE,
+    LIST,
+    OTHER
+  }
+
+  private static final class Block {
+    final Kind kind;
+    final String text;
+    Block(Kind kind, String text) {
+      this.kind = kind;
+      this.text = text;
+    }
+  }
+
+  private final Set<Deviation> deviations;
+  /** how deeply nested the bullet (and ordered) list being written is */
+  private int bulletLevel = 1;
+  private int orderedLevel = 1;
+  /** if true images are written inline, ie: in table cells w/{@link Deviation#INLINE_CELL_IMAGES} */
+  private boolean inlineImages = false;
+
+  private AsciiDocWriter(Set<Deviation> deviations) {
+    this.deviations = deviations;
+  }
+
+  /** @return the (cleaned up) page as AsciiDoc, w/the deviations whose system properties are set */
+  public static String write(Document doc) {
+    return write(doc, Deviation.fromSystemProperties());
+  }
+
+  /** @return the (cleaned up) page as AsciiDoc, w/the specified deviations from the pipeline's */
+  public static String write(Document doc, Set<Deviation> deviations) {
+    final AsciiDocWriter writer = new AsciiDocWriter(deviations);
+    final StringBuilder out = new StringBuilder();
+    out.append("= ").append(escape(doc.title().trim())).append('\n');
+    for (String name : ATTRIBUTES) {
+      final List<String> values = new ArrayList<String>();
+      for (Element meta : doc.head().getElementsByTag("meta")) {
+        if (name.equals(meta.attr("name"))) {
+          values.add("page-tags".equals(name) ? "[" + meta.attr("content") + "]" : meta.attr("content"));
+        }
+      }
+      if (! values.isEmpty()) {
+        out.append(':').append(name).append(": ").append(join(values, ", ")).append('\n');
+      }
+    }
+    out.append('\n');
+    out.append(join(writer.blocks(doc.body())));
+    out.append('\n');
+
+    // the perl fix-ups that apply to every line (even in code blocks)
+    String adoc = out.toString();
+    if (! deviations.contains(Deviation.INLINE_CELL_IMAGES)) {
+      adoc = INLINE_IMAGE.matcher(adoc).replaceAll("image::$1[$2]\n");
+    }
+    return QUOTED_CODE.matcher(adoc).replaceAll("\"```$1```\"");
+  }
+
+  /** @return every block in the element, inline content (not in a paragraph) is a {@link Kind#PLAIN} block */
+  private List<Block> blocks(Element parent) {
+    final List<Block> blocks = new ArrayList<Block>();
+    final List<Node> run = new ArrayList<Node>();
+    for (Node kid : parent.childNodes()) {
+      if (kid instanceof Element && BLOCK_TAGS.contains(((Element) kid).tagName())) {
+        para(Kind.PLAIN, inlines(run), blocks);
+        run.clear();
+        block((Element) kid, blocks);
+      } else {
+        run.add(kid);
+      }
+    }
+    para(Kind.PLAIN, inlines(run), blocks);
+    return blocks;
+  }
+
+  private void block(Element element, List<Block> blocks) {
+    final String tag = element.tagName();
+    if ("p".equals(tag)) {
+      para(Kind.PARA, inlines(element.childNodes()), blocks);
+    } else if (HEADER_TAG.matcher(tag).matches()) {
+      final StringBuilder header = new StringBuilder();
+      if (! element.id().isEmpty()) {
+        header.append("[[").append(element.id()).append("]]\n");
+      }
+      for (int i = Integer.parseInt(tag.substring(1)); 0 <= i; i--) {
+        header.append('=');
+      }
+      header.append(' ').append(inlines(element.childNodes()));
+      blocks.add(new Block(Kind.OTHER, header.toString()));
+    } else if ("pre".equals(tag)) {
+      blocks.add(new Block(Kind.OTHER, codeBlock(element)));
+    } else if ("ul".equals(tag) || "ol".equals(tag)) {
+      blocks.add(new Block(Kind.LIST, list(element)));
+    } else if ("dl".equals(tag)) {
+      blocks.add(new Block(Kind.LIST, definitionList(element)));
+    } else if ("table".equals(tag)) {
+      final String table = table(element);
+      if (null != table) {
+        blocks.add(new Block(Kind.OTHER, table));
+      }
+    } else if ("blockquote".equals(tag)) {
+      blocks.add(new Block(Kind.OTHER, "____\n" + join(blocks(element)) + "\n____"));
+    } else if ("hr".equals(tag)) {
+      blocks.add(new Block(Kind.OTHER, "'''''"));
+    } else {
+      // div (ie: the fake comments cleanupContent adds) or some other container, only it's content matters
+      blocks.addAll(blocks(element));
+    }
+  }
+
+  /** adds the (inline) text as a paragraph, unless it's empty or one of the markers cleanupContent adds */
+  private static void para(Kind kind, String text, List<Block> blocks) {
+    if (text.isEmpty()) {
+      return;
+    }
+    if (text.startsWith(ADMON_TITLE_PREFIX)) {
+      blocks.add(new Block(Kind.TITLE, "." + text.substring(ADMON_TITLE_PREFIX.length())));
+      return;
+    }
+    final Matcher admon = ADMON_START.matcher(text);
+    if (admon.matches()) {
+      blocks.add(new Block(Kind.OTHER, admon.group(1) + "\n===="));
+      return;
+    }
+    if (Kind.PARA == kind && ORDERED_LIST_MARKER.matcher(text).find()) {
+      text = "\\" + text;
+    }
+    blocks.add(new Block(kind, text));
+  }
+
+  /** @return the blocks separated by blank lines (except after a title) */
+  private static String join(List<Block> blocks) {
+    final StringBuilder out = new StringBuilder();
+    for (Block block : blocks) {
+      out.append(block.text).append(Kind.TITLE == block.kind ? "\n" : "\n\n");
+    }
+    return chomp(out);
+  }
+
+  private static String codeBlock(Element pre) {
+    final StringBuilder code = new StringBuilder();
+    wholeText(pre, code);
+    // like pandoc, drop (one) leading & trailing newline
+    if (0 < code.length() && '\n' == code.charAt(0)) {
+      code.deleteCharAt(0);
+    }
+    if (0 < code.length() && '\n' == code.charAt(code.length() - 1)) {
+      code.setLength(code.length() - 1);
+    }
+    final String lang = pre.className().trim();
+    if (lang.isEmpty()) {
+      return "....\n" + code + "\n....";
+    }
+    return "[source," + lang.replaceAll("\\s+", ",") + "]\n----\n" + code + "\n----";
+  }
+
+  private String list(Element list) {
+    final boolean ordered = "ol".equals(list.tagName());
+    final StringBuilder marker = new StringBuilder();
+    for (int i = ordered ? orderedLevel : bulletLevel; 0 < i; i--) {
+      marker.append(ordered ? '.' : '*');
+    }
+    if (ordered) {
+      orderedLevel++;
+    } else {
+      bulletLevel++;
+    }
+    final List<List<Block>> items = new ArrayList<List<Block>>();
+    for (Element kid : list.children()) {
+      if ("li".equals(kid.tagName())) {
+        items.add(blocks(kid));
+      } else if (! items.isEmpty()) {
+        // confluence sometimes puts nested lists next to (instead of in) the item they belong to
+        block(kid, items.get(items.size() - 1));
+      }
+    }
+    if (ordered) {
+      orderedLevel--;
+    } else {
+      bulletLevel--;
+    }
+
+    final StringBuilder out = new StringBuilder();
+    for (List<Block> item : items) {
+      out.append(marker).append(' ');
+      Block previous = null;
+      for (Block block : item) {
+        if (null != previous) {
+          // nested lists (and whatever has a title) just follow, anything else needs a list continuation
+          out.append(Kind.LIST == block.kind || Kind.TITLE == previous.kind ? "\n" : "\n+\n");
+        }
+        out.append(block.text);
+        previous = block;
+      }
+      out.append('\n');
+    }
+    return chomp(out);
+  }
+
+  private String definitionList(Element list) {
+    final StringBuilder out = new StringBuilder();
+    for (Element kid : list.children()) {
+      if ("dt".equals(kid.tagName())) {
+        if (0 < out.length()) {
+          out.append('\n');
+        }
+        out.append(inlines(kid.childNodes())).append("::");
+      } else if ("dd".equals(kid.tagName())) {
+        final List<String> defs = new ArrayList<String>();
+        for (Block block : blocks(kid)) {
+          defs.add(block.text);
+        }
+        out.append("\n  ").append(join(defs, "\n+\n").replace("\n", "\n  "));
+      }
+    }
+    return out.toString();
+  }
+
+  /** @return null if the table has no rows */
+  private String table(Element table) {
+    final List<Element> rows = new ArrayList<Element>();
+    String caption = "";
+    for (Element kid : table.children()) {
+      if ("tr".equals(kid.tagName())) {
+        rows.add(kid);
+      } else if ("caption".equals(kid.tagName())) {
+        caption = inlines(kid.childNodes());
+      } else {
+        // thead, tbody (if cleanupContent didn't unwrap it) & tfoot
+        rows.addAll(kid.getElementsByTag("tr"));
+      }
+    }
+    if (rows.isEmpty()) {
+      return null;
+    }
+    final Element first = rows.get(0);
+    boolean header = "thead".equals(first.parent().tagName());
+    if (! header) {
+      header = true;
+      for (Element cell : first.children()) {
+        header &= "th".equals(cell.tagName());
+      }
+    }
+
+    // each cell is either a single bit of inline text or (when it's anything more then that) an "a|" cell
+    final int cols = first.children().size();
+    final List<List<String>> cells = new ArrayList<List<String>>();
+    boolean simple = true;
+    for (Element row : rows) {
+      final List<String> rowCells = new ArrayList<String>();
+      for (Element cell : row.children()) {
+        inlineImages = deviations.contains(Deviation.INLINE_CELL_IMAGES);
+        List<Block> blocks = blocks(cell);
+        inlineImages = false;
+        if (blocks.isEmpty()) {
+          rowCells.add("|");
+        } else if (1 == blocks.size() && (Kind.PLAIN == blocks.get(0).kind || Kind.PARA == blocks.get(0).kind)) {
+          simple &= Kind.PLAIN == blocks.get(0).kind;
+          rowCells.add("|" + blocks.get(0).text);
+        } else {
+          simple = false;
+          rowCells.add("a|\n" + join(blocks) + "\n");
+        }
+      }
+      while (rowCells.size() < cols) {
+        rowCells.add("|");
+      }
+      cells.add(rowCells);
+    }
+
+    final StringBuilder out = new StringBuilder();
+    if (! caption.isEmpty()) {
+      out.append('.').append(caption).append('\n');
+    }
+    // like pandoc: only tables w/more then plain text in some cell get (equal) column widths
+    out.append('[');
+    final List<String> widths = new ArrayList<String>();
+    if (simple) {
+      for (int i = 0; i < cols; i++) {
+        widths.add("");
+      }
+    } else {
+      // (done the same way pandoc does, rounding errors included)
+      final double width = 1.0 / cols;
+      double total = 0;
+      for (int i = 0; i < cols; i++) {
+        total += width;
+      }
+      int sum = 0;
+      for (int i = 0; i < cols; i++) {
+        sum += (int) Math.floor(width / total * 100);
+      }
+      for (int i = 0; i < cols; i++) {
+        final int percent = (int) Math.floor(width / total * 100);
+        widths.add((0 == i && sum < 100 ? 100 - (sum - percent) : percent) + "%");
+      }
+      out.append("width=\"").append((int) Math.floor(total * 100)).append("%\",");
+    }
+    out.append("cols=\"").append(join(widths, ",")).append("\",");
+    if (header) {
+      out.append("options=\"header\",");
+    }
+    out.append("]\n|===\n");
+    for (List<String> row : cells) {
+      String previous = null;
+      for (String cell : row) {
+        if (null != previous) {
+          // like pandoc: a blank line (and then the space) after an "a|" cell
+          out.append(previous.startsWith("a|") ? "\n " : " ");
+        }
+        out.append(cell);
+        previous = cell;
+      }
+      // (a blank line after a row that ends w/an "a|" cell)
+      out.append('\n');
+    }
+    out.append("|===");
+    return out.toString();
+  }
+
+  /** @return the inline nodes as (trimmed) AsciiDoc, w/whitespace collapsed like HTML does */
+  private String inlines(List<Node> nodes) {
+    final StringBuilder out = new StringBuilder();
+    for (Node node : nodes) {
+      inline(node, out);
+    }
+    return out.toString().trim();
+  }
+
+  private void inline(Node node, StringBuilder out) {
+    if (node instanceof TextNode) {
+      text(((TextNode) node).getWholeText(), out);
+      return;
+    }
+    if (! (node instanceof Element)) {
+      return; // comments, etc...
+    }
+    final Element element = (Element) node;
+    final String tag = element.tagName();
+    if ("strong".equals(tag) || "b".equals(tag)) {
+      wrap(element, "*", "*", out);
+    } else if ("em".equals(tag) || "i".equals(tag) || "var".equals(tag) || "cite".equals(tag)) {
+      wrap(element, "_", "_", out);
+    } else if ("sup".equals(tag)) {
+      wrap(element, "^", "^", out);
+    } else if ("sub".equals(tag)) {
+      wrap(element, "~", "~", out);
+    } else if ("del".equals(tag) || "s".equals(tag) || "strike".equals(tag)) {
+      wrap(element, "[line-through]*", "*", out);
+    } else if ("code".equals(tag) || "tt".equals(tag) || "kbd".equals(tag) || "samp".equals(tag)) {
+      final StringBuilder code = new StringBuilder();
+      wholeText(element, code);
+      if (0 < code.length()) {
+        out.append('`').append(code.toString().replace('\n', ' ')).append('`');
+      }
+    } else if ("a".equals(tag)) {
+      link(element, out);
+    } else if ("img".equals(tag)) {
+      image(element, out);
+    } else if ("br".equals(tag)) {
+      trimTrailingSpace(out);
+      out.append(" +\n");
+    } else {
+      if ("span".equals(tag) && ! element.id().isEmpty()) {
+        out.append("[[").append(element.id()).append("]]");
+      }
+      for (Node kid : element.childNodes()) {
+        inline(kid, out);
+      }
+    }
+  }
+
+  /** appends the text, escaped &amp; w/any whitespace collapsed into a single space */
+  private static void text(String text, StringBuilder out) {
+    for (int i = 0; i < text.length(); i++) {
+      final char c = text.charAt(i);
+      if (Character.isWhitespace(c)) {
+        final int last = out.length() - 1;
+        if (0 <= last && ' ' != out.charAt(last) && '\n' != out.charAt(last)) {
+          out.append(' ');
+        }
+      } else if ('{' == c) {
+        // otherwise it's an attribute reference
+        out.append("\\{");
+      } else {
+        out.append(c);
+      }
+    }
+  }
+
+  /** wraps the content of the element in the markers, doubled in a word w/{@link Deviation#UNCONSTRAINED_MARKERS} */
+  private void wrap(Element element, String open, String close, StringBuilder out) {
+    final int start = out.length();
+    for (Node kid : element.childNodes()) {
+      inline(kid, out);
+    }
+    // any whitespace at the ends of the content goes outside of the markers
+    int content = start;
+    if (content < out.length() && ' ' == out.charAt(content)) {
+      if (0 < start && ' ' != out.charAt(start - 1)) {
+        content++;
+      } else {
+        out.deleteCharAt(content);
+      }
+    }
+    if (content == out.length()) {
+      return;
+    }
+    final boolean trailingSpace = trimTrailingSpace(out);
+    final boolean intraword = (0 < content && Character.isLetterOrDigit(out.charAt(content - 1)))
+      || (! trailingSpace && startsWithLetterOrDigit(element.nextSibling()));
+    if (intraword && 1 == open.length() && deviations.contains(Deviation.UNCONSTRAINED_MARKERS)) {
+      open = open + open;
+      close = close + close;
+    }
+    out.insert(content, open).append(close);
+    if (trailingSpace) {
+      out.append(' ');
+    }
+  }
+
+  private static boolean startsWithLetterOrDigit(Node node) {
+    if (node instanceof TextNode) {
+      final String text = ((TextNode) node).getWholeText();
+      return ! text.isEmpty() && Character.isLetterOrDigit(text.charAt(0));
+    }
+    return false;
+  }
+
+  private static boolean trimTrailingSpace(StringBuilder out) {
+    if (0 < out.length() && ' ' == out.charAt(out.length() - 1)) {
+      out.setLength(out.length() - 1);
+      return true;
+    }
+    return false;
+  }
+
+  private void link(Element a, StringBuilder out) {
+    if (! a.hasAttr("href")) {
+      // just an anchor
+      if (! a.id().isEmpty()) {
+        out.append("[[").append(a.id()).append("]]");
+      }
+      for (Node kid : a.childNodes()) {
+        inline(kid, out);
+      }
+      return;
+    }
+    final String href = a.attr("href");
+    final String text = inlines(a.childNodes());
+    if (href.startsWith(REL_LINK_PREFIX)) {
+      // links to other pages (or anchors in this one) are cross references
+      String target = escapeUri(href.substring(REL_LINK_PREFIX.length()));
+      if (target.startsWith("#")) {
+        target = target.substring(1);
+      }
+      // (the perl script turns link:REL_LINK//target[] into <<target,>>)
+      final boolean bare = text.isEmpty() && deviations.contains(Deviation.BARE_XREFS);
+      out.append("<<").append(target).append(bare ? "" : "," + text).append(">>");
+      return;
+    }
+    final Matcher attribute = ATTRIBUTE_HREF.matcher(href);
+    if (attribute.matches()) {
+      // ie: {solr-javadocs}/...
+      out.append(attribute.group(1)).append(escapeUri(attribute.group(2))).append('[').append(text).append(']');
+      return;
+    }
+    final String src = escapeUri(href);
+    final String bare = src.startsWith("mailto:") ? src.substring("mailto:".length()) : src;
+    final String plain = a.text();
+    if (a.children().isEmpty() && ! plain.isEmpty() && plain.equals(plain.trim()) && bare.equals(escapeUri(plain))
+        && ! WHITESPACE.matcher(plain).find()) {
+      // the link is it's own text, asciidoctor will link it
+      out.append(bare);
+      return;
+    }
+    if (src.indexOf(':') < 0) {
+      out.append("link:");
+    }
+    out.append(src).append('[').append(text).append(']');
+  }
+
+  private void image(Element img, StringBuilder out) {
+    final StringBuilder attrs = new StringBuilder();
+    final String alt = img.attr("alt").trim();
+    attrs.append(alt.isEmpty() ? "image" : escape(alt));
+    if (img.hasAttr("title")) {
+      attrs.append(",title=\"").append(img.attr("title")).append('"');
+    }
+    for (String dimension : Arrays.asList("width", "height")) {
+      final String value = img.attr(dimension).trim();
+      if (value.endsWith("%")) {
+        attrs.append(",scaledwidth=").append(value);
+      } else if (value.matches("[0-9]+(px)?")) {
+        attrs.append(',').append(dimension).append('=').append(value.replace("px", ""));
+      }
+    }
+    final String src = escapeUri(img.attr("src"));
+    if (inlineImages || ! deviations.contains(Deviation.INLINE_CELL_IMAGES)) {
+      // (w/o the deviation, every image is made a block by INLINE_IMAGE once the page is written)
+      out.append("image:").append(src).append('[').append(attrs).append(']');
+      return;
+    }
+    // w/the deviation, images (outside of table cells) are blocks on a line of their own
+    trimTrailingSpace(out);
+    if (0 < out.length() && '\n' != out.charAt(out.length() - 1)) {
+      out.append('\n');
+    }
+    out.append("image::").append(src).append('[').append(attrs).append("]\n");
+  }
+
+  /** appends all of the text in the element (and it's kids) as is */
+  private static void wholeText(Element element, StringBuilder out) {
+    for (Node kid : element.childNodes()) {
+      if (kid instanceof TextNode) {
+        out.append(((TextNode) kid).getWholeText());
+      } else if (kid instanceof Element) {
+        if ("br".equals(((Element) kid).tagName())) {
+          out.append('\n');
+        } else {
+          wholeText((Element) kid, out);
+        }
+      }
+    }
+  }
+
+  /** escapes text, so nothing in it is treated as an attribute reference */
+  private static String escape(String text) {
+    return text.replace("{", "\\{");
+  }
+
+  /** percent encodes the (UTF-8 bytes of the) whitespace and chars in the URI that AsciiDoc treats specially */
+  static String escapeUri(String uri) {
+    StringBuilder out = null;
+    for (int i = 0; i < uri.length(); i++) {
+      final char c = uri.charAt(i);
+      if (Character.isWhitespace(c) || 0 <= "<>|\"{}[]^`".indexOf(c)) {
+        if (null == out) {
+          out = new StringBuilder(uri.substring(0, i));
+        }
+        for (byte b : String.valueOf(c).getBytes(StandardCharsets.UTF_8)) {
+          out.append('%').append(Character.toUpperCase(Character.forDigit((b >> 4) & 0xf, 16)))
+            .append(Character.toUpperCase(Character.forDigit(b & 0xf, 16)));
+        }
+      } else if (null != out) {
+        out.append(c);
+      }
+    }
+    return null == out ? uri : out.toString();
+  }
+
+  private static String chomp(CharSequence text) {
+    int end = text.length();
+    while (0 < end && Character.isWhitespace(text.charAt(end - 1))) {
+      end--;
+    }
+    return text.subSequence(0, end).toString();
+  }
+
+  /** @return the values w/the separator between each one (even if they are empty) */
+  private static String join(List<String> values, String separator) {
+    final StringBuilder out = new StringBuilder();
+    for (int i = 0; i < values.size(); i++) {
+      if (0 < i) {
+        out.append(separator);
+      }
+      out.append(values.get(i));
+    }
+    return out.toString();
+  }
+}
@@ -0,0 +1,328 @@
+package com.lucidworks.docparser;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Copies the attachments of the pages (of any type, not just images) into
+ * <code>images/&lt;page-shortname&gt;/&lt;filename&gt;</code> in the output dir, the first time any page
+ * uses them -- exactly once, no matter how many threads are copying attachments at once.
+ * <p>
+ * Attachments w/the same content (by SHA-256) are only copied once: every other one is a hard link to the
+ * first, or a copy of it if the file system doesn't support hard links.  Copies are made w/
+ * <code>FileChannel.transferTo</code>, so the bytes don't have to go through the JVM.
+ * </p>
+ * <p>
+ * Every attachment copied is recorded in a {@link #MANIFEST_NAME} manifest (next to the images dir) along w/
+ * the size &amp; last modified time of it's source -- so when scraping into the same output dir again,
+ * attachments whose source is unchanged aren't copied again, and attachments no page uses any more are removed
+ * by {@link #finish}.  An attachment that's already in it's page's dir but not in the manifest (ex: left by an
+ * older scrape, or one that failed before writing the manifest) is kept if it has the same content as it's
+ * source, and replaced otherwise -- and any other file in the dir of a page that no page uses is removed.  Files
+ * outside of the page dirs (ex: the icons from the export) are never touched.
+ * </p>
+ * <p>
+ * <code>main</code> makes one dir (ex: <code>solr-ref-guide/src/images</code>) an exact copy of another (the
+ * images dir), copying only the files whose size or last modified time are different, see {@link #sync}.
+ * </p>
+ * <pre>
+ * java -cp ... com.lucidworks.docparser.AttachmentStore cleaned-export/images solr-ref-guide/src/images
+ * </pre>
+ */
+public final class AttachmentStore {
+
+  /** The name of the manifest file, in the parent dir of the images dir */
+  public static final String MANIFEST_NAME = "attachments.manifest";
+  private static final String MANIFEST_HEADER = "# AttachmentStore manifest v1: path, source, source size, source last modified, sha256";
+
+  /** An attachment copied into the images dir, one line of the manifest */
+  private static final class Entry {
+    /** relative to the images dir */
+    final String path;
+    /** relative to the input dir */
+    final String source;
+    final long sourceSize;
+    final long sourceLastModified;
+    final String hash;
+    Entry(String path, String source, long sourceSize, long sourceLastModified, String hash) {
+      this.path = path;
+      this.source = source;
+      this.sourceSize = sourceSize;
+      this.sourceLastModified = sourceLastModified;
+      this.hash = hash;
+    }
+    static Entry parse(String line) {
+      final String[] fields = line.split("\t");
+      if (5 != fields.length) {
+        throw new RuntimeException("Bad attachments manifest line: " + line);
+      }
+      return new Entry(fields[0], fields[1], Long.parseLong(fields[2]), Long.parseLong(fields[3]), fields[4]);
+    }
+    public String toString() {
+      return path + "\t" + source + "\t" + sourceSize + "\t" + sourceLastModified + "\t" + hash;
+    }
+  }
+
+  private final File inputDir;
+  private final File imagesDir;
+  /** what the shortnames of the page dirs are */
+  private final PageTree pageTree;
+  private final File manifest;
+  /** what was copied the last time we scraped into this output dir, by path */
+  private final Map<String,Entry> previous = new HashMap<String,Entry>();
+  /** what has been copied (or was already there) this time, by path */
+  private final Map<String,Entry> current = new ConcurrentHashMap<String,Entry>();
+  /** the path of every attachment some thread has already claimed (and copied, if needed) */
+  private final Set<String> claimed = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+  /** content hash =&gt; the first (complete) file w/that content */
+  private final Map<String,File> byHash = new ConcurrentHashMap<String,File>();
+
+  private final AtomicInteger copied = new AtomicInteger();
+  private final AtomicInteger linked = new AtomicInteger();
+  private final AtomicInteger unchanged = new AtomicInteger();
+  private final AtomicInteger adopted = new AtomicInteger();
+
+  /** Reads the manifest of the images dir (in the output dir) if there is one */
+  public AttachmentStore(File inputDir, File imagesDir, PageTree pageTree) throws IOException {
+    this.inputDir = inputDir;
+    this.imagesDir = imagesDir;
+    this.pageTree = pageTree;
+    this.manifest = new File(imagesDir.getAbsoluteFile().getParentFile(), MANIFEST_NAME);
+    if (manifest.exists()) {
+      for (String line : Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8)) {
+        if (! (line.isEmpty() || line.startsWith("#"))) {
+          final Entry entry = Entry.parse(line);
+          previous.put(entry.path, entry);
+        }
+      }
+    }
+  }
+
+  /**
+   * @param page the page using the attachment, for error messages
+   * @param src the (relative) path of the attachment in the input dir
+   * @param pageShortName the shortname of the page the attachment belongs to
+   * @param filename the name of the attachment (in confluence)
+   */
+  public void copy(File page, String src, String pageShortName, String filename) throws IOException {
+    final String path = pageShortName + "/" + filename;
+    if (! claimed.add(path)) {
+      return;
+    }
+    final File dest = new File(imagesDir, path);
+    final Entry old = previous.get(path);
+    final File source = new File(inputDir, src);
+    if (! source.exists()) {
+      throw new RuntimeException("unable to find attachment: " + source + " for " + path + " in " +
+                                 page.toString());
+    }
+    if (null != old && old.source.equals(src) && old.sourceSize == source.length()
+        && old.sourceLastModified == source.lastModified() && dest.isFile() && dest.length() == old.sourceSize) {
+      current.put(path, old);
+      byHash.putIfAbsent(old.hash, dest);
+      unchanged.incrementAndGet();
+      return;
+    }
+
+    final String hash = hash(source);
+    if (null == old && dest.isFile() && hash.equals(hash(dest))) {
+      // already there, but not in the manifest
+      current.put(path, new Entry(path, src, source.length(), source.lastModified(), hash));
+      byHash.putIfAbsent(hash, dest);
+      adopted.incrementAndGet();
+      return;
+    }
+    try {
+      // unlike mkdirs, this doesn't fail if another thread creates the dir first
+      Files.createDirectories(dest.getParentFile().toPath());
+    } catch (IOException e) {
+      throw new RuntimeException("unable to makedirs: " + dest.getParentFile() + " for attachment: " + src +
+                                 " in " + page.toString(), e);
+    }
+    // never write to an existing file, it may be a hard link to another attachment
+    Files.deleteIfExists(dest.toPath());
+    final File same = byHash.get(hash);
+    if (null != same && link(same, dest)) {
+      linked.incrementAndGet();
+    } else {
+      transfer(source, dest);
+      byHash.putIfAbsent(hash, dest);
+      copied.incrementAndGet();
+    }
+    current.put(path, new Entry(path, src, source.length(), source.lastModified(), hash));
+  }
+
+  /**
+   * Removes the attachments that were copied the last time (or are in the dir of a page) but not used by any page
+   * this time, and writes the manifest.  Should only be called once every page has been scraped (successfully).
+   */
+  public void finish() throws IOException {
+    int removed = 0;
+    for (Entry entry : previous.values()) {
+      if (! current.containsKey(entry.path)) {
+        final File dest = new File(imagesDir, entry.path);
+        Files.deleteIfExists(dest.toPath());
+        deleteIfEmpty(dest.getParentFile());
+        removed++;
+      }
+    }
+    final File[] dirs = imagesDir.listFiles();
+    if (null != dirs) {
+      for (File dir : dirs) {
+        final File[] files = dir.listFiles();
+        if (null == files || ! pageTree.hasShortName(dir.getName())) {
+          continue; // not the dir of a page
+        }
+        for (File file : files) {
+          if (file.isFile() && ! current.containsKey(dir.getName() + "/" + file.getName())) {
+            Files.delete(file.toPath());
+            removed++;
+          }
+        }
+        deleteIfEmpty(dir);
+      }
+    }
+    final File tmp = new File(manifest.getPath() + ".tmp");
+    try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+      out.write(MANIFEST_HEADER);
+      out.write("\n");
+      for (Entry entry : new TreeMap<String,Entry>(current).values()) {
+        out.write(entry.toString());
+        out.write("\n");
+      }
+    }
+    Files.move(tmp.toPath(), manifest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    System.out.println("Attachments: " + copied + " copied, " + linked + " linked (same content), " + unchanged
+                       + " unchanged, " + adopted + " adopted (already there), " + removed + " removed");
+  }
+
+  private static void deleteIfEmpty(File dir) {
+    final String[] left = dir.list();
+    if (null != left && 0 == left.length) {
+      dir.delete();
+    }
+  }
+
+  /** @return false if the file system can't make hard links (between the two) */
+  private static boolean link(File existing, File link) throws IOException {
+    try {
+      Files.createLink(link.toPath(), existing.toPath());
+      return true;
+    } catch (UnsupportedOperationException | IOException e) {
+      Files.deleteIfExists(link.toPath());
+      return false;
+    }
+  }
+
+  private static void transfer(File source, File dest) throws IOException {
+    try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+         FileChannel out = FileChannel.open(dest.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+      final long size = in.size();
+      for (long pos = 0; pos < size; ) {
+        pos += in.transferTo(pos, size - pos, out);
+      }
+    }
+  }
+
+  /** @return the SHA-256 of the file's content, in hex */
+  static String hash(File file) throws IOException {
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException("every JVM must support SHA-256", e);
+    }
+    try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      final ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+      while (0 <= in.read(buf)) {
+        buf.flip();
+        digest.update(buf);
+        buf.clear();
+      }
+    }
+    final StringBuilder hex = new StringBuilder(64);
+    for (byte b : digest.digest()) {
+      hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return hex.toString();
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 2) {
+      System.err.println("usage: AttachmentStore <fromdir> <todir>");
+      System.exit(-1);
+    }
+    sync(new File(args[0]), new File(args[1]));
+  }
+
+  /**
+   * Makes <code>to</code> an exact copy of <code>from</code>: every file in <code>from</code> is copied,
+   * unless <code>to</code> already has a file w/the same size &amp; last modified time (copies get the last
+   * modified time of the original), and any file (or dir) in <code>to</code> that isn't in <code>from</code>
+   * is removed.
+   */
+  public static void sync(File from, File to) throws IOException {
+    final int[] counts = new int[3]; // copied, unchanged, removed
+    sync(from, to, counts);
+    System.out.println("Synced " + to + ": " + counts[0] + " copied, " + counts[1] + " unchanged, "
+                       + counts[2] + " removed");
+  }
+
+  private static void sync(File from, File to, int[] counts) throws IOException {
+    final File[] kids = from.listFiles();
+    if (null == kids) {
+      throw new IOException("Not a dir: " + from);
+    }
+    Files.createDirectories(to.toPath());
+    final Set<String> names = new HashSet<String>();
+    for (File kid : kids) {
+      names.add(kid.getName());
+      final File dest = new File(to, kid.getName());
+      if (kid.isDirectory()) {
+        if (dest.isFile()) {
+          Files.delete(dest.toPath());
+        }
+        sync(kid, dest, counts);
+      } else if (dest.isFile() && dest.length() == kid.length() && dest.lastModified() == kid.lastModified()) {
+        counts[1]++;
+      } else {
+        delete(dest);
+        transfer(kid, dest);
+        dest.setLastModified(kid.lastModified());
+        counts[0]++;
+      }
+    }
+    for (File extra : to.listFiles()) {
+      if (! names.contains(extra.getName())) {
+        delete(extra);
+        counts[2]++;
+      }
+    }
+  }
+
+  /** Deletes a file, or a dir and everything in it, if it exists */
+  private static void delete(File file) throws IOException {
+    final File[] kids = file.listFiles();
+    if (null != kids) {
+      for (File kid : kids) {
+        delete(kid);
+      }
+    }
+    Files.deleteIfExists(file.toPath());
+  }
+}
@@ -0,0 +1,306 @@
+package com.lucidworks.docparser;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.parser.Parser;
+
+/**
+ * An immutable index of the pages in <code>page-tree.xml</code>: the title, shortname, and kids of every page,
+ * keyed by page id.
+ * <p>
+ * The XML is parsed once, and the shortname of every page is computed up front -- so two pages w/the same
+ * shortname (which would be written to the same file) are found as soon as the tree is loaded, no matter which
+ * pages are (or aren't) in the export.  Page ids are kept in a sorted <code>int[]</code> so looking up a page
+ * (for every link &amp; image) is a binary search, and safe for any number of threads at once.
+ * </p>
+ * <p>
+ * The index can be written to (and read back from) a small binary file, so repeated scrapes don't need to parse
+ * the XML again, see {@link #load}.  All ints are big endian, and the layout is:
+ * </p>
+ * <pre>
+ * header: MAGIC, VERSION, long xmlLength, long xmlLastModified, numPages
+ * pages:  (sorted by id) int id, UTF title, UTF shortName, int numKids, int[numKids] kid ids
+ * </pre>
+ */
+public final class PageTree {
+  public static final int MAGIC = 0x50475452; // "PGTR"
+  /** bump this any time the format (or how shortnames are computed) changes */
+  public static final int VERSION = 1;
+
+  /**
+   * System property specifying where {@link ScrapeConfluence} keeps the index of <code>page-tree.xml</code>
+   * between runs, if unset the XML is always parsed
+   */
+  public static final String INDEX_PROP = "page.tree.index";
+
+  private static final Pattern HTML_EXPORT_FILENAME = Pattern.compile("^.*?\\D?(\\d+)\\.html$");
+  private static final Pattern SHORT_NAME_CLEANER = Pattern.compile("[^a-z0-9]+");
+
+  /** A page in the tree */
+  public static final class Page {
+    public final int id;
+    public final String title;
+    public final String shortName;
+    /** the ids of the kids of the page, in the order they appear in the tree */
+    private final int[] kids;
+    private Page(int id, String title, String shortName, int[] kids) {
+      this.id = id;
+      this.title = title;
+      this.shortName = shortName;
+      this.kids = kids;
+    }
+    public int getNumKids() {
+      return kids.length;
+    }
+    /** @return the id of the i'th kid of the page */
+    public int getKid(int i) {
+      return kids[i];
+    }
+  }
+
+  /** the id of every page, sorted */
+  private final int[] ids;
+  /** the page w/each id */
+  private final Page[] pages;
+  /** the shortname of every page */
+  private final Set<String> shortNames = new HashSet<String>();
+  /** the size &amp; last modified time of the XML the tree was loaded from */
+  private final long xmlLength;
+  private final long xmlLastModified;
+
+  /** @param pages sorted by id */
+  private PageTree(Page[] pages, long xmlLength, long xmlLastModified) {
+    this.pages = pages;
+    this.ids = new int[pages.length];
+    for (int i = 0; i < pages.length; i++) {
+      ids[i] = pages[i].id;
+      shortNames.add(pages[i].shortName);
+    }
+    this.xmlLength = xmlLength;
+    this.xmlLastModified = xmlLastModified;
+    checkShortNames();
+  }
+
+  /**
+   * Reads the tree from the index file, if it was written from the same (unmodified) XML file by this version
+   * of the code, otherwise parses the XML and (re)writes the index file.  An index that can't be read (ex: it's
+   * truncated, or isn't an index at all) is treated the same as one that's out of date.
+   * @param index where the index is kept, if null then the XML is always parsed
+   */
+  public static PageTree load(File pageTreeXml, File index) throws IOException {
+    if (null != index && index.exists()) {
+      try {
+        final PageTree tree = read(index);
+        if (null != tree && tree.xmlLength == pageTreeXml.length()
+            && tree.xmlLastModified == pageTreeXml.lastModified()) {
+          return tree;
+        }
+        System.out.println("Page tree index is out of date: " + index);
+      } catch (IOException e) {
+        System.out.println("Page tree index can't be read, rebuilding it (" + e + "): " + index);
+      }
+    }
+    final PageTree tree = parse(pageTreeXml);
+    if (null != index) {
+      tree.write(index);
+    }
+    return tree;
+  }
+
+  /** Parses the tree from the XML */
+  public static PageTree parse(File pageTreeXml) throws IOException {
+    final Document dom;
+    // Jsoups XML parsing is easier to work with then javax
+    try (FileInputStream fis = new FileInputStream(pageTreeXml)) {
+      dom = Jsoup.parse(fis, null, pageTreeXml.toURI().toString(), Parser.xmlParser());
+    }
+    final List<Page> pages = new ArrayList<Page>();
+    for (Element page : dom.getElementsByTag("page")) {
+      final String title = page.attr("title");
+      final int[] kids = new int[page.children().size()];
+      int numKids = 0;
+      for (Element kid : page.children()) {
+        if ("page".equals(kid.tagName())) {
+          kids[numKids++] = parseId(kid);
+        }
+      }
+      pages.add(new Page(parseId(page), title, getShortName(title), Arrays.copyOf(kids, numKids)));
+    }
+    final Page[] sorted = pages.toArray(new Page[pages.size()]);
+    Arrays.sort(sorted, new Comparator<Page>() {
+      public int compare(Page a, Page b) {
+        return Integer.compare(a.id, b.id);
+      }
+    });
+    for (int i = 1; i < sorted.length; i++) {
+      if (sorted[i - 1].id == sorted[i].id) {
+        throw new RuntimeException("Multiple pages with id " + sorted[i].id + " in " + pageTreeXml);
+      }
+    }
+    return new PageTree(sorted, pageTreeXml.length(), pageTreeXml.lastModified());
+  }
+
+  private static int parseId(Element page) {
+    final String id = page.attr("id");
+    try {
+      return Integer.parseInt(id);
+    } catch (NumberFormatException e) {
+      throw new RuntimeException("Page has bad id attr: " + page.attr("title") + " => " + id, e);
+    }
+  }
+
+  /** @return the shortname of a page w/the title, which is the name of the file it's written to */
+  public static String getShortName(String title) {
+    Matcher m = SHORT_NAME_CLEANER.matcher(title.toLowerCase(Locale.ROOT));
+    return m.replaceAll("-");
+  }
+
+  /** fails if multiple pages have the same shortname, listing every one that does */
+  private void checkShortNames() {
+    final Map<String,List<Page>> byShortName = new HashMap<String,List<Page>>();
+    final List<List<Page>> collisions = new ArrayList<List<Page>>();
+    for (Page page : pages) {
+      List<Page> same = byShortName.get(page.shortName);
+      if (null == same) {
+        same = new ArrayList<Page>(1);
+        byShortName.put(page.shortName, same);
+      } else if (1 == same.size()) {
+        collisions.add(same);
+      }
+      same.add(page);
+    }
+    if (collisions.isEmpty()) {
+      return;
+    }
+    final StringBuilder msg = new StringBuilder("Multiple pages with the same shortname:");
+    for (List<Page> same : collisions) {
+      msg.append("\n  ").append(same.get(0).shortName).append(":");
+      for (Page page : same) {
+        msg.append(" ").append(page.id).append(" (").append(page.title).append(")");
+      }
+    }
+    throw new RuntimeException(msg.toString());
+  }
+
+  public int size() {
+    return pages.length;
+  }
+
+  /** @return true if some page in the tree has the shortname */
+  public boolean hasShortName(String shortName) {
+    return shortNames.contains(shortName);
+  }
+
+  public Page getPage(int id) {
+    final Page page = getPageIfExists(id);
+    if (null == page) {
+      throw new NullPointerException("can't find page with id: " + id);
+    }
+    return page;
+  }
+  /** @return the page w/the id, or null if there isn't one in the tree */
+  public Page getPageIfExists(int id) {
+    final int i = Arrays.binarySearch(ids, id);
+    return (i < 0) ? null : pages[i];
+  }
+  public Page getPage(String htmlFilePath) {
+    Page page = getPageIfMatch(htmlFilePath);
+    if (null != page) {
+      return page;
+    } // else...
+    throw new RuntimeException("Can't match page path pattern for html path: " + htmlFilePath);
+  }
+  public Page getPageIfMatch(String htmlFilePath) {
+    if (null == htmlFilePath || 0 == htmlFilePath.length()) {
+      return null;
+    }
+    Matcher m = HTML_EXPORT_FILENAME.matcher(htmlFilePath);
+    if (m.matches()) {
+      int id = Integer.valueOf(m.group(1));
+      return getPage(id);
+    } // else...
+    return null;
+  }
+
+  /** Writes the index to the file (replacing it, if it already exists) */
+  public void write(File index) throws IOException {
+    final File tmp = new File(index.getPath() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(xmlLength);
+      out.writeLong(xmlLastModified);
+      out.writeInt(pages.length);
+      for (Page page : pages) {
+        out.writeInt(page.id);
+        out.writeUTF(page.title);
+        out.writeUTF(page.shortName);
+        out.writeInt(page.kids.length);
+        for (int kid : page.kids) {
+          out.writeInt(kid);
+        }
+      }
+    }
+    Files.move(tmp.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * @return the tree in the index file, or null if it was written by a different version of the code
+   * @throws IOException if it's not an index, or it's truncated (or otherwise corrupt)
+   */
+  public static PageTree read(File index) throws IOException {
+    // no count in the file can be bigger then this (every page, or kid, takes at least 4 bytes)
+    final long maxCount = index.length() / 4;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(index)))) {
+      if (MAGIC != in.readInt()) {
+        throw new IOException("Not a page tree index: " + index);
+      }
+      if (VERSION != in.readInt()) {
+        return null;
+      }
+      final long xmlLength = in.readLong();
+      final long xmlLastModified = in.readLong();
+      final Page[] pages = new Page[readCount(in, maxCount, index)];
+      for (int i = 0; i < pages.length; i++) {
+        final int id = in.readInt();
+        final String title = in.readUTF();
+        final String shortName = in.readUTF();
+        final int[] kids = new int[readCount(in, maxCount, index)];
+        for (int k = 0; k < kids.length; k++) {
+          kids[k] = in.readInt();
+        }
+        pages[i] = new Page(id, title, shortName, kids);
+      }
+      for (int i = 1; i < pages.length; i++) {
+        if (pages[i].id <= pages[i - 1].id) {
+          throw new IOException("Page tree index isn't sorted by id: " + index);
+        }
+      }
+      return new PageTree(pages, xmlLength, xmlLastModified);
+    }
+  }
+
+  private static int readCount(DataInputStream in, long maxCount, File index) throws IOException {
+    final int count = in.readInt();
+    if (count < 0 || maxCount < count) {
+      throw new IOException("Corrupt page tree index, bad count " + count + ": " + index);
+    }
+    return count;
+  }
+}
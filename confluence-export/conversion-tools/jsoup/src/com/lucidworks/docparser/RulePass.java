@@ -0,0 +1,180 @@
+package com.lucidworks.docparser;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.select.Elements;
+import org.jsoup.select.NodeVisitor;
+
+/**
+ * A list of rewrite {@link Rule}s, applied to a (Jsoup) Document w/a single traversal of the whole document.
+ * <p>
+ * Each rule is registered for the tags, classes and/or attributes of the elements it might apply to, and the
+ * traversal collects (in document order) every element each rule is registered for.  Once the traversal is
+ * done, the rules are applied one at a time, in the order they were first registered: each rule is applied to
+ * every element collected for it that is still in the document and that it {@link Rule#matches} at that point.
+ * </p>
+ * <p>
+ * So each rule sees exactly what a <code>select</code> done right before applying it would have found -- as
+ * long as no rule before it (in the same pass) adds the tag, class or attribute it's registered for to some
+ * element, or creates new elements it should apply to.  Rules that depend on those kinds of changes belong in
+ * a later pass.
+ * </p>
+ * <pre>
+ * final RulePass pass = new RulePass()
+ *   .onTags(unwrapEmpty, "strong", "em")
+ *   .onAttributes(removeStyle, "style");
+ * pass.apply(doc);
+ * </pre>
+ * <p>
+ * A pass (and it's rules) must not keep any state of it's own between documents, so the same pass can be
+ * applied to any number of documents at once.
+ * </p>
+ */
+public final class RulePass {
+
+  /** A rewrite rule, see {@link RulePass} */
+  public abstract static class Rule {
+    /**
+     * @param element has (or had, when the document was traversed) one of the tags, classes or attributes
+     *                this rule is registered for
+     * @return true if this rule applies to the element, always by default
+     */
+    public boolean matches(Element element) {
+      return true;
+    }
+    /** Applies this rule to every element it matched, in document order (may be empty) */
+    public abstract void apply(Elements elements);
+  }
+
+  private final List<Rule> rules = new ArrayList<Rule>();
+  /** key =&gt; the (indexes of the) rules registered for it, in the order they were registered */
+  private final Map<String,List<Integer>> byTag = new LinkedHashMap<String,List<Integer>>();
+  private final Map<String,List<Integer>> byClass = new LinkedHashMap<String,List<Integer>>();
+  private final Map<String,List<Integer>> byAttribute = new LinkedHashMap<String,List<Integer>>();
+
+  /** Registers the rule for elements w/any of the (lowercase) tag names */
+  public RulePass onTags(Rule rule, String... tags) {
+    return register(byTag, rule, tags);
+  }
+
+  /** Registers the rule for elements w/any of the classes (which, like <code>hasClass</code>, ignores case) */
+  public RulePass onClasses(Rule rule, String... classNames) {
+    return register(byClass, rule, classNames);
+  }
+
+  /** Registers the rule for elements w/any of the attributes (regardless of value) */
+  public RulePass onAttributes(Rule rule, String... keys) {
+    return register(byAttribute, rule, keys);
+  }
+
+  private RulePass register(Map<String,List<Integer>> index, Rule rule, String... keys) {
+    int r = rules.indexOf(rule);
+    if (r < 0) {
+      r = rules.size();
+      rules.add(rule);
+    }
+    for (String key : keys) {
+      final String lower = key.toLowerCase(Locale.ROOT);
+      List<Integer> registered = index.get(lower);
+      if (null == registered) {
+        registered = new ArrayList<Integer>();
+        index.put(lower, registered);
+      }
+      if (! registered.contains(r)) {
+        registered.add(r);
+      }
+    }
+    return this;
+  }
+
+  /** Applies every rule to the document, see {@link RulePass} */
+  public void apply(final Document doc) {
+    final List<Elements> found = new ArrayList<Elements>(rules.size());
+    for (int r = 0; r < rules.size(); r++) {
+      found.add(new Elements());
+    }
+    doc.traverse(new NodeVisitor() {
+      public void head(Node node, int depth) {
+        if (node instanceof Element) {
+          collect((Element) node, found);
+        }
+      }
+      public void tail(Node node, int depth) {
+        // NOOP
+      }
+    });
+
+    for (int r = 0; r < rules.size(); r++) {
+      final Rule rule = rules.get(r);
+      final Elements matched = new Elements();
+      for (Element element : found.get(r)) {
+        // anything removed by an earlier rule (or inside something that was) is skipped
+        if (doc == element.ownerDocument() && rule.matches(element)) {
+          matched.add(element);
+        }
+      }
+      rule.apply(matched);
+    }
+  }
+
+  private void collect(Element element, List<Elements> found) {
+    add(byTag.get(element.tagName()), element, found);
+    if (! byClass.isEmpty() && element.hasAttr("class")) {
+      for (String name : element.classNames()) {
+        add(byClass.get(name.toLowerCase(Locale.ROOT)), element, found);
+      }
+    }
+    for (Map.Entry<String,List<Integer>> entry : byAttribute.entrySet()) {
+      if (element.hasAttr(entry.getKey())) {
+        add(entry.getValue(), element, found);
+      }
+    }
+  }
+
+  private static void add(List<Integer> registered, Element element, List<Elements> found) {
+    if (null == registered) {
+      return;
+    }
+    for (int r : registered) {
+      final Elements elements = found.get(r);
+      // a rule can be registered for more then one thing the same element has, but only collects it once
+      if (elements.isEmpty() || element != elements.get(elements.size() - 1)) {
+        elements.add(element);
+      }
+    }
+  }
+
+  /** @return true if any ancestor of the element has one of the tag names */
+  public static boolean hasAncestor(Element element, String... tags) {
+    for (Element parent = element.parent(); null != parent; parent = parent.parent()) {
+      for (String tag : tags) {
+        if (tag.equals(parent.tagName())) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /** @return true if any descendant of the element (not counting the element itself) has one of the tag names */
+  public static boolean hasDescendant(Element element, String... tags) {
+    for (Element kid : element.children()) {
+      for (String tag : tags) {
+        if (tag.equals(kid.tagName())) {
+          return true;
+        }
+      }
+      if (hasDescendant(kid, tags)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
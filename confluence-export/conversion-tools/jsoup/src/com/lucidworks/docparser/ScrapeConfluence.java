@@ -7,20 +7,37 @@ import java.nio.file.Files;
 import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Locale;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.apache.solr.refguide.PhaseTimings;
+import org.apache.solr.refguide.TextFileReader;
+
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.nodes.Node;
 import org.jsoup.nodes.TextNode;
-import org.jsoup.parser.Parser;
 import org.jsoup.parser.Tag;
 import org.jsoup.select.Elements;
 import org.jsoup.select.NodeVisitor;
@@ -37,6 +54,29 @@ public class ScrapeConfluence {
   static final Pattern ONLY_SPACE_PATTERN = Pattern.compile("\\A\\s*\\Z");
   static final Pattern JAVADOC_URL_PATH_PATTERN = Pattern.compile("/(solr|core)/\\d+_\\d+_\\d+(/.*)");
   
+  /** 
+   * System property specifying the number of threads used for each stage of the pipeline, 0 means one per cpu.
+   * 1 (the default) converts every page in a single (sequential) loop.  The output is the same regardless of 
+   * how many threads are used.
+   */
+  public static final String THREADS_PROP = "scrape.threads";
+
+  /**
+   * System property specifying a dir to also write every page into as AsciiDoc (see {@link AsciiDocWriter}),
+   * if unset only the cleaned up HTML is written
+   */
+  public static final String ADOC_DIR_PROP = "scrape.adoc.dir";
+
+  /**
+   * System property, if true only the pages that are new or changed since the last scrape into the output dir
+   * (or whose output depends on a page that was renamed or removed) are converted, see {@link ScrapeManifest}.
+   * The output of pages that are no longer in the export is removed.
+   */
+  public static final String INCREMENTAL_PROP = "scrape.incremental";
+
+  /** how many pages (per thread) can be waiting between any two stages of the pipeline */
+  private static final int QUEUE_PER_THREAD = 2;
+  
     public static void main(String[] args) throws Exception {
         if (args.length < 3) {
             System.err.println("usage: ScrapeConfluence "
@@ -45,140 +85,493 @@ public class ScrapeConfluence {
         }
         File inputDir = new File(args[0]);
         File pageTreeXmlFile = new File(args[1]);
-        PageTree pageTree = new PageTree(pageTreeXmlFile);
         File outputDir = new File(args[2]);
-        File imagesDir = new File(outputDir, "images");
-        if (! (imagesDir.exists() || imagesDir.mkdirs() ) ) {
-          throw new RuntimeException("Unable to create images dir: " + imagesDir.toString());
-        }
         
-        HtmlFileFilter htmlFilter = new HtmlFileFilter();
-        File[] pages = inputDir.listFiles(htmlFilter);
-        for (File page : pages) {
-            if (page.getName().equals("index.html")) {
-              // we don't need/want you
-              // although i really wish i'd realized this page was i nthe HTML export before
-              // i did all that work to build page-tree.xml from the XML export
-              continue;
-            }
-          
-            System.out.println("input Page URI: " + page.toURI().toString());
-            final Element pageTreePage = pageTree.getPage(page.toURI().toString());
-            final String pageName = pageTree.getPageShortName(pageTreePage);
-            final String title = pageTree.getPageTitle(pageTreePage);
-            final String permalink = pageName + ".html";
-            final File outPage = new File(outputDir, permalink);
-            System.out.println("outPage URI: " + outPage.toURI().toString());
-            
-            if (outPage.exists()) {
-              throw new RuntimeException(permalink + " already exists - multiple files with same shortname: " + page + " => " + outPage);
-            }
+        PhaseTimings timings = PhaseTimings.fromSystemProperties("ScrapeConfluence");
+        PhaseTimings.Timer timer = timings.start("page-tree", pageTreeXmlFile);
+        final String pageTreeIndex = System.getProperty(PageTree.INDEX_PROP, "");
+        PageTree pageTree = PageTree.load(pageTreeXmlFile, pageTreeIndex.isEmpty() ? null : new File(pageTreeIndex));
+        timer.stop();
+        scrape(inputDir, pageTree, outputDir, getAdocDir(), Boolean.getBoolean(INCREMENTAL_PROP), getThreads(),
+               timings);
+        timings.writeReport();
+    }
 
-            // Confluence encodes &nbsp; as 0xa0.
-            // JSoup API doesn't handle this - change to space before parsing Document
-            String fileContents = readFile(page.getPath());
-            fileContents = fileContents.replace('\u00a0',' ');
+  /** @see #THREADS_PROP */
+  public static int getThreads() {
+    final int threads = Integer.getInteger(THREADS_PROP, 1);
+    if (threads < 0) {
+      throw new RuntimeException(THREADS_PROP + " must not be negative: " + threads);
+    }
+    return (0 == threads) ? Runtime.getRuntime().availableProcessors() : threads;
+  }
 
-            // parse Confluence page
-            Document doc = Jsoup.parse(fileContents);
-            Element mainContent = doc.select("#main-content").first();
-            if (mainContent == null) {
-              throw new RuntimeException(page.getName() + " has no main-content div");
-            }
-            
-            // create clean HTML page
-            Document docOut = Document.createShell(outPage.toURI().toString());
-            docOut.title(title);
-
-            addMetadata(docOut, "page-shortname", pageName);
-            addMetadata(docOut, "page-permalink", permalink);
-            for (Element kid : pageTreePage.children()) {
-              addMetadata(docOut, "page-children", pageTree.getPageShortName(kid));
-            }
+  /** @see #ADOC_DIR_PROP */
+  public static File getAdocDir() {
+    final String adocDir = System.getProperty(ADOC_DIR_PROP, "");
+    return adocDir.isEmpty() ? null : new File(adocDir);
+  }
 
-            
-            docOut.body().appendChild(mainContent);
-            docOut.normalise();
+  /**
+   * Converts every page in the input dir into the output dir, copying the attachments they use (or have) into
+   * <code>images</code> in the output dir as needed -- see {@link AttachmentStore}.
+   * <p>
+   * If an AsciiDoc dir is specified, each page is also written there as <code>&lt;page-shortname&gt;.adoc</code>
+   * (by the same stage that writes the HTML).
+   * </p>
+   * <p>
+   * What every page was converted from is written to a {@link ScrapeManifest} in the output dir, so if the scrape
+   * is incremental only the pages it says need to be are converted again (and the output of pages that were
+   * removed, or renamed, is deleted) -- otherwise every page is converted, and none of them may already exist.
+   * </p>
+   * <p>
+   * If more then one thread is used, each page goes through a pipeline of 3 stages -- read &amp; parse, 
+   * transform (cleanup, fix links &amp; attachments), and write -- each w/it's own threads, and a bounded queue 
+   * between each stage (so only a handful of parsed pages are in memory at any one time). 
+   * </p>
+   */
+  static void scrape(File inputDir, PageTree pageTree, File outputDir, File adocDir, boolean incremental,
+                     int numThreads, PhaseTimings timings) throws Exception {
+    final File imagesDir = new File(outputDir, "images");
+    if (! (imagesDir.exists() || imagesDir.mkdirs() ) ) {
+      throw new RuntimeException("Unable to create images dir: " + imagesDir.toString());
+    }
+    if (null != adocDir && ! (adocDir.exists() || adocDir.mkdirs())) {
+      throw new RuntimeException("Unable to create adoc dir: " + adocDir.toString());
+    }
+    
+    final ScrapeManifest previous = incremental ? ScrapeManifest.read(outputDir) : null;
+    if (incremental && null == previous) {
+      System.out.println("No (usable) " + ScrapeManifest.NAME + " in " + outputDir + ", converting every page");
+    }
+    final ScrapeManifest manifest = new ScrapeManifest();
+    final Map<ScrapeManifest.Change,List<PageJob>> changes =
+      new EnumMap<ScrapeManifest.Change,List<PageJob>>(ScrapeManifest.Change.class);
+    for (ScrapeManifest.Change change : ScrapeManifest.Change.values()) {
+      changes.put(change, new ArrayList<PageJob>());
+    }
+    final List<PageJob> unchanged = new ArrayList<PageJob>();
 
-            cleanupContent(docOut);
+    // work out where every page is going (in order) up front
+    // (the page tree has already made sure no two pages have the same shortname)
+    final List<PageJob> jobs = new ArrayList<PageJob>();
+    // page id => the file it was read from
+    final Map<Integer,File> ids = new HashMap<Integer,File>();
+    HtmlFileFilter htmlFilter = new HtmlFileFilter();
+    File[] pages = inputDir.listFiles(htmlFilter);
+    for (File page : pages) {
+      if (page.getName().equals("index.html")) {
+        // we don't need/want you
+        // although i really wish i'd realized this page was i nthe HTML export before
+        // i did all that work to build page-tree.xml from the XML export
+        continue;
+      }
+      
+      System.out.println("input Page URI: " + page.toURI().toString());
+      final PageTree.Page pageTreePage = pageTree.getPage(page.toURI().toString());
+      final PageJob job = new PageJob(page, pageTreePage, pageTree, outputDir, adocDir);
+      System.out.println("outPage URI: " + job.outPage.toURI().toString());
+      
+      final File other = ids.put(job.id, page);
+      if (null != other) {
+        throw new RuntimeException("Multiple files for page id " + job.id + ": " + other + " and " + page);
+      }
+      if (! incremental && job.outPage.exists()) {
+        throw new RuntimeException(job.permalink + " already exists in " + outputDir
+                                   + " (remove it, or set -D" + INCREMENTAL_PROP + "=true): " + page + " => " + job.outPage);
+      }
+      if (null != previous) {
+        PhaseTimings.Timer timer = timings.start("hash", page);
+        job.hash = AttachmentStore.hash(page);
+        timer.stop();
+        final ScrapeManifest.Change change = (null == job.adocPage)
+          ? previous.check(pageTreePage, job.hash, pageTree, job.outPage)
+          : previous.check(pageTreePage, job.hash, pageTree, job.outPage, job.adocPage);
+        if (null == change) {
+          unchanged.add(job);
+          continue;
+        }
+        changes.get(change).add(job);
+      }
+      jobs.add(job);
+    }
 
-            // fix links
-            Elements elements = docOut.select("a[href]");
-            for (Element element : elements) {
-              element.attr("href", fixLink(page, pageTree, element.attr("href")));
-            }
-            
-            // fix (and copy) images
-            for (Element element : docOut.select("img")) {
-              String src = element.attr("src");
-              // attachments can be referenced by other pages
-              String imagePageId = element.attr("data-linked-resource-container-id");
-              String filename = element.attr("data-linked-resource-default-alias");
-              if (null == imagePageId || null == filename ||
-                  "".equals(imagePageId) || "".equals(filename)) {
-                // this some standard comfluence image, not an attacment
-                // assume it's already been copied into place, and leave the src attr alone
-                continue;
-              }
-              String imagePageShortName = pageTree.getPageShortName(pageTree.getPage
-                                                                    (Integer.valueOf(imagePageId)));
-              
-              // copy the file to the desired path if we haven't already...
-              File imagePageDir = new File(imagesDir, imagePageShortName);
-              File imageFile = new File(imagePageDir, filename);
-              if (! imageFile.exists()) {
-                File origImageFile = new File(inputDir, src);
-                if (! origImageFile.exists()) {
-                  throw new RuntimeException("unable to find image: " + origImageFile + " for img in " +
-                                             page.toString());
-                }
-                if (! (imagePageDir.exists() || imagePageDir.mkdirs() ) ) {
-                  throw new RuntimeException("unable to makedirs: " + imagePageDir + " for img: " + src +
-                                             " in " + page.toString());
-                }
-                Files.copy(origImageFile.toPath(), imageFile.toPath());
-              }
-              
-              // rewrite the src attribute
-              element.attr("src", "images/" + imagePageShortName + "/" + filename);
-              // put each image in it's own paragragh (block type elements in adoc)
-              element.wrap("<p></p>");
-            }
+    final List<ScrapeManifest.Entry> deleted = new ArrayList<ScrapeManifest.Entry>();
+    if (null != previous) {
+      // the output of pages that are gone (or have moved) is removed, unless another page is there now
+      final Set<String> shortNames = new HashSet<String>();
+      for (PageJob job : jobs) {
+        shortNames.add(job.pageName);
+      }
+      for (PageJob job : unchanged) {
+        shortNames.add(job.pageName);
+      }
+      for (ScrapeManifest.Entry entry : previous.entries()) {
+        if (! ids.containsKey(entry.id)) {
+          deleted.add(entry);
+        }
+        if (! shortNames.contains(entry.shortName)) {
+          Files.deleteIfExists(new File(outputDir, entry.shortName + ".html").toPath());
+          if (null != adocDir) {
+            Files.deleteIfExists(new File(adocDir, entry.shortName + ".adoc").toPath());
+          }
+        }
+      }
+    }
 
-            // TODO: need to look for non image attachments and copy them as well
-            // ie: SVG files used to create some of these images
-            
-            docOut.normalise();
-            OutputStream out = new FileOutputStream(outPage);
-            Writer writer = new OutputStreamWriter(out,"UTF-8");
-            BufferedWriter bufWriter = new BufferedWriter(writer);
-            bufWriter.write(docOut.toString());
-            bufWriter.write("\n");
-            bufWriter.close();
-            writer.close();
-            out.close();
-        }
-    }
-
-    static String readFile(String fileName) throws IOException {
-        InputStream in = new FileInputStream(fileName);
-        Reader reader = new InputStreamReader(in,"UTF-8");
-        BufferedReader br = new BufferedReader(reader);
+    final AttachmentStore attachments = new AttachmentStore(inputDir, imagesDir, pageTree);
+    for (PageJob job : unchanged) {
+      // not converted, but still uses the same attachments (so they mustn't be removed)
+      final ScrapeManifest.Entry entry = previous.get(job.id);
+      for (ScrapeManifest.Attachment attachment : entry.attachments) {
+        attachments.copy(job.page, attachment.src, attachment.pageShortName, attachment.filename);
+      }
+      manifest.put(entry);
+    }
+    if (1 == numThreads) {
+      // Confluence encodes &nbsp; as 0xa0.
+      // JSoup API doesn't handle this - change to space while reading, before parsing Document
+      final TextFileReader textReader = new TextFileReader(true);
+      for (PageJob job : jobs) {
+        parsePage(job, textReader, timings);
+        transformPage(job, pageTree, attachments, timings);
+        writePage(job, timings);
+      }
+    } else {
+      scrapePipeline(jobs, pageTree, attachments, numThreads, timings);
+    }
+    attachments.finish();
+    for (PageJob job : jobs) {
+      manifest.put(new ScrapeManifest.Entry(job.id, job.hash, job.pageName, job.kids, job.links,
+                                            new ArrayList<ScrapeManifest.Attachment>(job.copied.values())));
+    }
+    manifest.write(outputDir);
+    if (null != previous) {
+      printChanges(changes, unchanged.size(), deleted, previous);
+    }
+  }
+
+  /** Prints what an incremental scrape converted (and why) &amp; removed */
+  private static void printChanges(Map<ScrapeManifest.Change,List<PageJob>> changes, int unchanged,
+                                   List<ScrapeManifest.Entry> deleted, ScrapeManifest previous) {
+    final StringBuilder report = new StringBuilder("Incremental scrape:");
+    for (Map.Entry<ScrapeManifest.Change,List<PageJob>> change : changes.entrySet()) {
+      report.append(" ").append(change.getValue().size()).append(" ")
+        .append(change.getKey().toString().toLowerCase(Locale.ROOT)).append(",");
+    }
+    report.append(" ").append(deleted.size()).append(" deleted, ").append(unchanged).append(" unchanged\n");
+    for (Map.Entry<ScrapeManifest.Change,List<PageJob>> change : changes.entrySet()) {
+      for (PageJob job : change.getValue()) {
+        report.append("  ").append(change.getKey()).append(" ");
+        if (ScrapeManifest.Change.RENAMED == change.getKey()) {
+          report.append(previous.get(job.id).shortName).append(" -> ");
+        }
+        report.append(job.pageName).append("\n");
+      }
+    }
+    for (ScrapeManifest.Entry entry : deleted) {
+      report.append("  DELETED ").append(entry.shortName).append("\n");
+    }
+    System.out.print(report);
+  }
+
+  /** Scrapes the pages w/the pipeline, see {@link #scrape} */
+  private static void scrapePipeline(List<PageJob> jobs, final PageTree pageTree, final AttachmentStore attachments,
+                                     int numThreads, final PhaseTimings timings) throws Exception {
+    System.out.println("Scraping " + jobs.size() + " pages using " + numThreads + " threads per stage");
+    final BlockingQueue<PageJob> toParse = new ArrayBlockingQueue<PageJob>(jobs.size() + numThreads);
+    toParse.addAll(jobs);
+    for (int i = 0; i < numThreads; i++) {
+      toParse.add(PageJob.DONE);
+    }
+    final BlockingQueue<PageJob> toTransform = new ArrayBlockingQueue<PageJob>(numThreads * QUEUE_PER_THREAD);
+    final BlockingQueue<PageJob> toWrite = new ArrayBlockingQueue<PageJob>(numThreads * QUEUE_PER_THREAD);
+    final AtomicInteger parsing = new AtomicInteger(numThreads);
+    final AtomicInteger transforming = new AtomicInteger(numThreads);
+    final AtomicInteger writing = new AtomicInteger(numThreads);
+    
+    final ExecutorService pool = Executors.newFixedThreadPool(3 * numThreads);
+    try {
+      final CompletionService<Void> stages = new ExecutorCompletionService<Void>(pool);
+      for (int i = 0; i < numThreads; i++) {
+        stages.submit(new StageWorker(toParse, toTransform, parsing, numThreads, new Stage() {
+          private final TextFileReader textReader = new TextFileReader(true);
+          public void process(PageJob job) throws IOException {
+            parsePage(job, textReader, timings);
+          }
+        }));
+        stages.submit(new StageWorker(toTransform, toWrite, transforming, numThreads, new Stage() {
+          public void process(PageJob job) throws IOException {
+            transformPage(job, pageTree, attachments, timings);
+          }
+        }));
+        stages.submit(new StageWorker(toWrite, null, writing, 0, new Stage() {
+          public void process(PageJob job) throws IOException {
+            writePage(job, timings);
+          }
+        }));
+      }
+      // wait for every worker to finish, but fail as soon as any one of them does
+      for (int i = 0; i < 3 * numThreads; i++) {
         try {
-            StringBuilder sb = new StringBuilder();
-            String line = br.readLine();
-            while (line != null) {
-                sb.append(line);
-                sb.append("\n");
-                line = br.readLine();
-            }
-            return sb.toString();
-        } finally {
-            br.close();
+          stages.take().get();
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof Exception) {
+            throw (Exception) e.getCause();
+          }
+          throw e;
         }
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /** A page to be scraped, and where it's going */
+  static final class PageJob {
+    /** marks the end of the pages in a queue, never processed */
+    static final PageJob DONE = new PageJob();
+    
+    final File page;
+    final int id;
+    final String pageName;
+    final String title;
+    final String permalink;
+    final File outPage;
+    /** where the page is written as AsciiDoc, null if it isn't */
+    final File adocPage;
+    /** id =&gt; shortname of the kids of the page, in order */
+    final Map<Integer,String> kids = new LinkedHashMap<Integer,String>();
+    /** filename =&gt; (relative) path in the input dir, of every attachment the page has */
+    final Map<String,String> attachments = new LinkedHashMap<String,String>();
+    /** id =&gt; shortname of every page the page links to, once it's been transformed */
+    final Map<Integer,String> links = new TreeMap<Integer,String>();
+    /** the attachments copied for the page (by path in the images dir), once it's been transformed */
+    final Map<String,ScrapeManifest.Attachment> copied = new LinkedHashMap<String,ScrapeManifest.Attachment>();
+    /** of the page's (raw) HTML, see {@link ScrapeManifest} */
+    String hash;
+    /** the (clean) page, once it's been parsed, until it's been written */
+    Document docOut;
+    
+    PageJob(File page, PageTree.Page pageTreePage, PageTree pageTree, File outputDir, File adocDir) {
+      this.page = page;
+      this.id = pageTreePage.id;
+      this.pageName = pageTreePage.shortName;
+      this.title = pageTreePage.title;
+      this.permalink = pageName + ".html";
+      this.outPage = new File(outputDir, permalink);
+      this.adocPage = (null == adocDir) ? null : new File(adocDir, pageName + ".adoc");
+      for (int i = 0; i < pageTreePage.getNumKids(); i++) {
+        final PageTree.Page kid = pageTree.getPage(pageTreePage.getKid(i));
+        kids.put(kid.id, kid.shortName);
+      }
+    }
+    private PageJob() {
+      this.page = null;
+      this.id = 0;
+      this.pageName = null;
+      this.title = null;
+      this.permalink = null;
+      this.outPage = null;
+      this.adocPage = null;
+    }
+  }
+
+  /** One stage of the pipeline, each worker has it's own instance */
+  private interface Stage {
+    public void process(PageJob job) throws IOException;
+  }
+
+  /** 
+   * Takes pages from the <code>in</code> queue, and processes then puts each one into the <code>out</code>
+   * queue (if any) until it takes {@link PageJob#DONE}.  The last worker of a stage to finish puts one 
+   * <code>DONE</code> into the <code>out</code> queue for every worker of the next stage.
+   */
+  private static final class StageWorker implements Callable<Void> {
+    private final BlockingQueue<PageJob> in;
+    private final BlockingQueue<PageJob> out;
+    private final AtomicInteger running;
+    private final int numNext;
+    private final Stage stage;
+    public StageWorker(BlockingQueue<PageJob> in, BlockingQueue<PageJob> out, AtomicInteger running, int numNext,
+                       Stage stage) {
+      this.in = in;
+      this.out = out;
+      this.running = running;
+      this.numNext = numNext;
+      this.stage = stage;
+    }
+    public Void call() throws IOException, InterruptedException {
+      for (PageJob job = in.take(); PageJob.DONE != job; job = in.take()) {
+        stage.process(job);
+        if (null != out) {
+          out.put(job);
+        }
+      }
+      if (0 == running.decrementAndGet()) {
+        for (int i = 0; i < numNext; i++) {
+          out.put(PageJob.DONE);
+        }
+      }
+      return null;
+    }
+  }
+
+  /** reads &amp; parses the page, and moves it's main content into a new (clean) document */
+  static void parsePage(PageJob job, TextFileReader textReader,
+                        PhaseTimings timings) throws IOException {
+    final File page = job.page;
+    PhaseTimings.Timer timer;
+    if (null == job.hash) {
+      timer = timings.start("hash", page);
+      job.hash = AttachmentStore.hash(page);
+      timer.stop();
+    }
+    timer = timings.start("parse", page);
+    String fileContents = textReader.read(page);
+
+    // parse Confluence page
+    Document doc = Jsoup.parse(fileContents);
+    Element mainContent = doc.select("#main-content").first();
+    if (mainContent == null) {
+      throw new RuntimeException(page.getName() + " has no main-content div");
+    }
+    
+    // create clean HTML page
+    Document docOut = Document.createShell(job.outPage.toURI().toString());
+    docOut.title(job.title);
+
+    addMetadata(docOut, "page-shortname", job.pageName);
+    addMetadata(docOut, "page-permalink", job.permalink);
+    for (String kid : job.kids.values()) {
+      addMetadata(docOut, "page-children", kid);
+    }
+
+    docOut.body().appendChild(mainContent);
+    docOut.normalise();
+    job.docOut = docOut;
+
+    // every attachment the page has (not just the ones it uses) is listed after the main content
+    for (Element link : doc.select("div.pageSection:has(#attachments) a[href^=attachments/]")) {
+      final String filename = link.text().trim();
+      if (! filename.isEmpty()) {
+        job.attachments.put(filename, link.attr("href"));
+      }
+    }
+    timer.stop();
+  }
+
+  /** cleans up the (parsed) page, and fixes it's links &amp; images (copying attachments as needed) */
+  static void transformPage(PageJob job, PageTree pageTree, AttachmentStore attachments,
+                            PhaseTimings timings) throws IOException {
+    final File page = job.page;
+    final Document docOut = job.docOut;
+    PhaseTimings.Timer timer = timings.start("cleanup", page);
+    cleanupContent(docOut);
+    timer.stop();
+
+    // fix links
+    timer = timings.start("fix-links", page);
+    Elements elements = docOut.select("a[href]");
+    for (Element element : elements) {
+      if (isAttachmentLink(element)) {
+        continue; // fixed (and copied) w/the images
+      }
+      element.attr("href", fixLink(page, pageTree, element.attr("href"), job.links));
+    }
+    timer.stop();
+    
+    // fix (and copy) images & other attachments
+    timer = timings.start("attachments", page);
+    for (Element element : docOut.select("img")) {
+      String src = element.attr("src");
+      // attachments can be referenced by other pages
+      String imagePageId = element.attr("data-linked-resource-container-id");
+      String filename = element.attr("data-linked-resource-default-alias");
+      if (null == imagePageId || null == filename ||
+          "".equals(imagePageId) || "".equals(filename)) {
+        // this some standard comfluence image, not an attacment
+        // assume it's already been copied into place, and leave the src attr alone
+        continue;
+      }
+      final PageTree.Page imagePage = pageTree.getPage(Integer.parseInt(imagePageId));
+      String imagePageShortName = imagePage.shortName;
+      
+      // copy the file to the desired path if we haven't already...
+      copyAttachment(job, attachments, src, imagePage, filename);
+      
+      // rewrite the src attribute
+      element.attr("src", "images/" + imagePageShortName + "/" + filename);
+      // put each image in it's own paragragh (block type elements in adoc)
+      element.wrap("<p></p>");
     }
+    for (Element element : elements) {
+      if (isAttachmentLink(element)) {
+        final PageTree.Page attachmentPage = pageTree.getPage
+          (Integer.parseInt(element.attr("data-linked-resource-container-id")));
+        String filename = element.attr("data-linked-resource-default-alias");
+        copyAttachment(job, attachments, element.attr("href"), attachmentPage, filename);
+        element.attr("href", "images/" + attachmentPage.shortName + "/" + filename);
+      }
+    }
+    // any other attachments of the page (ie: SVG files used to create some of these images)
+    for (Map.Entry<String,String> attachment : job.attachments.entrySet()) {
+      if (new File(page.getParentFile(), attachment.getValue()).exists()) {
+        copyAttachment(job, attachments, attachment.getValue(), pageTree.getPage(job.id), attachment.getKey());
+      } else {
+        System.err.println("attachment missing from export: " + attachment.getValue() + " in " + page.toString());
+      }
+    }
+    timer.stop();
+  }
+
+  /** copies the attachment (of the owner page) for the job's page, and remembers that it did */
+  private static void copyAttachment(PageJob job, AttachmentStore attachments, String src, PageTree.Page owner,
+                                     String filename) throws IOException {
+    attachments.copy(job.page, src, owner.shortName, filename);
+    job.copied.put(owner.shortName + "/" + filename,
+                   new ScrapeManifest.Attachment(owner.id, owner.shortName, filename, src));
+  }
+
+  /** @return true if the element is a link to an attachment (of any page) */
+  static boolean isAttachmentLink(Element element) {
+    return "a".equals(element.tagName())
+      && "attachment".equals(element.attr("data-linked-resource-type"))
+      && ! "".equals(element.attr("data-linked-resource-container-id"))
+      && ! "".equals(element.attr("data-linked-resource-default-alias"));
+  }
+
+  /** writes the (transformed) page to it's out file, and it's AsciiDoc file (if any) */
+  static void writePage(PageJob job, PhaseTimings timings) throws IOException {
+    PhaseTimings.Timer timer = timings.start("write", job.page);
+    final Document docOut = job.docOut;
+    docOut.normalise();
+    OutputStream out = new FileOutputStream(job.outPage);
+    Writer writer = new OutputStreamWriter(out,"UTF-8");
+    BufferedWriter bufWriter = new BufferedWriter(writer);
+    bufWriter.write(docOut.toString());
+    bufWriter.write("\n");
+    bufWriter.close();
+    writer.close();
+    out.close();
+    timer.stop();
+
+    if (null != job.adocPage) {
+      timer = timings.start("adoc", job.page);
+      try (Writer adoc = new OutputStreamWriter(new FileOutputStream(job.adocPage), "UTF-8")) {
+        adoc.write(AsciiDocWriter.write(docOut));
+      }
+      timer.stop();
+    }
+    job.docOut = null;
+  }
 
   static String fixLink(File page, PageTree pageTree, final String href) {
+    return fixLink(page, pageTree, href, null);
+  }
+
+  /** @param links if not null, the id &amp; shortname of the page linked to (if any) is put in it */
+  static String fixLink(File page, PageTree pageTree, final String href, Map<Integer,String> links) {
     try {
       URI uri = new URI(href);
       if (uri.isAbsolute()) {
@@ -199,12 +592,15 @@ public class ScrapeConfluence {
       final String PRE = "REL_LINK//";
       
       String path = uri.getPath(); 
-      Element linkedPage = pageTree.getPageIfMatch(path);
+      PageTree.Page linkedPage = pageTree.getPageIfMatch(path);
       
       if ("".equals(path)) { // fragment only URL (ie: same page)
         return PRE + fixAnchorId(href);
       } else if (null != linkedPage) {
-        final String linkShortName = pageTree.getPageShortName(linkedPage);
+        final String linkShortName = linkedPage.shortName;
+        if (null != links) {
+          links.put(linkedPage.id, linkShortName);
+        }
         path = linkShortName + ".adoc";
 
         String frag = uri.getFragment();
@@ -241,178 +637,268 @@ public class ScrapeConfluence {
   }
   
   
+  /**
+   * The rules {@link #cleanupContent} applies to every page, in the same order they've always been applied.
+   * <p>
+   * Most of the rules only remove, unwrap, or modify (the text of) elements, so they all share the first pass.
+   * Fixing the ids needs a second pass, since the headers swap ids w/the anchors in (or before) them first --
+   * which can add an id to an element that didn't have one -- and so do the rules after it, which need to see
+   * the (fake) comments it adds.
+   * </p>
+   */
+  private static final RulePass[] CLEANUP_PASSES = { cleanupPass(), annotatePass() };
+
   static void cleanupContent(Document docOut) {
-    // start cleanup
-    Elements elements = null;
-    
+    for (RulePass pass : CLEANUP_PASSES) {
+      pass.apply(docOut);
+    }
+    docOut.normalise();
+  }
+
+  private static RulePass cleanupPass() {
+    final RulePass pass = new RulePass();
+
     // remove side panels (page-internal ToCs)
-    Element sideBar = docOut.select("[data-type=aside]").first();
-    if (null == sideBar) {
-      // sometimes they aren't an 'aside', they are columns cotaining panels
-      elements = docOut.select("div.columnMacro");
-      for (Element element : elements) {
-        if (! element.select("div.toc-macro").isEmpty()) {
-          sideBar = element;
-          break;
-        }
-      }
-    }
-    if (null == sideBar) {
-      // final scnereo: toc by itself in the page body...
-      elements = docOut.select("div.toc-macro");
-      for (Element element : elements) {
-        if (! element.select("div.toc-macro").isEmpty()) {
-          sideBar = element;
-          break;
-        }
-      }
-    }
-    if (sideBar != null) {
-      // TODO: this currently replaces the entire aside/column/panel if there was one...
-      // ...would it be better to leave the other panel text and only remove the div.toc-macro?
-      //  examples:
-      //    Covered in this section:
-      //    Topics covered in this section:
-      //    Filters discussed in this section:
-      //    Algorithms discussed in this section:
-
-      // NOTE: conciously choosing to completely remove the TOC, instead of adding any metadata/macros to it
-      // let the page presentation decide if/when to use a TOC...
-      //
-      sideBar.remove();
-      // sideBar.replaceWith(new TextNode("toc::[]",""));
-      // addMetadata(docOut, "toc", "true");
-      
+    final RulePass.Rule sideBars = new RulePass.Rule() {
+      private boolean isAside(Element element) {
+        return "aside".equalsIgnoreCase(element.attr("data-type").trim());
+      }
+      private boolean isDiv(Element element, String className) {
+        return "div".equals(element.tagName()) && element.hasClass(className);
+      }
+      public boolean matches(Element element) {
+        return isAside(element) || isDiv(element, "columnMacro") || isDiv(element, "toc-macro");
+      }
+      public void apply(Elements elements) {
+        Element sideBar = null;
+        for (Element element : elements) {
+          if (isAside(element)) {
+            sideBar = element;
+            break;
+          }
+        }
+        if (null == sideBar) {
+          // sometimes they aren't an 'aside', they are columns cotaining panels
+          for (Element element : elements) {
+            if (isDiv(element, "columnMacro") && ! element.select("div.toc-macro").isEmpty()) {
+              sideBar = element;
+              break;
+            }
+          }
+        }
+        if (null == sideBar) {
+          // final scnereo: toc by itself in the page body...
+          for (Element element : elements) {
+            if (isDiv(element, "toc-macro") && ! element.select("div.toc-macro").isEmpty()) {
+              sideBar = element;
+              break;
+            }
+          }
+        }
+        if (sideBar != null) {
+          // TODO: this currently replaces the entire aside/column/panel if there was one...
+          // ...would it be better to leave the other panel text and only remove the div.toc-macro?
+          //  examples:
+          //    Covered in this section:
+          //    Topics covered in this section:
+          //    Filters discussed in this section:
+          //    Algorithms discussed in this section:
 
-    } else {
-      // sanity check if we missed any (multiple TOCs on a page?) ...
-      elements = docOut.select("div.toc-macro");
-      if (! elements.isEmpty()) {
-        System.out.println("MISSED A TOC: " + elements.toString());
-        System.exit(-1);
+          // NOTE: conciously choosing to completely remove the TOC, instead of adding any metadata/macros to it
+          // let the page presentation decide if/when to use a TOC...
+          //
+          sideBar.remove();
+          // sideBar.replaceWith(new TextNode("toc::[]",""));
+          // addMetadata(docOut, "toc", "true");
+
+        } else {
+          // sanity check if we missed any (multiple TOCs on a page?) ...
+          final Elements tocs = new Elements();
+          for (Element element : elements) {
+            if (isDiv(element, "toc-macro")) {
+              tocs.add(element);
+            }
+          }
+          if (! tocs.isEmpty()) {
+            System.out.println("MISSED A TOC: " + tocs.toString());
+            System.exit(-1);
+          }
+        }
       }
-    }
-    
+    };
+    pass.onAttributes(sideBars, "data-type").onClasses(sideBars, "columnMacro", "toc-macro");
+
     // unwrap various formatting tags if they are empty
     // NOTE: explicitly not doing 'span' here because it might be used as an anchor
-    elements = docOut.select("strong, em, p, code, pre, span:not([id])");
-    for (Element element : elements) {
-      if (!element.hasText()) {
-        element.unwrap(); // unwrap not remove! (even w/o text might be inner nodes, ex: img)
+    pass.onTags(new RulePass.Rule() {
+      public boolean matches(Element element) {
+        return ! ("span".equals(element.tagName()) && element.hasAttr("id"));
       }
-    }
+      public void apply(Elements elements) {
+        for (Element element : elements) {
+          if (!element.hasText()) {
+            element.unwrap(); // unwrap not remove! (even w/o text might be inner nodes, ex: img)
+          }
+        }
+      }
+    }, "strong", "em", "p", "code", "pre", "span");
 
     // these spans aren't particularly problematic, and will largely be ignored by pandoc either way
     // but by removing them here, they simplify some of the logic we need in other cleanup later
     // (notably when looking for tags inside of code)
-    elements = docOut.select("span.external-link, span.nolink, span.confluence-link, code span:not([id])");
-    for (Element element : elements) {
-      element.unwrap();
-    }
-    
+    pass.onTags(new RulePass.Rule() {
+      public boolean matches(Element element) {
+        return element.hasClass("external-link") || element.hasClass("nolink") || element.hasClass("confluence-link")
+          || (! element.hasAttr("id") && RulePass.hasAncestor(element, "code"));
+      }
+      public void apply(Elements elements) {
+        for (Element element : elements) {
+          element.unwrap();
+        }
+      }
+    }, "span");
+
     // move any leading/trailing space from the leading/trailing textNodes of formatting tags
     // out of the tags
     // (completley removing it is dangerous because it might create run on "words")
-    for (String tag : Arrays.asList("span", "strong", "em", "code", "p")) { 
-      elements = docOut.getElementsByTag(tag);
-      for (Element element : elements) {
-        // Note: not using textNodes() because our first text node may not be our first child,
-        // we don't want to munge spaces from the middle of our html if it just happens to be the
-        // first direct TextNode 
-        List<Node> kids = element.childNodes();
-        if (! kids.isEmpty()) {
-          if (kids.get(0) instanceof TextNode) {
-            TextNode t = (TextNode) kids.get(0);
-            Matcher m = LEADING_SPACE_PATTERN.matcher(t.text());
-            if (m.matches()) {
-              t.text(m.replaceAll(""));
-              element.before(" ");
-            }
-          }
-          if (kids.get(kids.size()-1) instanceof TextNode) {
-            TextNode t = (TextNode) kids.get(kids.size()-1);
-            Matcher m = TRAILING_SPACE_PATTERN.matcher(t.text());
-            if (m.matches()) {
-              t.text(m.replaceAll(""));
-              element.after(" ");
+    for (String tag : Arrays.asList("span", "strong", "em", "code", "p")) {
+      // NOTE: a rule per tag, since moving the space out of one tag can move it into the start/end of another
+      pass.onTags(new RulePass.Rule() {
+        public void apply(Elements elements) {
+          for (Element element : elements) {
+            // Note: not using textNodes() because our first text node may not be our first child,
+            // we don't want to munge spaces from the middle of our html if it just happens to be the
+            // first direct TextNode
+            List<Node> kids = element.childNodes();
+            if (! kids.isEmpty()) {
+              if (kids.get(0) instanceof TextNode) {
+                TextNode t = (TextNode) kids.get(0);
+                Matcher m = LEADING_SPACE_PATTERN.matcher(t.text());
+                if (m.matches()) {
+                  t.text(m.replaceAll(""));
+                  element.before(" ");
+                }
+              }
+              if (kids.get(kids.size()-1) instanceof TextNode) {
+                TextNode t = (TextNode) kids.get(kids.size()-1);
+                Matcher m = TRAILING_SPACE_PATTERN.matcher(t.text());
+                if (m.matches()) {
+                  t.text(m.replaceAll(""));
+                  element.after(" ");
+                }
+              }
             }
           }
         }
-      }
+      }, tag);
     }
 
     // this is totally bogus, and yet confluence is doing this...
-    elements = docOut.select("code code");
-    for (Element element : elements) {
-      element.unwrap();
-    }
-    
+    pass.onTags(new RulePass.Rule() {
+      public boolean matches(Element element) {
+        return RulePass.hasAncestor(element, "code");
+      }
+      public void apply(Elements elements) {
+        for (Element element : elements) {
+          element.unwrap();
+        }
+      }
+    }, "code");
+
     // fake out pandoc when an em or strong tag is inside of a code tag
-    elements = docOut.select("code strong");
-    for (Element element : elements) {
-      element.prependText("**");
-      element.appendText("**");
-      element.unwrap();
-    }
-    elements = docOut.select("code em");
-    for (Element element : elements) {
-      element.prependText("__");
-      element.appendText("__");
-      element.unwrap();
-    }
+    pass.onTags(new RulePass.Rule() {
+      public boolean matches(Element element) {
+        return RulePass.hasAncestor(element, "code");
+      }
+      public void apply(Elements elements) {
+        for (Element element : elements) {
+          element.prependText("**");
+          element.appendText("**");
+          element.unwrap();
+        }
+      }
+    }, "strong");
+    pass.onTags(new RulePass.Rule() {
+      public boolean matches(Element element) {
+        return RulePass.hasAncestor(element, "code");
+      }
+      public void apply(Elements elements) {
+        for (Element element : elements) {
+          element.prependText("__");
+          element.appendText("__");
+          element.unwrap();
+        }
+      }
+    }, "em");
 
     // in asciidoc, links can wrap code, but code can not wrap links
     // so we need to invert the relationship if/when we find it...
-    elements = docOut.select("code > a:only-child");
-    for (Element element : elements) {
-      Element code = element.parent();
-      String href= element.attr("href");
-      element.unwrap();
-      if (! href.equals(code.text())) {
-        // if the entire code block is a URL, we don't need to wrap it in another link
-        // asciidoctor will take care of that for us.
-        code.wrap("<a href=\""+href+"\"></a>");
+    pass.onTags(new RulePass.Rule() {
+      public boolean matches(Element element) {
+        final Element parent = element.parent();
+        return null != parent && "code".equals(parent.tagName()) && element.siblingElements().isEmpty();
       }
-    }
-    
+      public void apply(Elements elements) {
+        for (Element element : elements) {
+          Element code = element.parent();
+          String href= element.attr("href");
+          element.unwrap();
+          if (! href.equals(code.text())) {
+            // if the entire code block is a URL, we don't need to wrap it in another link
+            // asciidoctor will take care of that for us.
+            code.wrap("<a href=\""+href+"\"></a>");
+          }
+        }
+      }
+    }, "a");
+
     // remove confluence styles
-    elements = docOut.select("[style]");
-    for (Element element : elements) {
-      element.removeAttr("style");
-    }
+    pass.onAttributes(new RulePass.Rule() {
+      public boolean matches(Element element) {
+        return element.hasAttr("style");
+      }
+      public void apply(Elements elements) {
+        for (Element element : elements) {
+          element.removeAttr("style");
+        }
+      }
+    }, "style");
     // remove confluence themes from <pre> tags
-    elements = docOut.getElementsByTag("pre");
-    for (Element element : elements) {
-      if (element.hasAttr("class")) {
-        Matcher codeType = PRE_CODE_CLASS_PATTERN.matcher(element.attr("class"));
-        if (codeType.find()) {
-          String codeClass = codeType.group(1);
-          // some munging needed in some cases...
-          if (codeClass.equals("html/xml")) {
-            codeClass = "xml";
-          }
-          if (codeClass.equals("js")) {
-            // almost no javascript in ref guide, assume it should really be json
-            codeClass = "json";
-          }
-          if (element.text().startsWith("curl ")) {
-            // if this looks like a curl command, then ignore whatever class might have been in
-            // confluence and treat it as bash
-            codeClass = "bash";
+    pass.onTags(new RulePass.Rule() {
+      public void apply(Elements elements) {
+        for (Element element : elements) {
+          if (element.hasAttr("class")) {
+            Matcher codeType = PRE_CODE_CLASS_PATTERN.matcher(element.attr("class"));
+            if (codeType.find()) {
+              String codeClass = codeType.group(1);
+              // some munging needed in some cases...
+              if (codeClass.equals("html/xml")) {
+                codeClass = "xml";
+              }
+              if (codeClass.equals("js")) {
+                // almost no javascript in ref guide, assume it should really be json
+                codeClass = "json";
+              }
+              if (element.text().startsWith("curl ")) {
+                // if this looks like a curl command, then ignore whatever class might have been in
+                // confluence and treat it as bash
+                codeClass = "bash";
+              }
+              // TODO: other values we should also change here? "powershell" ?
+              element.attr("class", codeClass);
+            } else {
+              element.removeAttr("class");
+            }
           }
-          // TODO: other values we should also change here? "powershell" ?
-          element.attr("class", codeClass);
-        } else {
-          element.removeAttr("class");
         }
       }
-    }
+    }, "pre");
 
     // confluence has a nasty habbit of (sometimes) putting named anchors people explicitly define
     // *inside* a header, instead of around/before it.
     // so if we find any of these, we need to rearange some things to work around somr problems...
     // https://github.com/asciidoctor/asciidoctor/issues/1875
-    // 
+    //
     // NOTE: just moving an explicit anchor before the header should work, but because of how id's on headers
     // are treated in asciidoc, and some weirdness in how asciidoctor treats multiple anchors
     // delcared in front of a header this causes all but one of the anchors to be ignored...
@@ -425,135 +911,201 @@ public class ScrapeConfluence {
     // that should result in both still existing in the final adoc file (so they are easy to grep for)
     // but the one that is most likely to have links to it will be the one used by default in generated html.
     for (int level = 1; level < 7; level++) {
-      final String h = "h" + level;
-      elements = docOut.getElementsByTag(h);
-      for (Element header : elements) {
-        // first see if we are immediately preceeded by an explicit anchor macro...
-        // (any wrapping <p> tags should have already been uprapped for us)
-        Element previous = header.previousElementSibling();
-        if (null != previous && "span".equals(previous.tagName()) && previous.classNames().contains("confluence-anchor-link")) {
-          // swap the id from this "previous" macro declaration with the "id" of the as our header
-          final String oldId = header.attr("id");
-          header.attr("id", previous.attr("id"));
-          previous.attr("id", oldId);
-        }
-          
-        // next, look for any anchors declared inside the header...
-        Elements inner = header.getElementsByClass("confluence-anchor-link");
-        for (Element anchor : inner) {
-          final String oldId = header.attr("id");
-          header.attr("id", anchor.attr("id"));
-          if (null != oldId) {
-            // flip id and move the anchor before the header
-            anchor.attr("id", oldId);
-            header.before(anchor);
-          } else {
-            // just remove the anchor completley
-            // (don't think this code path is possible, but including for completeness)
-            anchor.remove();
+      // NOTE: a rule per level, since the anchors in (or before) a header may belong to a deeper one
+      pass.onTags(new RulePass.Rule() {
+        public void apply(Elements elements) {
+          for (Element header : elements) {
+            // first see if we are immediately preceeded by an explicit anchor macro...
+            // (any wrapping <p> tags should have already been uprapped for us)
+            Element previous = header.previousElementSibling();
+            if (null != previous && "span".equals(previous.tagName()) && previous.classNames().contains("confluence-anchor-link")) {
+              // swap the id from this "previous" macro declaration with the "id" of the as our header
+              final String oldId = header.attr("id");
+              header.attr("id", previous.attr("id"));
+              previous.attr("id", oldId);
+            }
+
+            // next, look for any anchors declared inside the header...
+            Elements inner = header.getElementsByClass("confluence-anchor-link");
+            for (Element anchor : inner) {
+              final String oldId = header.attr("id");
+              header.attr("id", anchor.attr("id"));
+              if (null != oldId) {
+                // flip id and move the anchor before the header
+                anchor.attr("id", oldId);
+                header.before(anchor);
+              } else {
+                // just remove the anchor completley
+                // (don't think this code path is possible, but including for completeness)
+                anchor.remove();
+              }
+            }
           }
         }
-      }
+      }, "h" + level);
     }
-    
+
     // replace icon text
-    elements = docOut.getElementsByClass("confluence-information-macro");
-    for (Element element : elements) {
-      final String admonishment = getAdmonishment(element);
-      Elements titles = element.select(".title");
-      if (1 < titles.size()) {
-        System.err.println("admonishment macro has more then 1 title: " + element.outerHtml());
-        System.exit(-1);
+    pass.onClasses(new RulePass.Rule() {
+      public boolean matches(Element element) {
+        return element.hasClass("confluence-information-macro");
       }
+      public void apply(Elements elements) {
+        for (Element element : elements) {
+          final String admonishment = getAdmonishment(element);
+          Elements titles = element.select(".title");
+          if (1 < titles.size()) {
+            System.err.println("admonishment macro has more then 1 title: " + element.outerHtml());
+            System.exit(-1);
+          }
 
-      // it's easier to post-process this, then to try and fight the html->pandoc->adoc conversion
-      for (Element title : titles) { // only one, loop is easy
-        title.prependText("TODO_ADMON_TITLE:");
-        element.before(title); // move it before the block
+          // it's easier to post-process this, then to try and fight the html->pandoc->adoc conversion
+          for (Element title : titles) { // only one, loop is easy
+            title.prependText("TODO_ADMON_TITLE:");
+            element.before(title); // move it before the block
+          }
+          element.prependChild((new Element(Tag.valueOf("p"), ".")).prependText("[" + admonishment + "]===="));
+          element.appendChild((new Element(Tag.valueOf("p"), ".")).prependText("===="));
+        }
       }
-      element.prependChild((new Element(Tag.valueOf("p"), ".")).prependText("[" + admonishment + "]===="));
-      element.appendChild((new Element(Tag.valueOf("p"), ".")).prependText("===="));
-    }
+    }, "confluence-information-macro");
 
     // unwrap various block tags if they are empty
     for (String tag : Arrays.asList("div","tbody")) {
-      elements = docOut.getElementsByTag(tag);
-      for (Element element : elements) {
-        element.unwrap(); // unwrap not remove! (might be inner nodes, ex: img)
-      }
+      pass.onTags(new RulePass.Rule() {
+        public void apply(Elements elements) {
+          for (Element element : elements) {
+            element.unwrap(); // unwrap not remove! (might be inner nodes, ex: img)
+          }
+        }
+      }, tag);
     }
-    
+
     // remove breaks -- TODO: why?
-    elements = docOut.getElementsByTag("br");
-    for (Element element : elements) {
-      element.remove();
-    }
+    pass.onTags(new RulePass.Rule() {
+      public void apply(Elements elements) {
+        for (Element element : elements) {
+          element.remove();
+        }
+      }
+    }, "br");
+
+    return pass;
+  }
+
+  private static RulePass annotatePass() {
+    final RulePass pass = new RulePass();
 
     // work around https://github.com/asciidoctor/asciidoctor/issues/1873
-    elements = docOut.select("[id]");
-    for (Element element : elements) {
-      final String oldId = element.attr("id");
-      final String newId = fixAnchorId(oldId);
-      if (! oldId.equals(newId)) {
-        // would love to use jsoup's Comment class, but it doesn't survive pandoc
-        // ironically, this does...
-        Element fakeComment = new Element(Tag.valueOf("div"), "");
-        fakeComment.text("// OLD_CONFLUENCE_ID: " + oldId);
-        element.before(fakeComment);
-        element.attr("id", newId);
+    pass.onAttributes(new RulePass.Rule() {
+      public boolean matches(Element element) {
+        return element.hasAttr("id");
       }
-    }
+      public void apply(Elements elements) {
+        for (Element element : elements) {
+          final String oldId = element.attr("id");
+          final String newId = fixAnchorId(oldId);
+          if (! oldId.equals(newId)) {
+            // would love to use jsoup's Comment class, but it doesn't survive pandoc
+            // ironically, this does...
+            Element fakeComment = new Element(Tag.valueOf("div"), "");
+            fakeComment.text("// OLD_CONFLUENCE_ID: " + oldId);
+            element.before(fakeComment);
+            element.attr("id", newId);
+          }
+        }
+      }
+    }, "id");
 
     // pandoc gets really confused when <ol>s get nested, add a comment pointing out
     // manual cleanup is needed
-    elements = docOut.select("ol:has(ol, ul), ul:has(ol)");
-    LIST: for (Element list : elements) {
-      // if we are wrapped in an outer list, nothing to do - already done at top level
-      for (Element parent : list.parents()) {
-        if ("ol".equals(parent.tagName()) || "ul".equals(parent.tagName())) {
-          continue LIST;
+    pass.onTags(new RulePass.Rule() {
+      public boolean matches(Element list) {
+        // if we are wrapped in an outer list, nothing to do - already done at top level
+        // (checked first, since it's cheaper then looking through everything in the list)
+        if (RulePass.hasAncestor(list, "ol", "ul")) {
+          return false;
         }
+        return "ol".equals(list.tagName())
+          ? RulePass.hasDescendant(list, "ol", "ul") : RulePass.hasDescendant(list, "ol");
       }
-      // would love to use jsoup's Comment class, but it doesn't survive pandoc
-      // ironically, this does...
-      Element fakeComment = new Element(Tag.valueOf("div"), "");
-      fakeComment.text("// TODO: This '"+list.tagName()+"' has problematic nested lists inside of it, needs manual editing");
-      list.before(fakeComment);
-    }
+      public void apply(Elements elements) {
+        for (Element list : elements) {
+          // would love to use jsoup's Comment class, but it doesn't survive pandoc
+          // ironically, this does...
+          Element fakeComment = new Element(Tag.valueOf("div"), "");
+          fakeComment.text("// TODO: This '"+list.tagName()+"' has problematic nested lists inside of it, needs manual editing");
+          list.before(fakeComment);
+        }
+      }
+    }, "ol", "ul");
 
     // table cells containing structural elements are problematic in PDFs...
-    elements = docOut.select("table:has(ol, ul, p ~ p, div, pre, table)");
-    TABLE: for (Element table : elements) {
-      // if we are wrapped in another table, nothing to do - already done at top level
-      for (Element parent : table.parents()) {
-        if ("table".equals(parent.tagName())) {
-          continue TABLE;
+    pass.onTags(new RulePass.Rule() {
+      public boolean matches(Element table) {
+        // if we are wrapped in another table, nothing to do - already done at top level
+        if (RulePass.hasAncestor(table, "table")) {
+          return false;
         }
+        return RulePass.hasDescendant(table, "ol", "ul", "div", "pre", "table") || hasSiblingParagraphs(table);
       }
-      // would love to use jsoup's Comment class, but it doesn't survive pandoc
-      // ironically, this does...
-      Element fakeComment = new Element(Tag.valueOf("div"), "");
-      fakeComment.text("// TODO: This table has cells that won't work with PDF: https://github.com/ctargett/refguide-asciidoc-poc/issues/13");
-      table.before(fakeComment);
-    }
+      /** @return true if any p in the element (not counting the element itself) has a p somewhere before it */
+      private boolean hasSiblingParagraphs(Element element) {
+        boolean p = false;
+        for (Element kid : element.children()) {
+          if ("p".equals(kid.tagName())) {
+            if (p) {
+              return true;
+            }
+            p = true;
+          }
+          if (hasSiblingParagraphs(kid)) {
+            return true;
+          }
+        }
+        return false;
+      }
+      public void apply(Elements elements) {
+        for (Element table : elements) {
+          // would love to use jsoup's Comment class, but it doesn't survive pandoc
+          // ironically, this does...
+          Element fakeComment = new Element(Tag.valueOf("div"), "");
+          fakeComment.text("// TODO: This table has cells that won't work with PDF: https://github.com/ctargett/refguide-asciidoc-poc/issues/13");
+          table.before(fakeComment);
+        }
+      }
+    }, "table");
 
     // final modification: get rid of any leading spaces in paragraphs
     // (otherwise asciidoctor will treat them as a type of code formatting
-    elements = docOut.select("p > span:not([id]):first-child");
-    for (Element element : elements) {
-      if (ONLY_SPACE_PATTERN.matcher(element.html()).matches()) {
-        element.remove();
+    pass.onTags(new RulePass.Rule() {
+      public boolean matches(Element element) {
+        final Element parent = element.parent();
+        return ! element.hasAttr("id") && null != parent && "p".equals(parent.tagName())
+          && 0 == element.elementSiblingIndex();
       }
-    }
-    
+      public void apply(Elements elements) {
+        for (Element element : elements) {
+          if (ONLY_SPACE_PATTERN.matcher(element.html()).matches()) {
+            element.remove();
+          }
+        }
+      }
+    }, "span");
+
     // in general, pandoc/asciidoctor has problems with tags inside of "code" so log if we have anything
-    elements = docOut.select("code:has(*)");
-    for (Element element : elements) {
-      System.out.println("NOTE: code tag w/nested tags: " + element.outerHtml());
-    }
-      
-    
-    docOut.normalise();
+    pass.onTags(new RulePass.Rule() {
+      public boolean matches(Element element) {
+        return ! element.children().isEmpty();
+      }
+      public void apply(Elements elements) {
+        for (Element element : elements) {
+          System.out.println("NOTE: code tag w/nested tags: " + element.outerHtml());
+        }
+      }
+    }, "code");
+
+    return pass;
   }
 
   /** 
@@ -586,60 +1138,4 @@ public class ScrapeConfluence {
     System.exit(-1);
     return null;
   }
-  
-  /**
-   * Wraps a (Jsoup) "DOM" of the <code>page-tree.xml</code> file with convinience methods
-   * for getting the names, shortnames, and kids of various pages
-   */
-  private static final class PageTree {
-    private static final Pattern HTML_EXPORT_FILENAME = Pattern.compile("^.*?\\D?(\\d+)\\.html$");
-    private static final Pattern SHORT_NAME_CLEANER = Pattern.compile("[^a-z0-9]+");
-    // Jsoups XML parsing is easier to work with then javax, especially getById
-    private final Document dom;
-    public PageTree(File pageTreeXml) throws Exception {
-      try (FileInputStream fis = new FileInputStream(pageTreeXml)) {
-        this.dom = Jsoup.parse(fis, null, pageTreeXml.toURI().toString(), Parser.xmlParser());
-      }
-    }
-    public Element getPage(int id) {
-      final Element ele = dom.getElementById(""+id);
-      if (null == ele) {
-        throw new NullPointerException("can't find DOM element with id: " + id);
-      }
-      return ele;
-    }
-    public Element getPage(String htmlFilePath) {
-      Element page = getPageIfMatch(htmlFilePath);
-      if (null != page) {
-        return page;
-      } // else...
-      throw new RuntimeException("Can't match page path pattern for html path: " + htmlFilePath);
-    }
-    public Element getPageIfMatch(String htmlFilePath) {
-      if (null == htmlFilePath || 0 == htmlFilePath.length()) {
-        return null;
-      }
-      Matcher m = HTML_EXPORT_FILENAME.matcher(htmlFilePath);
-      if (m.matches()) {
-        int id = Integer.valueOf(m.group(1));
-        return getPage(id);
-      } // else...
-      return null;
-    }
-    public String getPageTitle(Element page) {
-      String title = page.attr("title");
-      if (null == title) {
-        throw new NullPointerException("Page has null title attr");
-      }
-      return title;
-    }
-    public String getPageShortName(Element page) {
-      Matcher m = SHORT_NAME_CLEANER.matcher(getPageTitle(page).toLowerCase(Locale.ROOT));
-      return m.replaceAll("-");
-    }
-    public String getPageShortName(String htmlFilePath) {
-      return getPageShortName(getPage(htmlFilePath));
-    }
-  }
 }
-
@@ -0,0 +1,219 @@
+package com.lucidworks.docparser;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * What {@link ScrapeConfluence} converted every page in an output dir from: the hash of the exported HTML, the
+ * shortname it was written as, and the shortnames of the pages (kids, links &amp; attachments) it's output
+ * depends on -- so an incremental scrape of a new export only converts the pages whose output would be
+ * different, see {@link #check}.
+ * <p>
+ * The manifest is a text file ({@link #NAME}) in the output dir, w/a line for each page followed by a line for
+ * every attachment it copied (or has).  Fields are tab separated, and a list of pages is space separated
+ * <code>id=shortname</code> pairs:
+ * </p>
+ * <pre>
+ * page       id  sha256  shortname  kids  links
+ * attachment page-id  page-shortname  filename  src
+ * </pre>
+ */
+public final class ScrapeManifest {
+
+  /** The name of the manifest file, in the output dir */
+  public static final String NAME = "scrape.manifest";
+  /** bump this any time the format (or how pages are converted) changes, so every page is converted again */
+  private static final String HEADER = "# ScrapeManifest v1: page id, sha256, shortname, kids, links";
+
+  /** Why a page needs to be converted (again) */
+  public enum Change {
+    /** not in the manifest */
+    ADDED,
+    /** the exported HTML is different */
+    CHANGED,
+    /** has a different shortname (so it's output is in a different file) */
+    RENAMED,
+    /** one of it's kids, or a page it links to (or uses an attachment of) was renamed or removed */
+    RELINKED,
+    /** it's output is gone */
+    MISSING
+  }
+
+  /** An attachment copied for a page, see {@link AttachmentStore#copy} */
+  public static final class Attachment {
+    /** the page the attachment belongs to */
+    final int pageId;
+    final String pageShortName;
+    final String filename;
+    /** the (relative) path of the attachment in the input dir */
+    final String src;
+    Attachment(int pageId, String pageShortName, String filename, String src) {
+      this.pageId = pageId;
+      this.pageShortName = pageShortName;
+      this.filename = filename;
+      this.src = src;
+    }
+  }
+
+  /** A page in the manifest */
+  public static final class Entry {
+    final int id;
+    final String hash;
+    final String shortName;
+    /** id =&gt; shortname of the kids of the page, in order */
+    final Map<Integer,String> kids;
+    /** id =&gt; shortname of every page the page links to */
+    final Map<Integer,String> links;
+    final List<Attachment> attachments;
+    Entry(int id, String hash, String shortName, Map<Integer,String> kids, Map<Integer,String> links,
+          List<Attachment> attachments) {
+      this.id = id;
+      this.hash = hash;
+      this.shortName = shortName;
+      this.kids = kids;
+      this.links = links;
+      this.attachments = attachments;
+    }
+  }
+
+  /** by page id */
+  private final Map<Integer,Entry> entries = new TreeMap<Integer,Entry>();
+
+  public Entry get(int id) {
+    return entries.get(id);
+  }
+
+  public Collection<Entry> entries() {
+    return entries.values();
+  }
+
+  public void put(Entry entry) {
+    entries.put(entry.id, entry);
+  }
+
+  /**
+   * @param hash of the page's exported HTML
+   * @param outputs every file the page is written to
+   * @return why the page needs to be converted again, or null if (as far as this manifest knows) it doesn't
+   */
+  public Change check(PageTree.Page page, String hash, PageTree pageTree, File... outputs) {
+    final Entry entry = entries.get(page.id);
+    if (null == entry) {
+      return Change.ADDED;
+    }
+    if (! entry.hash.equals(hash)) {
+      return Change.CHANGED;
+    }
+    if (! entry.shortName.equals(page.shortName)) {
+      return Change.RENAMED;
+    }
+    final Map<Integer,String> kids = new LinkedHashMap<Integer,String>();
+    for (int i = 0; i < page.getNumKids(); i++) {
+      final PageTree.Page kid = pageTree.getPage(page.getKid(i));
+      kids.put(kid.id, kid.shortName);
+    }
+    // (order matters)
+    if (! new ArrayList<Map.Entry<Integer,String>>(kids.entrySet()).equals
+        (new ArrayList<Map.Entry<Integer,String>>(entry.kids.entrySet()))) {
+      return Change.RELINKED;
+    }
+    for (Map.Entry<Integer,String> link : entry.links.entrySet()) {
+      if (renamed(pageTree, link.getKey(), link.getValue())) {
+        return Change.RELINKED;
+      }
+    }
+    for (Attachment attachment : entry.attachments) {
+      if (renamed(pageTree, attachment.pageId, attachment.pageShortName)) {
+        return Change.RELINKED;
+      }
+    }
+    for (File output : outputs) {
+      if (! output.exists()) {
+        return Change.MISSING;
+      }
+    }
+    return null;
+  }
+
+  /** @return true if the page w/the id is no longer in the tree, or doesn't have the shortname any more */
+  private static boolean renamed(PageTree pageTree, int id, String shortName) {
+    final PageTree.Page page = pageTree.getPageIfExists(id);
+    return null == page || ! page.shortName.equals(shortName);
+  }
+
+  /** @return the manifest in the output dir, or null if there isn't one (or it was written by another version) */
+  public static ScrapeManifest read(File outputDir) throws IOException {
+    final File file = new File(outputDir, NAME);
+    if (! file.exists()) {
+      return null;
+    }
+    final List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+    if (lines.isEmpty() || ! HEADER.equals(lines.get(0))) {
+      return null;
+    }
+    final ScrapeManifest manifest = new ScrapeManifest();
+    Entry entry = null;
+    for (String line : lines.subList(1, lines.size())) {
+      final String[] fields = line.split("\t", -1);
+      if ("page".equals(fields[0]) && 6 == fields.length) {
+        entry = new Entry(Integer.parseInt(fields[1]), fields[2], fields[3], parsePages(fields[4]),
+                          parsePages(fields[5]), new ArrayList<Attachment>());
+        manifest.put(entry);
+      } else if ("attachment".equals(fields[0]) && 5 == fields.length && null != entry) {
+        entry.attachments.add(new Attachment(Integer.parseInt(fields[1]), fields[2], fields[3], fields[4]));
+      } else {
+        throw new RuntimeException("Bad scrape manifest line: " + line + " in " + file);
+      }
+    }
+    return manifest;
+  }
+
+  private static Map<Integer,String> parsePages(String pages) {
+    final Map<Integer,String> result = new LinkedHashMap<Integer,String>();
+    if (! pages.isEmpty()) {
+      for (String page : pages.split(" ")) {
+        final int eq = page.indexOf('=');
+        result.put(Integer.parseInt(page.substring(0, eq)), page.substring(eq + 1));
+      }
+    }
+    return result;
+  }
+
+  /** Writes the manifest into the output dir (replacing the old one, if any) */
+  public void write(File outputDir) throws IOException {
+    final File file = new File(outputDir, NAME);
+    final File tmp = new File(file.getPath() + ".tmp");
+    try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+      out.write(HEADER);
+      out.write("\n");
+      for (Entry entry : entries.values()) {
+        out.write("page\t" + entry.id + "\t" + entry.hash + "\t" + entry.shortName + "\t" + formatPages(entry.kids)
+                  + "\t" + formatPages(entry.links) + "\n");
+        for (Attachment attachment : entry.attachments) {
+          out.write("attachment\t" + attachment.pageId + "\t" + attachment.pageShortName + "\t" + attachment.filename
+                    + "\t" + attachment.src + "\n");
+        }
+      }
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private static String formatPages(Map<Integer,String> pages) {
+    final StringBuilder out = new StringBuilder();
+    for (Map.Entry<Integer,String> page : pages.entrySet()) {
+      if (0 < out.length()) {
+        out.append(' ');
+      }
+      out.append(page.getKey()).append('=').append(page.getValue());
+    }
+    return out.toString();
+  }
+}
@@ -4,6 +4,10 @@
 # script to walk over pagetree of cleaned-up HTML pages from Confluence
 # process html to asciidoc
 # reconvert asciidoc to html
+#
+# NOTE: 'ant scrape -Dadoc.dir=...' (in conversion-tools/jsoup) writes the same asciidoc w/o pandoc or perl (unless
+# one of it's adoc.* deviations is turned on), and 'ant adoc-diff' compares it's asciidoc w/what this script wrote
+# (add -Dincremental=true to only convert the pages that changed since the last scrape of a new export)
 
 
 # parent dir of script until/unless we move it
@@ -35,9 +39,16 @@ ASCII_DIR="$WORK_DIR/../solr-ref-guide/src"
 
 rm $ASCII_DIR/*.adoc
 
+JSOUP_DIR="$WORK_DIR/conversion-tools/jsoup"
+if [ ! -e $JSOUP_DIR/build/parsers-1.0.jar ]
+then
+    echo "$JSOUP_DIR/build/parsers-1.0.jar does not exist (run 'ant jar' in $JSOUP_DIR)"
+    exit -1
+fi
+
+# only copies the images (and other attachments) that changed since the last time
 echo "Coping images..."
-rm -rf $ASCII_DIR/images
-cp -r $HTML_DIR/images $ASCII_DIR/images
+java -cp "$JSOUP_DIR/build/parsers-1.0.jar:$JSOUP_DIR/lib/jsoup-1.8.2.jar" com.lucidworks.docparser.AttachmentStore $HTML_DIR/images $ASCII_DIR/images || exit -1
 
 for x in `find $HTML_DIR -name "*.html"`
 do
@@ -0,0 +1,250 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.solr.refguide.PhaseTimings;
+import org.apache.solr.refguide.TextFileReader;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+
+/**
+ * The code actually exercised by each of the JMH benchmarks.
+ * <p>
+ * JMH refuses to generate benchmarks for classes in the default package (where our tools live) and 
+ * classes in a named package can't refer to classes in the default package, so the benchmark classes 
+ * (in <code>org.apache.solr.refguide.benchmarks</code>) look up these static methods -- which only use 
+ * JDK types in their signatures -- via method handles.
+ * </p>
+ */
+public class BenchmarkDriver {
+
+  /** Writes an adoc version of a synthetic guide to a temp dir, returning all of the adoc files */
+  public static File[] writeAdocGuide(int numPages) throws IOException {
+    final File dir = SyntheticGuide.tempDir("adoc-guide");
+    new SyntheticGuide(numPages).writeAdoc(dir);
+    return dir.listFiles(BuildNavAndPDFBody.ADOC_FILE_NAMES);
+  }
+
+  /** Writes an html version of a synthetic guide to a temp dir, returning all of the html files */
+  public static File[] writeHtmlSite(int numPages) throws IOException {
+    final File dir = SyntheticGuide.tempDir("html-site");
+    new SyntheticGuide(numPages).writeHtml(dir);
+    return dir.listFiles(new CheckLinksAndAnchors.HtmlFileFilter());
+  }
+
+  /** Builds (and links) all of the pages of a synthetic guide, in memory, "located" in a temp dir */
+  public static Object buildPages(int numPages) throws IOException {
+    final File dir = SyntheticGuide.tempDir("nav-files");
+    new File(dir, "_data").mkdirs();
+    final Map<String,BuildNavAndPDFBody.Page> allPages = new SyntheticGuide(numPages).pages(dir);
+    new BuildNavAndPDFBody.PageIndex(allPages.values()).linkKids();
+    return allPages;
+  }
+
+  /** the shortname of the main-page in any synthetic guide */
+  public static String mainPageShortname() {
+    return new SyntheticGuide(1).shortname(0);
+  }
+
+  /** @param reader either <code>fast</code> or <code>asciidoctor</code> */
+  public static Object loadAllPages(File[] adocFiles, String reader) throws Exception {
+    return BuildNavAndPDFBody.loadAllPages(adocFiles, 1, null,
+                                           reader.equals("fast") ? new BuildNavAndPDFBody.FastHeaderReader(false) : null,
+                                           new PhaseTimings("BenchmarkDriver", null, 0));
+  }
+
+  /** builds, validates &amp; links a new PageIndex */
+  public static Object buildTree(Object allPages) {
+    final BuildNavAndPDFBody.PageIndex index = new BuildNavAndPDFBody.PageIndex(pages(allPages).values());
+    final List<String> problems = index.validate(pages(allPages).get(mainPageShortname()),
+                                                 BuildNavAndPDFBody.MAX_SIDEBAR_DEPTH);
+    index.linkKids();
+    return problems;
+  }
+
+  /** @return the number of pages visited */
+  public static int depthFirstWalk(Object allPages) {
+    final int[] count = new int[1];
+    pages(allPages).get(mainPageShortname()).depthFirstWalk(new BuildNavAndPDFBody.Page.RecursiveAction() {
+      public boolean act(BuildNavAndPDFBody.Page page) {
+        count[0]++;
+        return true;
+      }
+    });
+    return count[0];
+  }
+
+  /** (re)writes the nav files into the _data dir of the dir the pages "live" in */
+  public static void writeNavFiles(Object allPages) throws IOException {
+    final BuildNavAndPDFBody.Page main = pages(allPages).get(mainPageShortname());
+    BuildNavAndPDFBody.writeNavFiles(main.file.getParentFile(), main.shortname, pages(allPages),
+                                     new BuildNavAndPDFBody.NavArtifacts(true));
+  }
+
+  /** @return the number of problems found */
+  public static int checkAllFiles(File[] htmlFiles, int threads, String extractor) throws Exception {
+    return CheckLinksAndAnchors.checkAll(htmlFiles, threads, extractor, null, null, null, null,
+                                         new PhaseTimings("BenchmarkDriver", null, 0));
+  }
+
+  /** the ids in every page of a synthetic guide, in page order, w/o writing any files */
+  public static Object anchorIds(int numPages) {
+    final SyntheticGuide guide = new SyntheticGuide(numPages);
+    final List<List<String>> ids = new ArrayList<List<String>>(numPages);
+    for (int i = 0; i < numPages; i++) {
+      ids.add(guide.ids(i));
+    }
+    return ids;
+  }
+
+  /** builds the id =&gt; pages map CheckLinksAndAnchors used before the AnchorIndex */
+  public static Object buildAnchorMap(Object anchorIds) {
+    final List<List<String>> ids = ids(anchorIds);
+    final SyntheticGuide guide = new SyntheticGuide(ids.size());
+    final Map<String,List<File>> knownIds = new HashMap<>();
+    for (int i = 0; i < ids.size(); i++) {
+      final File file = new File(guide.shortname(i) + ".html");
+      for (String id : ids.get(i)) {
+        if (! knownIds.containsKey(id)) {
+          knownIds.put(id, new ArrayList<File>(1));
+        }
+        knownIds.get(id).add(file);
+      }
+    }
+    return knownIds;
+  }
+
+  public static Object buildAnchorIndex(Object anchorIds) {
+    final List<List<String>> ids = ids(anchorIds);
+    final SyntheticGuide guide = new SyntheticGuide(ids.size());
+    final List<String> names = new ArrayList<String>(ids.size());
+    for (int i = 0; i < ids.size(); i++) {
+      names.add(guide.shortname(i) + ".html");
+    }
+    return AnchorIndex.build(names, ids);
+  }
+
+  /** writes the index to a temp file, and memory maps it */
+  public static Object mapAnchorIndex(Object anchorIndex) throws IOException {
+    final File file = new File(SyntheticGuide.tempDir("anchor-index"), "anchor-index.bin");
+    ((AnchorIndex) anchorIndex).write(file);
+    return AnchorIndex.open(file);
+  }
+
+  /** 
+   * looks up every id -- and an equal number of ids that don't exist -- in either a map or an AnchorIndex 
+   * @return the total number of pages found
+   */
+  public static int lookupAnchors(Object anchors, Object anchorIds) {
+    int found = 0;
+    if (anchors instanceof AnchorIndex) {
+      final AnchorIndex index = (AnchorIndex) anchors;
+      for (List<String> ids : ids(anchorIds)) {
+        for (String id : ids) {
+          found += index.getNumOccurrences(index.find(id)) + (index.find(id + "-missing") < 0 ? 0 : 1);
+        }
+      }
+    } else {
+      @SuppressWarnings("unchecked")
+      final Map<String,List<File>> map = (Map<String,List<File>>) anchors;
+      for (List<String> ids : ids(anchorIds)) {
+        for (String id : ids) {
+          found += map.get(id).size() + (map.containsKey(id + "-missing") ? 1 : 0);
+        }
+      }
+    }
+    return found;
+  }
+
+  /** 
+   * A rough measure of how many bytes of heap the anchors for a synthetic guide retain, by comparing the used 
+   * heap after a full GC w/ &amp; w/o them -- crude, but JMH has no way to measure retained size.
+   * @param structure <code>map</code>, <code>index</code>, or <code>mapped</code> (an index memory mapped 
+   *        from a file, which is mostly off heap)
+   */
+  public static long retainedAnchorBytes(int numPages, String structure) throws IOException {
+    final long before = usedHeap();
+    Object anchors = anchorIds(numPages);
+    if (structure.equals("map")) {
+      anchors = buildAnchorMap(anchors);
+    } else if (structure.equals("index")) {
+      anchors = buildAnchorIndex(anchors);
+    } else {
+      anchors = mapAnchorIndex(buildAnchorIndex(anchors));
+    }
+    // (the map retains the id Strings, the index only their bytes)
+    final long after = usedHeap();
+    if (lookupAnchors(anchors, anchorIds(1)) < 1) {
+      throw new IllegalStateException("BUG: " + structure + " is missing page-0");
+    }
+    return after - before;
+  }
+
+  private static long usedHeap() {
+    final Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  /** 
+   * Scans every page &amp; writes a search index of them (using the specified prefix length) to a temp dir
+   * @return the index dir
+   */
+  public static File writeSearchIndex(File[] htmlFiles, int prefixLength) throws IOException {
+    final TextFileReader textReader = new TextFileReader(false);
+    final PhaseTimings timings = new PhaseTimings("BenchmarkDriver", null, 0);
+    final SearchIndex.Builder search = new SearchIndex.Builder(prefixLength);
+    for (File file : htmlFiles) {
+      search.add(CheckLinksAndAnchors.checkFile(file, "stream", true, textReader, timings).terms);
+    }
+    final File dir = SyntheticGuide.tempDir("search-index");
+    search.write(dir);
+    return dir;
+  }
+
+  /** the total size of every file in the dir */
+  public static long sizeInBytes(File dir) {
+    long size = 0;
+    for (File file : dir.listFiles()) {
+      size += file.length();
+    }
+    return size;
+  }
+
+  /** opens the search index w/o loading any shards */
+  public static Object openSearchIndex(File dir) throws IOException {
+    return SearchIndex.open(dir);
+  }
+
+  /** @return the number of hits (at most 10) */
+  public static int search(Object searchIndex, String query) throws IOException {
+    return ((SearchIndex) searchIndex).search(query, 10).size();
+  }
+
+  /** @return the number of elements parsed */
+  public static int parseAllFiles(File[] htmlFiles) throws IOException {
+    final TextFileReader textReader = new TextFileReader(false);
+    int numElements = 0;
+    for (File file : htmlFiles) {
+      final Document doc = Jsoup.parse(textReader.read(file));
+      numElements += doc.getAllElements().size();
+    }
+    return numElements;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<List<String>> ids(Object anchorIds) {
+    return (List<List<String>>) anchorIds;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String,BuildNavAndPDFBody.Page> pages(Object allPages) {
+    return (Map<String,BuildNavAndPDFBody.Page>) allPages;
+  }
+}
@@ -0,0 +1,167 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Generates synthetic versions of the ref guide (of arbitrary size) for use in benchmarks.
+ * <p>
+ * Pages are arranged as a balanced tree (page <code>i</code> has the kids <code>i*fanout+1</code> through
+ * <code>i*fanout+fanout</code>) using the smallest fanout that keeps every page within the depth the
+ * sidebar supports.  Every page has a handful of sections, and links to it's neighbors, so the
+ * generated HTML site passes {@link CheckLinksAndAnchors} cleanly.
+ * </p>
+ */
+public class SyntheticGuide {
+
+  public final int numPages;
+  public final int fanout;
+
+  public SyntheticGuide(int numPages) {
+    this.numPages = numPages;
+    int f = 1;
+    while (maxPages(f) < numPages) {
+      f++;
+    }
+    this.fanout = f;
+  }
+
+  /** how many pages fit in a tree w/this fanout that is no deeper then the sidebar supports */
+  private static long maxPages(int fanout) {
+    long total = 0;
+    long level = 1;
+    for (int depth = 0; depth <= BuildNavAndPDFBody.MAX_SIDEBAR_DEPTH; depth++) {
+      total += level;
+      level *= fanout;
+    }
+    return total;
+  }
+
+  public String shortname(int i) {
+    return "page-" + i;
+  }
+  public String title(int i) {
+    return "Synthetic Page Number " + i;
+  }
+  /** the ids CheckLinksAndAnchors finds in the main content of page <code>i</code>, in document order */
+  public List<String> ids(int i) {
+    final List<String> ids = new ArrayList<String>(5);
+    ids.add(shortname(i));
+    for (int s = 0; s < 4; s++) {
+      ids.add(shortname(i) + "-section-" + s);
+    }
+    return ids;
+  }
+  public List<String> kids(int i) {
+    final List<String> kids = new ArrayList<String>(fanout);
+    for (long k = (long) i * fanout + 1; k <= (long) i * fanout + fanout && k < numPages; k++) {
+      kids.add(shortname((int) k));
+    }
+    return kids;
+  }
+
+  /** builds up the pages in memory, w/o any files on disk */
+  public Map<String,BuildNavAndPDFBody.Page> pages(File dir) {
+    final List<BuildNavAndPDFBody.Page> pages = new ArrayList<BuildNavAndPDFBody.Page>(numPages);
+    for (int i = 0; i < numPages; i++) {
+      final List<String> kids = kids(i);
+      pages.add(new BuildNavAndPDFBody.Page(new File(dir, shortname(i) + ".adoc"), title(i),
+                                            shortname(i), shortname(i) + ".html",
+                                            kids.isEmpty() ? null : String.join(", ", kids)));
+    }
+    return BuildNavAndPDFBody.mapByShortname(pages);
+  }
+
+  /** writes an <code>.adoc</code> file for every page (and an empty <code>_data</code> dir) */
+  public void writeAdoc(File dir) throws IOException {
+    new File(dir, "_data").mkdirs();
+    for (int i = 0; i < numPages; i++) {
+      try (Writer w = writer(new File(dir, shortname(i) + ".adoc"))) {
+        w.write("= " + title(i) + "\n");
+        w.write(":page-shortname: " + shortname(i) + "\n");
+        w.write(":page-permalink: " + shortname(i) + ".html\n");
+        final List<String> kids = kids(i);
+        if (! kids.isEmpty()) {
+          w.write(":page-children: " + String.join(", ", kids) + "\n");
+        }
+        w.write("\nThis is the intro paragraph for page " + i + ", it links to "
+                + "<<" + shortname(next(i)) + ".adoc#" + shortname(next(i)) + ",the next page>>.\n");
+        for (int s = 0; s < 4; s++) {
+          w.write("\n== Section " + s + " of Page " + i + "\n\n");
+          w.write("Some text in section " + s + " with `code` and *bold* words in it.\n\n");
+          w.write("[source,xml]\n----\n<field name=\"f" + s + "\" type=\"string\"/>\n----\n");
+        }
+      }
+    }
+  }
+
+  /**
+   * writes an <code>.html</code> file for every page, similar to what jekyll would generate --
+   * including a (large) sidebar &amp; topnav outside of the main content
+   */
+  public void writeHtml(File dir) throws IOException {
+    dir.mkdirs();
+    // the real sidebar lists every page, but that would make 100k page sites unreasonably large,
+    // so just use a fixed size chunk of "chrome" that's roughly the size of the real one
+    final StringBuilder chrome = new StringBuilder();
+    chrome.append("<div id=\"topnav\"><ul><li><a href=\"index.html\">Home</a></li></ul></div>\n");
+    chrome.append("<div class=\"sidebar\"><ul id=\"mysidebar\" class=\"nav\">\n");
+    for (int i = 0; i < Math.min(numPages, 400); i++) {
+      chrome.append("<li><a href=\"" + shortname(i) + ".html\">" + title(i) + "</a></li>\n");
+    }
+    chrome.append("</ul></div>\n");
+    for (int i = 0; i < numPages; i++) {
+      try (Writer w = writer(new File(dir, shortname(i) + ".html"))) {
+        w.write("<!DOCTYPE html>\n<html><head><title>" + title(i) + "</title></head><body>\n");
+        w.write(chrome.toString());
+        w.write("<div class=\"post-content\"><div id=\"main-content\">\n");
+        w.write("<div id=\"preamble\"><div class=\"paragraph\"><p>Intro for page " + i + ", see "
+                + "<a href=\"" + shortname(next(i)) + ".html#" + shortname(next(i)) + "\">the next page</a> "
+                + "or <a href=\"http://lucene.apache.org/solr/\">the Solr site</a>.</p></div></div>\n");
+        w.write("<div class=\"sect1\"><h2 id=\"" + shortname(i) + "\">" + title(i) + "</h2>\n");
+        for (int s = 0; s < 4; s++) {
+          final String id = shortname(i) + "-section-" + s;
+          w.write("<div class=\"sect2\"><h3 id=\"" + id + "\">Section " + s + "</h3>\n");
+          w.write("<div class=\"paragraph\"><p>Some text with <code>code</code> and a "
+                  + "<a href=\"#" + id + "\">self link</a>.</p></div>\n");
+          w.write("<div class=\"listingblock\"><div class=\"content\"><pre>&lt;field name=\"f" + s
+                  + "\"/&gt;</pre></div></div></div>\n");
+        }
+        w.write("</div></div></div>\n</body></html>\n");
+      }
+    }
+  }
+
+  private int next(int i) {
+    return (i + 1) % numPages;
+  }
+
+  private static Writer writer(File file) throws IOException {
+    return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+  }
+
+  /** Creates a new temp dir (that will be removed on exit) */
+  public static File tempDir(String prefix) throws IOException {
+    final Path dir = Files.createTempDirectory(prefix);
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      public void run() {
+        try {
+          deleteRecursively(dir.toFile());
+        } catch (IOException e) {
+          System.err.println("unable to cleanup " + dir + ": " + e.toString());
+        }
+      }
+    });
+    return dir.toFile();
+  }
+
+  public static void deleteRecursively(File file) throws IOException {
+    final File[] kids = file.listFiles();
+    if (null != kids) {
+      for (File kid : kids) {
+        deleteRecursively(kid);
+      }
+    }
+    Files.deleteIfExists(file.toPath());
+  }
+}
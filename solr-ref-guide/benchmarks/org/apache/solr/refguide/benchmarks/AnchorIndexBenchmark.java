@@ -0,0 +1,65 @@
+package org.apache.solr.refguide.benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/** 
+ * Building, and looking up ids in, the AnchorIndex of a synthetic guide (w/o any parsing) -- both in memory 
+ * and memory mapped -- compared to the id =&gt; pages map CheckLinksAndAnchors used before.
+ * The (rough) heap retained by each is printed during the setup of each trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AnchorIndexBenchmark {
+  private static final MethodHandle ANCHOR_IDS = Driver.find("anchorIds", Object.class, int.class);
+  private static final MethodHandle BUILD_ANCHOR_MAP = Driver.find("buildAnchorMap", Object.class, Object.class);
+  private static final MethodHandle BUILD_ANCHOR_INDEX = Driver.find("buildAnchorIndex", Object.class, Object.class);
+  private static final MethodHandle MAP_ANCHOR_INDEX = Driver.find("mapAnchorIndex", Object.class, Object.class);
+  private static final MethodHandle LOOKUP_ANCHORS = Driver.find("lookupAnchors", int.class, Object.class, Object.class);
+  private static final MethodHandle RETAINED_ANCHOR_BYTES = Driver.find("retainedAnchorBytes", long.class, int.class, String.class);
+
+  @Param({"1000", "10000", "100000"})
+  public int numPages;
+
+  /** only used by the lookup benchmarks */
+  @Param({"map", "index", "mapped"})
+  public String structure;
+
+  private Object anchorIds;
+  private Object anchors;
+
+  @Setup(Level.Trial)
+  public void setup() throws Throwable {
+    System.out.println("\nRetained heap for " + structure + " of " + numPages + " pages: "
+                       + (long) RETAINED_ANCHOR_BYTES.invoke(numPages, structure) + " bytes");
+    anchorIds = ANCHOR_IDS.invoke(numPages);
+    if (structure.equals("map")) {
+      anchors = BUILD_ANCHOR_MAP.invoke(anchorIds);
+    } else if (structure.equals("index")) {
+      anchors = BUILD_ANCHOR_INDEX.invoke(anchorIds);
+    } else {
+      anchors = MAP_ANCHOR_INDEX.invoke(BUILD_ANCHOR_INDEX.invoke(anchorIds));
+    }
+  }
+
+  @Benchmark
+  public Object buildAnchorMap() throws Throwable {
+    return BUILD_ANCHOR_MAP.invoke(anchorIds);
+  }
+
+  @Benchmark
+  public Object buildAnchorIndex() throws Throwable {
+    return BUILD_ANCHOR_INDEX.invoke(anchorIds);
+  }
+
+  @Benchmark
+  public int lookupAnchors() throws Throwable {
+    return (int) LOOKUP_ANCHORS.invoke(anchors, anchorIds);
+  }
+}
@@ -0,0 +1,52 @@
+package org.apache.solr.refguide.benchmarks;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/** 
+ * Checking every page of a synthetic HTML site with CheckLinksAndAnchors, as well as just 
+ * reading &amp; parsing every page (to see how much of the cost is in the Jsoup parsing).  Checking is done
+ * with both the Jsoup (<code>dom</code>) and streaming (<code>stream</code>) extractors.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class CheckLinksBenchmark {
+  private static final MethodHandle WRITE_HTML_SITE = Driver.find("writeHtmlSite", File[].class, int.class);
+  private static final MethodHandle CHECK_ALL_FILES = Driver.find("checkAllFiles", int.class, File[].class, int.class, String.class);
+  private static final MethodHandle PARSE_ALL_FILES = Driver.find("parseAllFiles", int.class, File[].class);
+
+  @Param({"1000", "10000", "100000"})
+  public int numPages;
+
+  /** only used by checkAllFiles */
+  @Param({"1", "4"})
+  public int threads;
+
+  /** only used by checkAllFiles */
+  @Param({"dom", "stream"})
+  public String extractor;
+
+  private File[] htmlFiles;
+
+  @Setup(Level.Trial)
+  public void setup() throws Throwable {
+    htmlFiles = (File[]) WRITE_HTML_SITE.invoke(numPages);
+  }
+
+  @Benchmark
+  public int checkAllFiles() throws Throwable {
+    return (int) CHECK_ALL_FILES.invoke(htmlFiles, threads, extractor);
+  }
+
+  @Benchmark
+  public int parseAllFiles() throws Throwable {
+    return (int) PARSE_ALL_FILES.invoke(htmlFiles);
+  }
+}
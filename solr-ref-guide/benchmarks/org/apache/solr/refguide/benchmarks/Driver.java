@@ -0,0 +1,22 @@
+package org.apache.solr.refguide.benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/** 
+ * Looks up static methods of the (default package) <code>BenchmarkDriver</code> 
+ * @see <a href="../../../../../BenchmarkDriver.java">BenchmarkDriver</a>
+ */
+final class Driver {
+  private Driver() {}
+
+  static MethodHandle find(String name, Class<?> returnType, Class<?>... params) {
+    try {
+      return MethodHandles.publicLookup().findStatic(Class.forName("BenchmarkDriver"), name,
+                                                     MethodType.methodType(returnType, params));
+    } catch (ReflectiveOperationException e) {
+      throw new RuntimeException("Can't find BenchmarkDriver." + name, e);
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package org.apache.solr.refguide.benchmarks;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Reading every page header of a synthetic guide, with Asciidoctor vs the fast (pure java) header reader.
+ * <p>
+ * Each invocation includes the cost of creating (and shutting down) any Asciidoctor instance, 
+ * since that is what a real build pays.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class HeaderReadingBenchmark {
+  private static final MethodHandle WRITE_ADOC_GUIDE = Driver.find("writeAdocGuide", File[].class, int.class);
+  private static final MethodHandle LOAD_ALL_PAGES = Driver.find("loadAllPages", Object.class, File[].class, String.class);
+
+  @Param({"1000", "10000", "100000"})
+  public int numPages;
+
+  @Param({"fast", "asciidoctor"})
+  public String reader;
+  
+  private File[] adocFiles;
+
+  @Setup(Level.Trial)
+  public void setup() throws Throwable {
+    adocFiles = (File[]) WRITE_ADOC_GUIDE.invoke(numPages);
+  }
+
+  @Benchmark
+  public Object loadAllPages() throws Throwable {
+    return LOAD_ALL_PAGES.invoke(adocFiles, reader);
+  }
+}
@@ -0,0 +1,36 @@
+package org.apache.solr.refguide.benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/** 
+ * Writing pdf-main-body.adoc, scrollnav.json and sidebar.json for synthetic guides (in incremental mode,
+ * so after the first invocation this includes hashing the existing files)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class NavFilesBenchmark {
+  private static final MethodHandle BUILD_PAGES = Driver.find("buildPages", Object.class, int.class);
+  private static final MethodHandle WRITE_NAV_FILES = Driver.find("writeNavFiles", void.class, Object.class);
+
+  @Param({"1000", "10000", "100000"})
+  public int numPages;
+
+  private Object allPages;
+
+  @Setup(Level.Trial)
+  public void setup() throws Throwable {
+    allPages = BUILD_PAGES.invoke(numPages);
+  }
+
+  @Benchmark
+  public void writeNavFiles() throws Throwable {
+    WRITE_NAV_FILES.invoke(allPages);
+  }
+}
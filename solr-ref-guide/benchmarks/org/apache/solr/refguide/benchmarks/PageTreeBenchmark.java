@@ -0,0 +1,39 @@
+package org.apache.solr.refguide.benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/** Validating &amp; linking up the page tree, and walking it, for synthetic guides (w/o any file I/O) */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PageTreeBenchmark {
+  private static final MethodHandle BUILD_PAGES = Driver.find("buildPages", Object.class, int.class);
+  private static final MethodHandle BUILD_TREE = Driver.find("buildTree", Object.class, Object.class);
+  private static final MethodHandle DEPTH_FIRST_WALK = Driver.find("depthFirstWalk", int.class, Object.class);
+
+  @Param({"1000", "10000", "100000"})
+  public int numPages;
+
+  private Object allPages;
+
+  @Setup(Level.Trial)
+  public void setup() throws Throwable {
+    allPages = BUILD_PAGES.invoke(numPages);
+  }
+
+  @Benchmark
+  public Object buildTree() throws Throwable {
+    return BUILD_TREE.invoke(allPages);
+  }
+
+  @Benchmark
+  public int depthFirstWalk() throws Throwable {
+    return (int) DEPTH_FIRST_WALK.invoke(allPages);
+  }
+}
@@ -0,0 +1,59 @@
+package org.apache.solr.refguide.benchmarks;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/** 
+ * Searching the SearchIndex of a synthetic HTML site, both "cold" (opening the index and loading the shards
+ * each query needs, like a browser would) and "warm" (w/the shards already loaded).  The size of each index
+ * is printed during the setup of each trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SearchIndexBenchmark {
+  private static final MethodHandle WRITE_HTML_SITE = Driver.find("writeHtmlSite", File[].class, int.class);
+  private static final MethodHandle WRITE_SEARCH_INDEX = Driver.find("writeSearchIndex", File.class, File[].class, int.class);
+  private static final MethodHandle SIZE_IN_BYTES = Driver.find("sizeInBytes", long.class, File.class);
+  private static final MethodHandle OPEN_SEARCH_INDEX = Driver.find("openSearchIndex", Object.class, File.class);
+  private static final MethodHandle SEARCH = Driver.find("search", int.class, Object.class, String.class);
+
+  @Param({"1000", "10000", "100000"})
+  public int numPages;
+
+  /** the number of leading chars of each term used to pick it's shard */
+  @Param({"1", "2"})
+  public int prefixLength;
+
+  /** a term in every page, a rare term w/a common one, and several common terms */
+  @Param({"solr", "number 42", "section 2 self link"})
+  public String query;
+
+  private File indexDir;
+  private Object warmIndex;
+
+  @Setup(Level.Trial)
+  public void setup() throws Throwable {
+    indexDir = (File) WRITE_SEARCH_INDEX.invoke((File[]) WRITE_HTML_SITE.invoke(numPages), prefixLength);
+    System.out.println("\nSearch index for " + numPages + " pages w/prefix length " + prefixLength + ": "
+                       + (long) SIZE_IN_BYTES.invoke(indexDir) + " bytes in " + indexDir.list().length + " files");
+    warmIndex = OPEN_SEARCH_INDEX.invoke(indexDir);
+    SEARCH.invoke(warmIndex, query);
+  }
+
+  @Benchmark
+  public int coldSearch() throws Throwable {
+    return (int) SEARCH.invoke(OPEN_SEARCH_INDEX.invoke(indexDir), query);
+  }
+
+  @Benchmark
+  public int warmSearch() throws Throwable {
+    return (int) SEARCH.invoke(warmIndex, query);
+  }
+}
@@ -0,0 +1,131 @@
+package org.apache.solr.refguide;
+
+import java.io.*;
+import java.util.BitSet;
+
+/** 
+ * A minimal streaming JSON writer, so we never need to build up an object model of an entire file 
+ * in memory.  Callers are responsible for balancing begin/end calls, and for calling {@link #name} 
+ * before each value inside of an object.  Strings are escaped exactly the way <code>org.json.JSONObject.quote</code>
+ * escapes them (so the output doesn't change w/the tool that writes it) w/o needing org.json on the classpath.
+ */
+public final class JsonStreamWriter implements Closeable {
+  private final Writer out;
+  /** for each currently open object/array (by nesting level): has anything been written in it yet? */
+  private final BitSet notEmpty = new BitSet();
+  private int level = 0;
+  private boolean afterName = false;
+  public JsonStreamWriter(Writer out) {
+    this.out = out;
+  }
+  public JsonStreamWriter beginObject() throws IOException {
+    return begin('{');
+  }
+  public JsonStreamWriter endObject() throws IOException {
+    return end('}');
+  }
+  public JsonStreamWriter beginArray() throws IOException {
+    return begin('[');
+  }
+  public JsonStreamWriter endArray() throws IOException {
+    return end(']');
+  }
+  public JsonStreamWriter name(String name) throws IOException {
+    separator();
+    quote(name);
+    out.write(':');
+    afterName = true;
+    return this;
+  }
+  public JsonStreamWriter value(String value) throws IOException {
+    separator();
+    quote(value);
+    return this;
+  }
+  public JsonStreamWriter value(int value) throws IOException {
+    separator();
+    out.write(Integer.toString(value));
+    return this;
+  }
+  public JsonStreamWriter value(long value) throws IOException {
+    separator();
+    out.write(Long.toString(value));
+    return this;
+  }
+  /** Writes a name + value pair, unless the value is null (in which case nothing is written) */
+  public JsonStreamWriter field(String name, String value) throws IOException {
+    return (null == value) ? this : name(name).value(value);
+  }
+  public void close() throws IOException {
+    out.close();
+  }
+  private JsonStreamWriter begin(char c) throws IOException {
+    separator();
+    out.write(c);
+    level++;
+    notEmpty.clear(level);
+    return this;
+  }
+  private JsonStreamWriter end(char c) throws IOException {
+    level--;
+    out.write(c);
+    return this;
+  }
+  private void quote(String s) throws IOException {
+    out.write('"');
+    char c = 0;
+    for (int i = 0; null != s && i < s.length(); i++) {
+      final char before = c;
+      c = s.charAt(i);
+      switch (c) {
+        case '\\':
+        case '"':
+          out.write('\\');
+          out.write(c);
+          break;
+        case '/':
+          // so "</" can't end a script element
+          if ('<' == before) {
+            out.write('\\');
+          }
+          out.write(c);
+          break;
+        case '\b':
+          out.write("\\b");
+          break;
+        case '\t':
+          out.write("\\t");
+          break;
+        case '\n':
+          out.write("\\n");
+          break;
+        case '\f':
+          out.write("\\f");
+          break;
+        case '\r':
+          out.write("\\r");
+          break;
+        default:
+          if (c < ' ' || ('\u0080' <= c && c < '\u00a0') || ('\u2000' <= c && c < '\u2100')) {
+            final String hex = Integer.toHexString(c);
+            out.write("\\u");
+            out.write("0000", 0, 4 - hex.length());
+            out.write(hex);
+          } else {
+            out.write(c);
+          }
+      }
+    }
+    out.write('"');
+  }
+  private void separator() throws IOException {
+    if (afterName) {
+      afterName = false;
+    } else if (0 < level) {
+      if (notEmpty.get(level)) {
+        out.write(',');
+      }
+      notEmpty.set(level);
+    }
+  }
+}
@@ -0,0 +1,234 @@
+package org.apache.solr.refguide;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Times the phases of work our tools do (usually per file) so we can tell where build time goes.  Used by both
+ * the ref guide tools and the Confluence conversion tools, the name of the tool is part of every event.
+ * <p>
+ * Every phase is emitted as a custom JDK Flight Recorder event (<code>org.apache.solr.refguide.Phase</code>)
+ * which costs next to nothing unless a recording is running, ex:
+ * <code>-XX:StartFlightRecording=filename=build.jfr</code>.  If the {@link #REPORT_PROP} system property
+ * is set, the timings are also summarized into a JSON report: the total for each phase, the slowest files in
+ * each phase, and the slowest files overall.
+ * </p>
+ * <pre>
+ * final PhaseTimings.Timer timer = timings.start("parse", file);
+ * ...
+ * timer.stop();
+ * </pre>
+ */
+public final class PhaseTimings {
+
+  /** If set, the path the JSON timing report is written to by {@link #writeReport} */
+  public static final String REPORT_PROP = "timings.report";
+  /** How many of the slowest files to list in the report (overall, and for each phase) */
+  public static final String SLOWEST_PROP = "timings.slowest";
+
+  private static final EventType EVENT_TYPE = EventType.getEventType(PhaseEvent.class);
+
+  private final String tool;
+  private final File report;
+  private final int numSlowest;
+  private final long created = System.nanoTime();
+  private final Timer noop = new Timer(null, null, null);
+
+  /** phase name =&gt; stats, in the order the phases were first seen */
+  private final Map<String,PhaseStats> phases = new LinkedHashMap<String,PhaseStats>();
+  /** file name =&gt; phase name =&gt; nanos, in the order the files were first seen */
+  private final Map<String,Map<String,Long>> files = new LinkedHashMap<String,Map<String,Long>>();
+
+  /**
+   * @param tool name of the tool, included in every event and the report
+   * @param report where to write the JSON report, if null then nothing is aggregated
+   * @param numSlowest how many of the slowest files to list in the report
+   */
+  public PhaseTimings(String tool, File report, int numSlowest) {
+    this.tool = tool;
+    this.report = report;
+    this.numSlowest = numSlowest;
+  }
+
+  /** @see #REPORT_PROP */
+  public static PhaseTimings fromSystemProperties(String tool) {
+    final String path = System.getProperty(REPORT_PROP, "");
+    return new PhaseTimings(tool, path.isEmpty() ? null : new File(path), Integer.getInteger(SLOWEST_PROP, 20));
+  }
+
+  /**
+   * Starts timing a phase, which ends when the returned Timer is stopped.
+   * @param file the file this phase of work is for, or null if it's not specific to any one file
+   */
+  public Timer start(String phase, File file) {
+    final boolean jfr = EVENT_TYPE.isEnabled();
+    if (null == report && ! jfr) {
+      return noop;
+    }
+    return new Timer(phase, file, jfr ? new PhaseEvent() : null);
+  }
+
+  /** Writes the JSON report (if {@link #REPORT_PROP} was set) and prints where it was written */
+  public void writeReport() throws IOException {
+    if (null == report) {
+      return;
+    }
+    final long total = System.nanoTime() - created;
+    synchronized (this) {
+      try (JsonStreamWriter json = new JsonStreamWriter
+           (new BufferedWriter(new OutputStreamWriter(new FileOutputStream(report), "UTF-8")))) {
+        json.beginObject();
+        json.field("tool", tool);
+        json.name("totalMicros").value(micros(total));
+        json.name("phases").beginArray();
+        for (Map.Entry<String,PhaseStats> phase : phases.entrySet()) {
+          final PhaseStats stats = phase.getValue();
+          json.beginObject();
+          json.field("phase", phase.getKey());
+          json.name("count").value(stats.count);
+          json.name("totalMicros").value(micros(stats.totalNanos));
+          json.name("maxMicros").value(micros(stats.maxNanos));
+          json.name("slowest").beginArray();
+          for (Map.Entry<String,Map<String,Long>> file : slowest(phase.getKey())) {
+            json.beginObject();
+            json.field("file", file.getKey());
+            json.name("micros").value(micros(file.getValue().get(phase.getKey())));
+            json.endObject();
+          }
+          json.endArray();
+          json.endObject();
+        }
+        json.endArray();
+        json.name("slowestFiles").beginArray();
+        for (Map.Entry<String,Map<String,Long>> file : slowest(null)) {
+          json.beginObject();
+          json.field("file", file.getKey());
+          json.name("micros").value(micros(sum(file.getValue())));
+          json.name("phases").beginObject();
+          for (Map.Entry<String,Long> phase : file.getValue().entrySet()) {
+            json.name(phase.getKey()).value(micros(phase.getValue()));
+          }
+          json.endObject();
+          json.endObject();
+        }
+        json.endArray();
+        json.endObject();
+      }
+    }
+    System.out.println("Wrote timing report: " + report);
+  }
+
+  private synchronized void record(String phase, File file, long nanos) {
+    PhaseStats stats = phases.get(phase);
+    if (null == stats) {
+      stats = new PhaseStats();
+      phases.put(phase, stats);
+    }
+    stats.count++;
+    stats.totalNanos += nanos;
+    stats.maxNanos = Math.max(stats.maxNanos, nanos);
+    if (null != file) {
+      Map<String,Long> perFile = files.get(file.getName());
+      if (null == perFile) {
+        perFile = new LinkedHashMap<String,Long>();
+        files.put(file.getName(), perFile);
+      }
+      final Long previous = perFile.get(phase);
+      perFile.put(phase, (null == previous ? 0L : previous) + nanos);
+    }
+  }
+
+  /** the slowest files for the specified phase, or over all if phase is null */
+  private List<Map.Entry<String,Map<String,Long>>> slowest(final String phase) {
+    final List<Map.Entry<String,Map<String,Long>>> result = new ArrayList<Map.Entry<String,Map<String,Long>>>();
+    for (Map.Entry<String,Map<String,Long>> file : files.entrySet()) {
+      if (null == phase || file.getValue().containsKey(phase)) {
+        result.add(file);
+      }
+    }
+    Collections.sort(result, new Comparator<Map.Entry<String,Map<String,Long>>>() {
+      public int compare(Map.Entry<String,Map<String,Long>> a, Map.Entry<String,Map<String,Long>> b) {
+        final long aNanos = (null == phase) ? sum(a.getValue()) : a.getValue().get(phase);
+        final long bNanos = (null == phase) ? sum(b.getValue()) : b.getValue().get(phase);
+        return Long.compare(bNanos, aNanos);
+      }
+    });
+    return result.subList(0, Math.min(numSlowest, result.size()));
+  }
+
+  private static long sum(Map<String,Long> nanosByPhase) {
+    long sum = 0;
+    for (long nanos : nanosByPhase.values()) {
+      sum += nanos;
+    }
+    return sum;
+  }
+
+  private static long micros(long nanos) {
+    return nanos / 1000L;
+  }
+
+  private static final class PhaseStats {
+    int count = 0;
+    long totalNanos = 0;
+    long maxNanos = 0;
+  }
+
+  /** Times a single phase, from when it was started until it is stopped */
+  public final class Timer {
+    private final String phase;
+    private final File file;
+    private final PhaseEvent event;
+    private final long start;
+    private Timer(String phase, File file, PhaseEvent event) {
+      this.phase = phase;
+      this.file = file;
+      this.event = event;
+      if (null != event) {
+        event.begin();
+      }
+      this.start = System.nanoTime();
+    }
+    public void stop() {
+      if (null == phase) {
+        return; // noop
+      }
+      final long nanos = System.nanoTime() - start;
+      if (null != event) {
+        event.end();
+        if (event.shouldCommit()) {
+          event.tool = tool;
+          event.phase = phase;
+          event.file = (null == file) ? null : file.getPath();
+          event.commit();
+        }
+      }
+      if (null != report) {
+        record(phase, file, nanos);
+      }
+    }
+  }
+
+  @Name("org.apache.solr.refguide.Phase")
+  @Label("Ref Guide Tools Phase")
+  @Category("Solr Ref Guide")
+  public static final class PhaseEvent extends Event {
+    @Label("Tool")
+    String tool;
+    @Label("Phase")
+    String phase;
+    @Label("File")
+    String file;
+  }
+}
@@ -0,0 +1,105 @@
+package org.apache.solr.refguide;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads (UTF-8) text files into Strings, ready to be handed to Jsoup, with as little garbage as possible.
+ * <p>
+ * Files are read from a FileChannel into a byte buffer (or memory mapped, if they are bigger then
+ * {@link #MAP_THRESHOLD}) and decoded into a char buffer -- both of which are re-used for every file
+ * read by the same instance, so the only per-file allocation is the resulting String.
+ * </p>
+ * <p>
+ * The result is exactly what reading the file line by line w/a <code>BufferedReader</code> and appending
+ * a <code>'\n'</code> after every line would produce: line endings are normalized, and a trailing newline
+ * is added if missing.  Optionally, non-breaking spaces (which is how Confluence encodes
+ * <code>&amp;nbsp;</code>) are replaced with plain spaces at the same time.
+ * </p>
+ * <p>
+ * Instances are not thread safe, use one per thread.
+ * </p>
+ */
+public final class TextFileReader {
+
+  /** files bigger then this many bytes are memory mapped instead of read into our (re-used) byte buffer */
+  public static final long MAP_THRESHOLD = 1L << 20;
+
+  private final boolean nbspToSpace;
+  private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+    .onMalformedInput(CodingErrorAction.REPLACE)
+    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  private ByteBuffer bytes = ByteBuffer.allocate(64 * 1024);
+  private CharBuffer chars = CharBuffer.allocate(64 * 1024);
+
+  /** @param nbspToSpace if true, every non-breaking space is replaced with a plain space */
+  public TextFileReader(boolean nbspToSpace) {
+    this.nbspToSpace = nbspToSpace;
+  }
+
+  public String read(File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      final long size = channel.size();
+      if (MAP_THRESHOLD < size) {
+        return decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+      }
+      if (bytes.capacity() < size) {
+        bytes = ByteBuffer.allocate((int) size);
+      }
+      bytes.clear();
+      bytes.limit((int) size);
+      while (bytes.hasRemaining() && 0 <= channel.read(bytes)) {
+        // NOOP
+      }
+      bytes.flip();
+      return decode(bytes);
+    }
+  }
+
+  private String decode(ByteBuffer in) throws CharacterCodingException {
+    // UTF-8 never decodes to more chars then bytes, +1 for the trailing newline we may add
+    final int maxChars = in.remaining() + 1;
+    if (chars.capacity() < maxChars) {
+      chars = CharBuffer.allocate(maxChars);
+    }
+    chars.clear();
+    decoder.reset();
+    CoderResult result = decoder.decode(in, chars, true);
+    if (! result.isUnderflow()) {
+      result.throwException();
+    }
+    result = decoder.flush(chars);
+    if (! result.isUnderflow()) {
+      result.throwException();
+    }
+
+    // normalize in place, the output never gets ahead of the input
+    final char[] a = chars.array();
+    final int len = chars.position();
+    int out = 0;
+    for (int i = 0; i < len; i++) {
+      char c = a[i];
+      if ('\r' == c) {
+        c = '\n';
+        if (i + 1 < len && '\n' == a[i + 1]) {
+          i++;
+        }
+      } else if (nbspToSpace && '\u00a0' == c) {
+        c = ' ';
+      }
+      a[out++] = c;
+    }
+    if (0 < out && '\n' != a[out - 1]) {
+      a[out++] = '\n';
+    }
+    return new String(a, 0, out);
+  }
+}
@@ -0,0 +1,146 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.solr.refguide.PhaseTimings;
+
+import org.asciidoctor.Asciidoctor.Factory;
+import org.asciidoctor.Asciidoctor;
+
+/**
+ * Checks {@link CheckAdocAnchors} against a few small pages (written to a temp dir) that cover the cases it
+ * has to report the same way {@link CheckLinksAndAnchors} reports them in the HTML: an explicit anchor used
+ * twice in the same page (Asciidoctor only registers it once) and one used in two pages, xrefs to them, to a
+ * section id Asciidoctor generates, to an id (or page) that doesn't exist, w/o an '#anchor', and w/an
+ * attribute reference that can't be resolved.
+ * <p>
+ * The problems reported must be exactly the expected ones -- no more, and no less.
+ * </p>
+ * <pre>
+ * java -cp ... AdocAnchorsCaseCheck
+ * </pre>
+ */
+public class AdocAnchorsCaseCheck {
+
+  /** file name =&gt; lines of each page */
+  private static final Map<String,String[]> PAGES = new LinkedHashMap<String,String[]>();
+  static {
+    PAGES.put("a.adoc", new String[] {
+        "= Page A",
+        "",
+        "[[dup]]",
+        "first",
+        "",
+        "[[dup]]",
+        "second",
+        "",
+        "[[shared]]",
+        "also in page B",
+        "",
+        "[[sec]]",
+        "== Explicit Section",
+        "",
+        "== Generated Section",
+        "",
+        "text"
+      });
+    PAGES.put("b.adoc", new String[] {
+        "= Page B",
+        "",
+        "[[shared]]",
+        "also in page A",
+        "",
+        "<<a.adoc#dup,dup>>",
+        "<<a.adoc#shared,shared>>",
+        "<<a.adoc#sec,sec>>",
+        "<<a.adoc#generated-section,generated>>",
+        "<<a.adoc#nope,nope>>",
+        "<<c.adoc#nope,no page>>",
+        "<<a.adoc,no anchor>>",
+        "<<a.adoc#{undefined-attr},attr>>",
+        "<<page-b,own title>>"
+      });
+  }
+
+  public static void main(String[] args) throws Exception {
+    final File dir = Files.createTempDirectory("adoc-anchors-cases").toFile();
+    final List<String> expected = new ArrayList<String>();
+    final List<String> actual = new ArrayList<String>();
+    try {
+      for (Map.Entry<String,String[]> page : PAGES.entrySet()) {
+        Files.write(new File(dir, page.getKey()).toPath(), Arrays.asList(page.getValue()), StandardCharsets.UTF_8);
+      }
+      final String a = new File(dir, "a.adoc").toURI().toString();
+      final String b = new File(dir, "b.adoc").toURI().toString();
+      expected.add("ID occurs multiple times: dup");
+      expected.add(" ... " + a);
+      expected.add(" ... " + a);
+      expected.add("ID occurs multiple times: shared");
+      expected.add(" ... " + a);
+      expected.add(" ... " + b);
+      expected.add(b + " contains link to an id that occurs multiple times: a.adoc#dup");
+      expected.add(b + " contains link to an id that occurs multiple times: a.adoc#shared");
+      expected.add(b + " contains link to an id that doesn't exist in a.adoc: a.adoc#nope");
+      expected.add(b + " contains link to a page that doesn't exist: c.adoc#nope");
+      expected.add(b + " contains relative link w/o an '#anchor': a.adoc");
+      expected.add(b + " contains xref w/ an unresolved attribute reference: a.adoc#{undefined-attr}");
+
+      final File[] pages = dir.listFiles(BuildNavAndPDFBody.ADOC_FILE_NAMES);
+      Arrays.sort(pages);
+      final Map<String,Object> attributes = new LinkedHashMap<String,Object>();
+      attributes.put("idprefix", "");
+      attributes.put("idseparator", "-");
+      final ByteArrayOutputStream err = new ByteArrayOutputStream();
+      final PrintStream realErr = System.err;
+      final Asciidoctor doctor = Factory.create();
+      final int problems;
+      System.setErr(new PrintStream(err, true, "UTF-8"));
+      try {
+        problems = CheckAdocAnchors.checkAll(doctor, pages, attributes,
+                                             PhaseTimings.fromSystemProperties("AdocAnchorsCaseCheck"));
+      } finally {
+        System.setErr(realErr);
+        doctor.shutdown();
+      }
+      for (String line : new String(err.toByteArray(), StandardCharsets.UTF_8).split("\n")) {
+        if (! line.isEmpty()) {
+          actual.add(line);
+        }
+      }
+      System.out.println(problems + " problems reported");
+    } finally {
+      for (String name : PAGES.keySet()) {
+        new File(dir, name).delete();
+      }
+      dir.delete();
+    }
+
+    // (order isn't what's being checked)
+    Collections.sort(expected);
+    Collections.sort(actual);
+    if (! expected.equals(actual)) {
+      final List<String> missing = new ArrayList<String>(expected);
+      for (String line : actual) {
+        missing.remove(line);
+      }
+      final List<String> extra = new ArrayList<String>(actual);
+      for (String line : expected) {
+        extra.remove(line);
+      }
+      for (String line : missing) {
+        System.err.println("not reported: " + line);
+      }
+      for (String line : extra) {
+        System.err.println("reported, but not expected: " + line);
+      }
+      System.exit(-1);
+    }
+    System.out.println("CheckAdocAnchors reported exactly the expected problems");
+  }
+}
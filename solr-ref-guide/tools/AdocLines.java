@@ -0,0 +1,189 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the explicit anchors &amp; xrefs in the lines of an asciidoc page w/o converting it, for the tools that
+ * need them before (or w/o) asciidoctor ever registers them: {@link RenderPDFChapters} &amp;
+ * {@link CheckAdocAnchors}.
+ * <p>
+ * Lines in delimited (listing, literal, comment, passthrough) blocks are skipped.  If the attributes the page
+ * is loaded w/are known, the lines are preprocessed (roughly) the way asciidoctor does first: attribute entries
+ * (<code>:name: value</code>) are applied in document order, <code>ifdef</code> &amp; <code>ifndef</code>
+ * blocks whose condition doesn't hold are skipped (<code>ifeval</code> blocks are always kept), each
+ * <code>include::</code> is replaced by the (whole) file it includes, and references to the attributes that
+ * are defined are replaced by their values.
+ * </p>
+ */
+public final class AdocLines {
+
+  private static final Pattern EXPLICIT_ANCHOR =
+    Pattern.compile("\\[\\[([A-Za-z_:][\\w:.\\-]*)(?:,[^\\]]*)?\\]\\]|^\\[#([A-Za-z_:][\\w:.\\-]*)|anchor:([A-Za-z_:][\\w:.\\-]*)\\[");
+  private static final Pattern XREF = Pattern.compile("<<([^>,\\s]+)(?:,[^>]*)?>>|xref:([^\\[\\s]+)\\[");
+  private static final Pattern BLOCK_DELIMITER = Pattern.compile("^(?:-{4,}|\\.{4,}|/{4,}|\\+{4,})\\s*$");
+  private static final Pattern CONDITIONAL = Pattern.compile("^(ifn?def|ifeval|endif)::([^\\[]*)\\[(.*)\\]$");
+  private static final Pattern INCLUDE = Pattern.compile("^include::([^\\[]+)\\[.*\\]$");
+  private static final Pattern ATTRIBUTE_ENTRY = Pattern.compile("^:(!?)([\\w][\\w-]*)(!?):(?:\\s+(.*))?$");
+  private static final Pattern ATTRIBUTE_REFERENCE = Pattern.compile("\\{([\\w][\\w-]*)\\}");
+  /** the same limit asciidoctor has */
+  private static final int MAX_INCLUDE_DEPTH = 64;
+
+  private AdocLines() {
+    // only static methods
+  }
+
+  /** all of the lines of an adoc file, except for those in delimited blocks (w/o any preprocessing) */
+  static List<String> readContentLines(File file) throws IOException {
+    return readContentLines(file, null);
+  }
+
+  /**
+   * @param attributes the page is loaded w/, if not null the page is preprocessed (this map isn't modified)
+   * @return all of the lines of an adoc file, except for those in delimited blocks
+   */
+  static List<String> readContentLines(File file, Map<String,String> attributes) throws IOException {
+    final List<String> raw = new ArrayList<String>();
+    if (null == attributes) {
+      raw.addAll(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+    } else {
+      preprocess(file, new HashMap<String,String>(attributes), 0, raw);
+    }
+    final List<String> lines = new ArrayList<String>();
+    String delimiter = null;
+    for (String line : raw) {
+      if (BLOCK_DELIMITER.matcher(line).matches()) {
+        final String trimmed = line.trim();
+        if (null == delimiter) {
+          delimiter = trimmed;
+        } else if (delimiter.equals(trimmed)) {
+          delimiter = null;
+        }
+      } else if (null == delimiter) {
+        lines.add(line);
+      }
+    }
+    return lines;
+  }
+
+  private static void preprocess(File file, Map<String,String> attributes, int depth,
+                                 List<String> out) throws IOException {
+    // how many (nested) conditionals we're in, and how many of those we're skipping the lines of
+    int open = 0;
+    int skipping = 0;
+    for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+      final Matcher conditional = CONDITIONAL.matcher(line);
+      if (conditional.matches()) {
+        final String directive = conditional.group(1);
+        if ("endif".equals(directive)) {
+          if (0 < open) {
+            if (skipping == open) {
+              skipping--;
+            }
+            open--;
+          }
+          continue;
+        }
+        final boolean holds = "ifeval".equals(directive)
+          || ("ifdef".equals(directive) == isDefined(conditional.group(2), attributes));
+        if (! conditional.group(3).isEmpty() && ! "ifeval".equals(directive)) {
+          // single line form, ex: ifdef::foo[some content]
+          if (0 == skipping && holds) {
+            out.add(conditional.group(3));
+          }
+          continue;
+        }
+        open++;
+        if (0 == skipping && ! holds) {
+          skipping = open;
+        }
+        continue;
+      }
+      if (0 < skipping) {
+        continue;
+      }
+      final Matcher entry = ATTRIBUTE_ENTRY.matcher(line);
+      if (entry.matches()) {
+        if (entry.group(1).isEmpty() && entry.group(3).isEmpty()) {
+          final String value = entry.group(4);
+          attributes.put(entry.group(2), (null == value) ? "" : substituteAttributes(value.trim(), attributes));
+        } else {
+          attributes.remove(entry.group(2));
+        }
+        continue;
+      }
+      final Matcher include = INCLUDE.matcher(line);
+      if (include.matches() && depth < MAX_INCLUDE_DEPTH) {
+        final File included = new File(file.getAbsoluteFile().getParentFile(),
+                                        substituteAttributes(include.group(1), attributes));
+        if (included.isFile()) {
+          preprocess(included, attributes, depth + 1, out);
+        } // else: asciidoctor has already warned about it
+        continue;
+      }
+      out.add(substituteAttributes(line, attributes));
+    }
+  }
+
+  /** @return true if any (',') or all ('+') of the attributes are defined */
+  private static boolean isDefined(String names, Map<String,String> attributes) {
+    if (names.contains("+")) {
+      for (String name : names.split("\\+")) {
+        if (! attributes.containsKey(name.trim())) {
+          return false;
+        }
+      }
+      return true;
+    }
+    for (String name : names.split(",")) {
+      if (attributes.containsKey(name.trim())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** @return the text, w/every reference to an attribute that is defined replaced by it's value */
+  static String substituteAttributes(String text, Map<String,String> attributes) {
+    if (null == attributes || text.indexOf('{') < 0) {
+      return text;
+    }
+    final Matcher m = ATTRIBUTE_REFERENCE.matcher(text);
+    final StringBuffer out = new StringBuffer();
+    while (m.find()) {
+      final String value = attributes.get(m.group(1));
+      m.appendReplacement(out, Matcher.quoteReplacement(null == value ? m.group() : value));
+    }
+    m.appendTail(out);
+    return out.toString();
+  }
+
+  /** @return the ids of the explicit anchors in the line */
+  static List<String> explicitAnchors(String line) {
+    final List<String> anchors = new ArrayList<String>(1);
+    final Matcher m = EXPLICIT_ANCHOR.matcher(line);
+    while (m.find()) {
+      for (int g = 1; g <= m.groupCount(); g++) {
+        if (null != m.group(g)) {
+          anchors.add(m.group(g));
+        }
+      }
+    }
+    return anchors;
+  }
+
+  /** @return the (raw) targets of the xrefs in the line, ex: <code>other.adoc#id</code> or <code>id</code> */
+  static List<String> xrefTargets(String line) {
+    final List<String> targets = new ArrayList<String>(1);
+    final Matcher m = XREF.matcher(line);
+    while (m.find()) {
+      targets.add((null != m.group(1)) ? m.group(1) : m.group(2));
+    }
+    return targets;
+  }
+}
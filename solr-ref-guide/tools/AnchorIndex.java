@@ -0,0 +1,338 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact, read only index of every id (anchor) in every page of the HTML site, and the page(s) it occurs in.
+ * <p>
+ * The index is a single block of bytes -- the same whether it was just built in memory, or memory mapped from
+ * the file {@link CheckLinksAndAnchors} writes -- so other tools can look up anchors w/o re-parsing the site
+ * (or even reading the whole file).  All ints are big endian, and the layout is:
+ * </p>
+ * <pre>
+ * header:      MAGIC, VERSION, numPages, numIds, numOccurrences, pageBytes, idBytes, numSlots
+ * pages:       int[numPages + 1] offsets into the page name bytes, followed by the (UTF-8) page name bytes
+ * ids:         int[numIds + 1] offsets into the id bytes, followed by the (UTF-8) id bytes -- sorted by those bytes
+ * occurrences: int[numIds + 1] offsets into the occurrence pages, followed by int[numOccurrences] page numbers
+ * slots:       int[numSlots] hash table of (1 + the number of) each id, 0 for empty slots
+ * </pre>
+ * <p>
+ * ie: the ids are a sorted dictionary, and the pages each id occurs in are stored CSR style: the pages for id 
+ * <code>i</code> are the entries <code>occurrences[i]</code> through <code>occurrences[i+1]-1</code>, in page
+ * order (an id that occurs multiple times in the same page is listed once for each occurrence).
+ * Ids are found using an open addressing (linear probing) hash table, that is at most half full, keyed by
+ * <code>String.hashCode()</code> -- which is precisely specified, and cached by the String doing the lookup.
+ * </p>
+ * <pre>
+ * java -cp ... AnchorIndex build/anchor-index.bin some-id another-id
+ * </pre>
+ */
+public final class AnchorIndex {
+  public static final int MAGIC = 0x414e4348; // "ANCH"
+  /** bump this any time the format changes */
+  public static final int VERSION = 1;
+  private static final int HEADER_INTS = 8;
+
+  private final ByteBuffer buf;
+  private final int numPages;
+  private final int numIds;
+  private final int numOccurrences;
+  private final int numSlots;
+  // the absolute byte position of each section
+  private final int pageOffsetsPos;
+  private final int pageBytesPos;
+  private final int idOffsetsPos;
+  private final int idBytesPos;
+  private final int occOffsetsPos;
+  private final int occPagesPos;
+  private final int slotsPos;
+
+  private AnchorIndex(ByteBuffer buf) throws IOException {
+    this.buf = buf;
+    if (buf.capacity() < HEADER_INTS * 4 || MAGIC != buf.getInt(0)) {
+      throw new IOException("Not an anchor index");
+    }
+    if (VERSION != buf.getInt(4)) {
+      throw new IOException("Anchor index from a different version: " + buf.getInt(4));
+    }
+    this.numPages = buf.getInt(8);
+    this.numIds = buf.getInt(12);
+    this.numOccurrences = buf.getInt(16);
+    final int pageBytes = buf.getInt(20);
+    final int idBytes = buf.getInt(24);
+    this.numSlots = buf.getInt(28);
+    this.pageOffsetsPos = HEADER_INTS * 4;
+    this.pageBytesPos = pageOffsetsPos + (numPages + 1) * 4;
+    this.idOffsetsPos = pageBytesPos + pageBytes;
+    this.idBytesPos = idOffsetsPos + (numIds + 1) * 4;
+    this.occOffsetsPos = idBytesPos + idBytes;
+    this.occPagesPos = occOffsetsPos + (numIds + 1) * 4;
+    this.slotsPos = occPagesPos + numOccurrences * 4;
+    if (Integer.bitCount(numSlots) != 1 || buf.capacity() != slotsPos + numSlots * 4) {
+      throw new IOException("Anchor index is truncated or corrupt");
+    }
+  }
+
+  /** Memory maps an index previously written by {@link #write} */
+  public static AnchorIndex open(File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      return new AnchorIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  /**
+   * Builds a new index in memory.
+   * @param pageNames the name of each page (ex: the file name)
+   * @param pageIds the ids in each page (in the same order as the page names)
+   */
+  public static AnchorIndex build(List<String> pageNames, List<List<String>> pageIds) {
+    // number the unique ids in the order we first see them, and note the id of every occurrence
+    final Map<String,Integer> numbers = new HashMap<String,Integer>();
+    int numOccurrences = 0;
+    for (List<String> ids : pageIds) {
+      numOccurrences += ids.size();
+    }
+    final int[] occIds = new int[numOccurrences];
+    final int[] occPages = new int[numOccurrences];
+    int occ = 0;
+    for (int page = 0; page < pageIds.size(); page++) {
+      for (String id : pageIds.get(page)) {
+        Integer number = numbers.get(id);
+        if (null == number) {
+          number = numbers.size();
+          numbers.put(id, number);
+        }
+        occIds[occ] = number;
+        occPages[occ] = page;
+        occ++;
+      }
+    }
+
+    // sort the unique ids by their bytes, and find where each one ended up
+    final int numIds = numbers.size();
+    final String[] idStrings = new String[numIds];
+    final byte[][] idBytes = new byte[numIds][];
+    for (Map.Entry<String,Integer> entry : numbers.entrySet()) {
+      idStrings[entry.getValue()] = entry.getKey();
+      idBytes[entry.getValue()] = utf8(entry.getKey());
+    }
+    final Integer[] sorted = new Integer[numIds];
+    for (int i = 0; i < numIds; i++) {
+      sorted[i] = i;
+    }
+    Arrays.sort(sorted, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        return compareBytes(idBytes[a], idBytes[b]);
+      }
+    });
+    final int[] rank = new int[numIds];
+    for (int i = 0; i < numIds; i++) {
+      rank[sorted[i]] = i;
+    }
+
+    // count the occurrences of each id, then place each occurrence (still in page order)
+    final int[] occOffsets = new int[numIds + 1];
+    for (int i = 0; i < numOccurrences; i++) {
+      occOffsets[rank[occIds[i]] + 1]++;
+    }
+    for (int i = 0; i < numIds; i++) {
+      occOffsets[i + 1] += occOffsets[i];
+    }
+    final int[] next = Arrays.copyOf(occOffsets, numIds);
+    final int[] placed = new int[numOccurrences];
+    for (int i = 0; i < numOccurrences; i++) {
+      placed[next[rank[occIds[i]]]++] = occPages[i];
+    }
+
+    final byte[][] pageBytes = new byte[pageNames.size()][];
+    int totalPageBytes = 0;
+    for (int i = 0; i < pageBytes.length; i++) {
+      pageBytes[i] = utf8(pageNames.get(i));
+      totalPageBytes += pageBytes[i].length;
+    }
+    int totalIdBytes = 0;
+    for (byte[] id : idBytes) {
+      totalIdBytes += id.length;
+    }
+
+    final int[] slots = new int[Math.max(2, Integer.highestOneBit(Math.max(1, numIds)) * 4)];
+    for (int i = 0; i < numIds; i++) {
+      int slot = slot(idStrings[sorted[i]].hashCode(), slots.length);
+      while (0 != slots[slot]) {
+        slot = (slot + 1) & (slots.length - 1);
+      }
+      slots[slot] = i + 1;
+    }
+
+    final ByteBuffer buf = ByteBuffer.allocate(HEADER_INTS * 4 + (pageBytes.length + 1) * 4 + totalPageBytes
+                                               + (numIds + 1) * 4 + totalIdBytes
+                                               + (numIds + 1) * 4 + numOccurrences * 4
+                                               + slots.length * 4);
+    buf.putInt(MAGIC).putInt(VERSION).putInt(pageBytes.length).putInt(numIds).putInt(numOccurrences)
+      .putInt(totalPageBytes).putInt(totalIdBytes).putInt(slots.length);
+    putStrings(buf, pageBytes, null);
+    putStrings(buf, idBytes, sorted);
+    for (int offset : occOffsets) {
+      buf.putInt(offset);
+    }
+    for (int page : placed) {
+      buf.putInt(page);
+    }
+    for (int slot : slots) {
+      buf.putInt(slot);
+    }
+    try {
+      return new AnchorIndex(buf);
+    } catch (IOException e) {
+      throw new RuntimeException("BUG: we built an invalid index", e);
+    }
+  }
+
+  /** (Over)writes the file w/this index */
+  public void write(File file) throws IOException {
+    final File tmp = new File(file.getPath() + ".tmp");
+    try (FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                                                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      final ByteBuffer all = buf.duplicate();
+      all.clear();
+      while (all.hasRemaining()) {
+        channel.write(all);
+      }
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  public int getNumPages() {
+    return numPages;
+  }
+  public int getNumIds() {
+    return numIds;
+  }
+  /** the number of bytes used by the index */
+  public int getSizeInBytes() {
+    return buf.capacity();
+  }
+
+  public String getPageName(int page) {
+    return string(pageOffsetsPos, pageBytesPos, page);
+  }
+  /** the i-th id, in sorted order */
+  public String getId(int i) {
+    return string(idOffsetsPos, idBytesPos, i);
+  }
+
+  /** Returns the number of the specified id (for use w/the other methods), or -1 if it doesn't exist */
+  public int find(String id) {
+    for (int slot = slot(id.hashCode(), numSlots); ; slot = (slot + 1) & (numSlots - 1)) {
+      final int i = buf.getInt(slotsPos + slot * 4) - 1;
+      if (i < 0 || idEquals(i, id)) {
+        return i;
+      }
+    }
+  }
+
+  /** the number of times the i-th id occurs (over all pages) */
+  public int getNumOccurrences(int i) {
+    return buf.getInt(occOffsetsPos + (i + 1) * 4) - buf.getInt(occOffsetsPos + i * 4);
+  }
+  /** the page of the n-th occurrence of the i-th id, in page order */
+  public int getOccurrencePage(int i, int n) {
+    return buf.getInt(occPagesPos + (buf.getInt(occOffsetsPos + i * 4) + n) * 4);
+  }
+
+  /** compares the UTF-8 bytes of the i-th id to the id, w/o encoding it unless it has non-ASCII chars */
+  private boolean idEquals(int i, String id) {
+    final int start = idBytesPos + buf.getInt(idOffsetsPos + i * 4);
+    final int len = buf.getInt(idOffsetsPos + (i + 1) * 4) - buf.getInt(idOffsetsPos + i * 4);
+    if (len < id.length()) {
+      return false; // UTF-8 never has fewer bytes then chars
+    }
+    for (int c = 0; c < id.length(); c++) {
+      final char ch = id.charAt(c);
+      if (0x80 <= ch) {
+        final byte[] key = utf8(id);
+        if (len != key.length) {
+          return false;
+        }
+        for (int j = c; j < len; j++) {
+          if (buf.get(start + j) != key[j]) {
+            return false;
+          }
+        }
+        return true;
+      }
+      if (buf.get(start + c) != ch) {
+        return false;
+      }
+    }
+    return len == id.length();
+  }
+
+  /** spreads the (often poorly distributed) high bits of String hash codes into the low bits */
+  private static int slot(int hash, int numSlots) {
+    return (hash ^ (hash >>> 16)) & (numSlots - 1);
+  }
+
+  private String string(int offsetsPos, int bytesPos, int i) {
+    final int start = buf.getInt(offsetsPos + i * 4);
+    final byte[] bytes = new byte[buf.getInt(offsetsPos + (i + 1) * 4) - start];
+    for (int j = 0; j < bytes.length; j++) {
+      bytes[j] = buf.get(bytesPos + start + j);
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /** puts the offsets, then the bytes, of the strings (in the specified order, if not null) */
+  private static void putStrings(ByteBuffer buf, byte[][] strings, Integer[] order) {
+    int offset = 0;
+    buf.putInt(offset);
+    for (int i = 0; i < strings.length; i++) {
+      offset += strings[null == order ? i : order[i]].length;
+      buf.putInt(offset);
+    }
+    for (int i = 0; i < strings.length; i++) {
+      buf.put(strings[null == order ? i : order[i]]);
+    }
+  }
+
+  private static byte[] utf8(String s) {
+    return s.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static int compareBytes(byte[] a, byte[] b) {
+    final int min = Math.min(a.length, b.length);
+    for (int i = 0; i < min; i++) {
+      final int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+      if (0 != cmp) {
+        return cmp;
+      }
+    }
+    return a.length - b.length;
+  }
+
+  /** Prints the page(s) each of the specified ids occur in, according to an index file */
+  public static void main(String[] args) throws Exception {
+    if (args.length < 2) {
+      System.err.println("usage: AnchorIndex <index-file> <id>...");
+      System.exit(-1);
+    }
+    final AnchorIndex index = open(new File(args[0]));
+    for (int a = 1; a < args.length; a++) {
+      final int i = index.find(args[a]);
+      final StringBuilder pages = new StringBuilder();
+      for (int n = 0; 0 <= i && n < index.getNumOccurrences(i); n++) {
+        pages.append(' ').append(index.getPageName(index.getOccurrencePage(i, n)));
+      }
+      System.out.println(args[a] + ":" + ((0 <= i) ? pages.toString() : " NOT FOUND"));
+    }
+  }
+}
@@ -1,9 +1,31 @@
 
 import java.io.*;
 import java.io.FilenameFilter;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import static java.nio.file.StandardWatchEventKinds.*;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.solr.refguide.JsonStreamWriter;
+import org.apache.solr.refguide.PhaseTimings;
 
 import org.json.*;
 
@@ -14,6 +36,65 @@ import org.asciidoctor.ast.DocumentHeader;
 
 public class BuildNavAndPDFBody {
 
+  /**
+   * System property controlling how many worker threads (each with it's own Asciidoctor instance)
+   * are used to read the page headers.  "0" means one per available processor.
+   */
+  public static final String HEADER_THREADS_PROP = "header.threads";
+
+  /**
+   * System property specifying a file to use for caching the parsed page headers between runs.
+   * If unset, no cache is used.
+   * @see HeaderCache
+   */
+  public static final String HEADER_CACHE_PROP = "header.cache";
+
+  /**
+   * System property controlling how page headers are read: <code>asciidoctor</code> (the default),
+   * <code>fast</code> or <code>verify</code>
+   * @see FastHeaderReader
+   */
+  public static final String HEADER_READER_PROP = "header.reader";
+
+  /**
+   * System property that, if true, causes existing output files to be re-used (and only re-written 
+   * if their contents change) instead of failing the build.
+   * @see NavArtifacts
+   */
+  public static final String INCREMENTAL_PROP = "output.incremental";
+
+  /**
+   * System property that, if true, causes the tool to keep running after the nav files are built, 
+   * watching for changes and regenerating them as needed.
+   * @see NavWatcher
+   */
+  public static final String WATCH_PROP = "watch";
+
+  /** 
+   * System property specifying the directory to watch for changes, if not the same as the asciidoc dir
+   * @see NavWatcher
+   */
+  public static final String WATCH_SRC_PROP = "watch.src";
+
+  /** @see NavWatcher */
+  public static final String WATCH_QUIET_MILLIS_PROP = "watch.quiet.millis";
+
+  /**
+   * System property that, if true, causes a PDF body file to also be written for each top level 
+   * chapter, into {@link #PDF_CHAPTERS_DIR}
+   * @see RenderPDFChapters
+   */
+  public static final String PDF_CHAPTERS_PROP = "pdf.chapters";
+
+  /** 
+   * Where (in the <code>_data</code> dir) the per chapter PDF body files are written.  The main-page is 
+   * chapter 0 by itself, followed by each top level page (and all of it's descendents) in order. 
+   */
+  public static final String PDF_CHAPTERS_DIR = "pdf-chapters";
+
+  /** The sidebar.html template can not support pages deeper then this (the main-page has depth 0) */
+  public static final int MAX_SIDEBAR_DEPTH = 4;
+
   public static void main(String[] args) throws Exception {
     if (args.length != 2) {
       throw new RuntimeException("Wrong # of args: " + args.length);
@@ -25,157 +106,978 @@ public class BuildNavAndPDFBody {
       throw new RuntimeException("asciidoc directory does not exist: " + adocDir.toString());
     }
 
+    final PhaseTimings timings = PhaseTimings.fromSystemProperties("BuildNavAndPDFBody");
+    
     // build up a quick mapping of every known page
     System.out.println("Building up tree of all known pages");
-    final Map<String,Page> allPages = new LinkedHashMap<String,Page>();
-    Asciidoctor doctor = null;
+    final FastHeaderReader fastReader = getFastHeaderReader();
+    final String cachePath = System.getProperty(HEADER_CACHE_PROP, "");
+    final HeaderCache cache = cachePath.isEmpty() ? null : new HeaderCache(new File(cachePath));
+    final PhaseTimings.Timer loadTimer = timings.start("load-pages", null);
+    final Map<String,Page> allPages = loadAllPages(adocDir.listFiles(ADOC_FILE_NAMES), getHeaderThreads(),
+                                                   // in verify mode we need to actually read every file
+                                                   (null != fastReader && fastReader.verify) ? null : cache,
+                                                   fastReader, timings);
+    loadTimer.stop();
+    if (null != fastReader) {
+      fastReader.report();
+    }
+    if (null != cache) {
+      System.out.println("Header cache: " + cache.getHits() + " hits, " + cache.getMisses() + " misses");
+      cache.save(allPages.values());
+    }
+
+    if (Boolean.getBoolean(WATCH_PROP)) {
+      // the report only covers the initial load, there is no "end" to a watch
+      timings.writeReport();
+      final String watchSrc = System.getProperty(WATCH_SRC_PROP, "");
+      new NavWatcher(adocDir, watchSrc.isEmpty() ? adocDir : new File(watchSrc), mainPageShortname,
+                     allPages, fastReader, Boolean.getBoolean(PDF_CHAPTERS_PROP)).run();
+      return;
+    }
+    final PhaseTimings.Timer writeTimer = timings.start("write-nav-files", null);
+    writeNavFiles(adocDir, mainPageShortname, allPages, new NavArtifacts(Boolean.getBoolean(INCREMENTAL_PROP)),
+                  Boolean.getBoolean(PDF_CHAPTERS_PROP));
+    writeTimer.stop();
+    timings.writeReport();
+  }
+
+  /** Writes all of the nav files, w/o any per chapter PDF body files */
+  public static void writeNavFiles(File adocDir, String mainPageShortname, Map<String,Page> allPages,
+                                   NavArtifacts artifacts) throws IOException {
+    writeNavFiles(adocDir, mainPageShortname, allPages, artifacts, false);
+  }
+  
+  /**
+   * Validates the tree of pages rooted at the specified main-page, and then writes all of the nav files 
+   * based on that tree into the <code>_data</code> dir.
+   * @param pdfChapters if true, also write a PDF body file for each chapter
+   * @see #PDF_CHAPTERS_DIR
+   */
+  public static void writeNavFiles(File adocDir, String mainPageShortname, Map<String,Page> allPages,
+                                   NavArtifacts artifacts, final boolean pdfChapters) throws IOException {
+    // build up a hierarchical structure rooted at our mainPage
+    final Page mainPage = allPages.get(mainPageShortname);
+    if (null == mainPage) {
+      throw new RuntimeException("no main-page found with shortname: " + mainPageShortname);
+    }
+    // validate that we don't have any missing pages, loops, orphan pages, etc... before we try to walk the tree
+    final PageIndex index = new PageIndex(allPages.values());
+    final List<String> treeProblems = index.validate(mainPage, MAX_SIDEBAR_DEPTH);
+    if (! treeProblems.isEmpty()) {
+      for (String problem : treeProblems) {
+        System.err.println("ERROR: " + problem);
+      }
+      throw new RuntimeException("Total of " + treeProblems.size() + " problems found in the page tree");
+    }
+    index.linkKids();
+
+    // Build up the PDF file, the scrollnav file for jekyll's footer, and the sidebar file for jekyll
+    // all at once, streaming each of them out during a single walk of the tree
+    final File dataDir = new File(adocDir, "_data");
+    final File chaptersDir = new File(dataDir, PDF_CHAPTERS_DIR);
+    if (pdfChapters && ! (chaptersDir.exists() || chaptersDir.mkdirs())) {
+      throw new RuntimeException("Unable to create dir: " + chaptersDir.toString());
+    }
+    // the (body) file of the chapter we are currently in, if any
+    final AtomicReference<Writer> chapter = new AtomicReference<Writer>();
+    final AtomicInteger numChapters = new AtomicInteger(0);
     try {
-      doctor = Factory.create();
-      final File[] adocFiles = adocDir.listFiles(ADOC_FILE_NAMES);
-      for (File file : adocFiles) {
-        Page page = new Page(file, doctor.readDocumentHeader(file));
-        if (allPages.containsKey(page.shortname)) {
-          throw new RuntimeException("multiple pages with same shortname: " + page.file.toString() + " and " + allPages.get(page.shortname));
+      try (Writer pdf = artifacts.create(new File(dataDir, "pdf-main-body.adoc"));
+           JsonStreamWriter scrollnav = new JsonStreamWriter(artifacts.create(new File(dataDir, "scrollnav.json")));
+           JsonStreamWriter sidebar = new JsonStreamWriter(artifacts.create(new File(dataDir, "sidebar.json")))) {
+        // Note: not worrying about headers or anything like that in the PDF file...
+        // expecting this file to just be included by the main PDF file.
+
+        scrollnav.beginObject();
+        final Set<Page> visited = new HashSet<Page>();
+        
+        // track how deep we are so we can adjust headers accordingly
+        // (the sidebar depth of the main-page is 0, all "top level" pages are 1)
+        final AtomicInteger depth = new AtomicInteger(0);
+
+        // the previous page seen in our walk, and the page before that.
+        // we can't write the scrollnav entry for a page until we know what page comes next
+        final AtomicReference<Page> previous = new AtomicReference<Page>();
+        final AtomicReference<Page> beforePrevious = new AtomicReference<Page>();
+        
+        mainPage.depthFirstWalk(new Page.RecursiveAction() {
+          public boolean act(Page page) {
+            try {
+              if (null != previous.get() && visited.add(previous.get())) {
+                writeScrollnavEntry(scrollnav, previous.get(), beforePrevious.get(), page);
+              }
+              beforePrevious.set(previous.get());
+              previous.set(page);
+              
+              writePdfInclude(pdf, "../", page, depth.intValue());
+              if (pdfChapters) {
+                if (depth.intValue() <= 1) {
+                  // the main-page, or a top level page: start a new chapter
+                  if (null != chapter.get()) {
+                    chapter.get().close();
+                  }
+                  chapter.set(artifacts.create(new File(chaptersDir, String.format(Locale.ROOT, "%03d-%s.adoc",
+                                                                                   numChapters.getAndIncrement(),
+                                                                                   page.shortname))));
+                }
+                writePdfInclude(chapter.get(), "../../", page, depth.intValue());
+              }
+
+              // (if we aren't the main-page, the "kids" array of our parent is already open)
+              sidebar.beginObject()
+                .field("title", page.title)
+                .field("url", page.permalink)
+                .name("depth").value(depth.intValue())
+                .name("kids").beginArray();
+              
+              depth.incrementAndGet();
+              return true;
+            } catch (IOException ioe) {
+              throw new RuntimeException("IOE recursively acting on " + page.shortname, ioe);
+            }
+          }
+          public void postKids(Page page) {
+            try {
+              depth.decrementAndGet();
+              sidebar.endArray().endObject();
+            } catch (IOException ioe) {
+              throw new RuntimeException("IOE recursively acting on " + page.shortname, ioe);
+            }
+          }
+        });
+        
+        // the last page in the walk has no 'next'
+        if (null != previous.get() && visited.add(previous.get())) {
+          writeScrollnavEntry(scrollnav, previous.get(), beforePrevious.get(), null);
+        }
+        scrollnav.endObject();
+      } finally {
+        if (null != chapter.get()) {
+          chapter.get().close();
         }
-        allPages.put(page.shortname, page);
+      }
+      artifacts.commit();
+      if (pdfChapters) {
+        // in incremental mode, there may be chapters left over from before the tree changed
+        artifacts.removeUncommitted(chaptersDir);
       }
     } finally {
+      artifacts.cleanup();
+    }
+
+    artifacts.report();
+  }
+
+  /**
+   * Writes the line that includes a page in a PDF body file
+   * @param dir where the page lives, relative to the PDF body file
+   * @param depth the sidebar depth of the page
+   */
+  private static void writePdfInclude(Writer pdf, String dir, Page page, int depth) throws IOException {
+    // HACK: where this file actually lives will determine what we need here...
+    // treat all "top level" pages as same depth as main-page using Math.max
+    pdf.write("include::");
+    pdf.write(dir);
+    pdf.write(page.file.getName());
+    pdf.write("[leveloffset=+"+Math.max(0, depth - 1)+"]\n\n");
+  }
+
+  /** 
+   * Reads the header of every file into a {@link Page}, keyed by shortname.
+   * <p>
+   * The resulting Map is always in the same order as <code>adocFiles</code> regardless of how 
+   * many threads are used, and if multiple pages have the same shortname the error reported is 
+   * the same as if the files had been read sequentially.
+   * </p>
+   * @param cache if non-null, consulted before reading any header
+   * @param fastReader if non-null, used to read headers before (possibly) falling back to Asciidoctor
+   * @param timings records how long each header takes to read (by each approach tried)
+   */
+  public static Map<String,Page> loadAllPages(final File[] adocFiles, final int numThreads,
+                                              final HeaderCache cache,
+                                              final FastHeaderReader fastReader,
+                                              final PhaseTimings timings) throws Exception {
+    final Page[] pages = new Page[adocFiles.length];
+    final int numWorkers = Math.max(1, Math.min(numThreads, adocFiles.length));
+    if (1 == numWorkers) {
+      new HeaderWorker(adocFiles, pages, new AtomicInteger(0), cache, fastReader, timings).call();
+    } else {
+      System.out.println("Reading " + adocFiles.length + " page headers using " + numWorkers + " threads");
+      final AtomicInteger nextFile = new AtomicInteger(0);
+      final ExecutorService pool = Executors.newFixedThreadPool(numWorkers);
+      try {
+        final List<Future<Void>> results = new ArrayList<Future<Void>>(numWorkers);
+        for (int i = 0; i < numWorkers; i++) {
+          results.add(pool.submit(new HeaderWorker(adocFiles, pages, nextFile, cache, fastReader, timings)));
+        }
+        for (Future<Void> result : results) {
+          try {
+            result.get();
+          } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+              throw (Exception) e.getCause();
+            }
+            throw e;
+          }
+        }
+      } finally {
+        pool.shutdownNow();
+      }
+    }
+    
+    return mapByShortname(Arrays.asList(pages));
+  }
+
+  /** Builds up a Map of the pages (in order) keyed by shortname, failing if any shortname is used more then once */
+  public static Map<String,Page> mapByShortname(Collection<Page> pages) {
+    final Map<String,Page> allPages = new LinkedHashMap<String,Page>();
+    for (Page page : pages) {
+      if (allPages.containsKey(page.shortname)) {
+        throw new RuntimeException("multiple pages with same shortname: " + page.file.toString() + " and " + allPages.get(page.shortname));
+      }
+      allPages.put(page.shortname, page);
+    }
+    return allPages;
+  }
+
+  /** 
+   * Pulls the next unread file index from a shared counter, and reads that header into the 
+   * corresponding slot of the <code>pages</code> array, until there are no files left.
+   * Each worker owns (and shuts down) it's own Asciidoctor instance, which is only created 
+   * once the worker finds a file that isn't in the cache and can't be handled by the 
+   * {@link FastHeaderReader} (if any)
+   */
+  private static final class HeaderWorker implements Callable<Void> {
+    private final File[] adocFiles;
+    private final Page[] pages;
+    private final AtomicInteger nextFile;
+    private final HeaderCache cache;
+    private final FastHeaderReader fastReader;
+    private final PhaseTimings timings;
+    public HeaderWorker(File[] adocFiles, Page[] pages, AtomicInteger nextFile,
+                        HeaderCache cache, FastHeaderReader fastReader, PhaseTimings timings) {
+      this.adocFiles = adocFiles;
+      this.pages = pages;
+      this.nextFile = nextFile;
+      this.cache = cache;
+      this.fastReader = fastReader;
+      this.timings = timings;
+    }
+    public Void call() throws IOException {
+      final LazyAsciidoctor doctor = new LazyAsciidoctor();
+      try {
+        for (int i = nextFile.getAndIncrement(); i < adocFiles.length; i = nextFile.getAndIncrement()) {
+          pages[i] = readPage(adocFiles[i], cache, fastReader, doctor, timings);
+        }
+      } finally {
+        doctor.shutdown();
+      }
+      return null;
+    }
+  }
+
+  /** 
+   * Reads a single page header, trying the cache and the fast reader (if either is non-null) 
+   * before using asciidoctor.  Each of those is timed as a separate phase.
+   */
+  public static Page readPage(File file, HeaderCache cache, FastHeaderReader fastReader,
+                              LazyAsciidoctor doctor, PhaseTimings timings) throws IOException {
+    PhaseTimings.Timer timer;
+    if (null != cache) {
+      timer = timings.start("header-cache", file);
+      final Page cached = cache.get(file);
+      timer.stop();
+      if (null != cached) {
+        return cached;
+      }
+    }
+    Page fast = null;
+    if (null != fastReader) {
+      timer = timings.start("header-fast", file);
+      fast = fastReader.read(file);
+      timer.stop();
+      if (null != fast && ! fastReader.verify) {
+        return fast;
+      }
+    }
+    timer = timings.start("header-asciidoctor", file);
+    final Page page = new Page(file, doctor.get().readDocumentHeader(file));
+    timer.stop();
+    if (null != fast) {
+      fastReader.compare(fast, page);
+    }
+    return page;
+  }
+
+  /** Holds an Asciidoctor instance that isn't created until the first time it's needed */
+  public static final class LazyAsciidoctor {
+    private Asciidoctor doctor = null;
+    public Asciidoctor get() {
+      if (null == doctor) {
+        doctor = Factory.create();
+      }
+      return doctor;
+    }
+    public void shutdown() {
       if (null != doctor) {
         doctor.shutdown();
         doctor = null;
       }
     }
+  }
 
-    // build up a hierarchical structure rooted at our mainPage
-    final Page mainPage = allPages.get(mainPageShortname);
-    if (null == mainPage) {
-      throw new RuntimeException("no main-page found with shortname: " + mainPageShortname);
+  /**
+   * Watches a directory of asciidoc files for changes, re-reading just the headers of the files that 
+   * changed and regenerating the nav files (only rewriting the ones that actually change) each time.
+   * <p>
+   * A single Asciidoctor instance is kept "warm" for the life of the watcher, and bursts of file 
+   * events (ie: from an editor saving several files, or a <code>git checkout</code>) are batched 
+   * together until nothing has changed for {@link #WATCH_QUIET_MILLIS_PROP} milliseconds.
+   * </p>
+   * <p>
+   * If the watched (source) dir is not the same as the asciidoc dir, changed files are copied into 
+   * the asciidoc dir (and deleted files are removed from it) before the headers are re-read.  
+   * Errors are reported, but the watcher keeps running until the JVM is killed.
+   * </p>
+   */
+  public static final class NavWatcher {
+    private final File adocDir;
+    private final File srcDir;
+    private final String mainPageShortname;
+    private final FastHeaderReader fastReader;
+    /** if true, the per chapter PDF body files are regenerated too */
+    private final boolean pdfChapters;
+    private final LazyAsciidoctor doctor = new LazyAsciidoctor();
+    /** no report, but still emits JFR events */
+    private final PhaseTimings timings = new PhaseTimings("BuildNavAndPDFBody", null, 0);
+    private final long quietMillis = Long.getLong(WATCH_QUIET_MILLIS_PROP, 200L);
+    /** the pages as of the last time we read them, keyed by file name */
+    private final Map<String,Page> pagesByFileName = new HashMap<String,Page>();
+    
+    public NavWatcher(File adocDir, File srcDir, String mainPageShortname,
+                      Map<String,Page> allPages, FastHeaderReader fastReader, boolean pdfChapters) {
+      this.adocDir = adocDir;
+      this.srcDir = srcDir;
+      this.mainPageShortname = mainPageShortname;
+      this.fastReader = fastReader;
+      this.pdfChapters = pdfChapters;
+      for (Page page : allPages.values()) {
+        pagesByFileName.put(page.file.getName(), page);
+      }
+    }
+
+    public void run() throws IOException, InterruptedException {
+      try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+        srcDir.toPath().register(watcher, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+        if (null == fastReader) {
+          doctor.get(); // warm it up now, instead of on the first change
+        }
+        // make sure the nav files reflect the current state of things before we start waiting for changes
+        regenerate(Collections.<String>emptySet());
+        System.out.println("Watching " + srcDir.toString() + " for changes (kill to exit)...");
+        while (true) {
+          final Set<String> changed = new TreeSet<String>();
+          WatchKey key = watcher.take();
+          while (null != key) {
+            for (WatchEvent<?> event : key.pollEvents()) {
+              if (OVERFLOW == event.kind()) {
+                // we lost track of what changed, assume everything did
+                changed.addAll(pagesByFileName.keySet());
+                changed.addAll(Arrays.asList(srcDir.list(ADOC_FILE_NAMES)));
+              } else {
+                final String name = event.context().toString();
+                if (ADOC_FILE_NAMES.accept(srcDir, name)) {
+                  changed.add(name);
+                }
+              }
+            }
+            key.reset();
+            // keep batching until things are quiet
+            key = watcher.poll(quietMillis, TimeUnit.MILLISECONDS);
+          }
+          if (! changed.isEmpty()) {
+            regenerate(changed);
+          }
+        }
+      } finally {
+        doctor.shutdown();
+      }
     }
-    mainPage.buildKidsRecursive(allPages);
 
-    // TODO: use depthFirstWalk to prune allPages to validate that we don't have any loops or orphan pages
+    private void regenerate(Set<String> changed) {
+      final long start = System.nanoTime();
+      try {
+        if (! srcDir.equals(adocDir)) {
+          syncFromSrc(changed);
+        }
+        for (String name : changed) {
+          pagesByFileName.remove(name);
+        }
+        // re-list the dir so we use the same file order as a normal run
+        final List<Page> pages = new ArrayList<Page>();
+        int reread = 0;
+        for (File file : adocDir.listFiles(ADOC_FILE_NAMES)) {
+          Page page = pagesByFileName.get(file.getName());
+          if (null == page) {
+            page = readPage(file, null, fastReader, doctor, timings);
+            pagesByFileName.put(file.getName(), page);
+            reread++;
+          }
+          pages.add(page);
+        }
+        pagesByFileName.keySet().retainAll(Arrays.asList(adocDir.list(ADOC_FILE_NAMES)));
+        
+        final NavArtifacts artifacts = new NavArtifacts(true);
+        writeNavFiles(adocDir, mainPageShortname, mapByShortname(pages), artifacts, pdfChapters);
+        System.out.println("Regenerated nav files in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+                           + "ms (" + changed.size() + " changed files, " + reread + " headers re-read)");
+      } catch (Exception e) {
+        System.err.println("ERROR: unable to regenerate nav files: " + e.toString());
+        System.err.println("... waiting for more changes");
+      }
+    }
 
+    /** copies changed files (if they still exist) into the adoc dir, deleting the ones that don't */
+    private void syncFromSrc(Set<String> changed) throws IOException {
+      for (String name : changed) {
+        final File src = new File(srcDir, name);
+        final File dest = new File(adocDir, name);
+        if (src.exists()) {
+          Files.copy(src.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+          Files.deleteIfExists(dest.toPath());
+        }
+      }
+    }
+  }
 
-    // Build up the PDF file,
-    // while doing this also build up some next/prev maps for use in building the scrollnav
-    File pdfFile = new File(new File(adocDir, "_data"), "pdf-main-body.adoc");
-    if (pdfFile.exists()) {
-      throw new RuntimeException(pdfFile.toString() + " already exists");
+  /**
+   * A persistent cache of the header metadata we care about from each page, so that unchanged pages
+   * don't need to be re-parsed by Asciidoctor on every run.
+   * <p>
+   * Entries are keyed by absolute path, and record the size, mtime &amp; SHA-256 of the file when it was
+   * read.  An entry is only used if the size matches and the content hash matches -- the mtime alone is
+   * never trusted since <code>build-init</code> re-copies every file.  If the cache file can't be read, 
+   * or was written by an incompatible version of this tool, it's ignored completely.
+   * </p>
+   */
+  public static final class HeaderCache {
+    /** bump this any time the format, or what we extract from the headers, changes */
+    public static final int VERSION = 1;
+    
+    private final File cacheFile;
+    private final Map<String,JSONObject> entries = new HashMap<String,JSONObject>();
+    private final Map<String,String> hashes = new ConcurrentHashMap<String,String>();
+    private final AtomicInteger hits = new AtomicInteger(0);
+    private final AtomicInteger misses = new AtomicInteger(0);
+
+    public HeaderCache(File cacheFile) {
+      this.cacheFile = cacheFile;
+      if (! cacheFile.exists()) {
+        return;
+      }
+      try (Reader r = new InputStreamReader(new FileInputStream(cacheFile), "UTF-8")) {
+        final JSONObject json = new JSONObject(new JSONTokener(r));
+        if (VERSION != json.optInt("version", -1)) {
+          System.out.println("Ignoring header cache from a different version: " + cacheFile.toString());
+          return;
+        }
+        final JSONObject pages = json.getJSONObject("pages");
+        for (String path : pages.keySet()) {
+          entries.put(path, pages.getJSONObject(path));
+        }
+      } catch (IOException | JSONException e) {
+        System.out.println("Ignoring unreadable header cache: " + cacheFile.toString() + " (" + e.toString() + ")");
+        entries.clear();
+      }
     }
-    final Map<String,Page> nextPage = new HashMap<String,Page>();
-    final Map<String,Page> prevPage = new HashMap<String,Page>();
-    System.out.println("Creating " + pdfFile.toString());
-    try (Writer w = new OutputStreamWriter(new FileOutputStream(pdfFile), "UTF-8")) {
-      // Note: not worrying about headers or anything like that ...
-      // expecting this file to just be included by the main PDF file.
 
-      // track how deep we are so we can adjust headers accordingly
-      // start with a "negative" depth to treat all "top level" pages as same depth as main-page using Math.max
-      // (see below)
-      final AtomicInteger depth = new AtomicInteger(-1);
+    public int getHits() {
+      return hits.get();
+    }
+    public int getMisses() {
+      return misses.get();
+    }
+    
+    /** 
+     * Returns a Page for the specified file if the cache has a valid entry for it, else null.
+     * Safe to call from multiple threads.
+     */
+    public Page get(File file) throws IOException {
+      final String path = file.getAbsolutePath();
+      final JSONObject entry = entries.get(path);
+      if (null != entry
+          && entry.optLong("size", -1L) == file.length()
+          && entry.optString("sha256", "").equals(hash(file))) {
+        hits.incrementAndGet();
+        return new Page(file,
+                        entry.optString("title", null),
+                        entry.optString("page-shortname", null),
+                        entry.optString("page-permalink", null),
+                        entry.optString("page-children", null));
+      }
+      misses.incrementAndGet();
+      return null;
+    }
 
-      // the previous page seen in our walk
-      AtomicReference<Page> previous = new AtomicReference<Page>();
-      
-      mainPage.depthFirstWalk(new Page.RecursiveAction() {
-        public boolean act(Page page) {
-          try {
-            if (null != previous.get()) {
-              // add previous as our 'prev' page, and ourselves as the 'next' of previous
-              prevPage.put(page.shortname, previous.get());
-              nextPage.put(previous.get().shortname, page);
+    /** 
+     * (Over)writes the cache file to contain exactly the specified pages 
+     * (entries for any files that no longer exist are dropped)
+     */
+    public void save(Collection<Page> pages) throws IOException {
+      final JSONObject json = new JSONObject();
+      for (Page page : pages) {
+        final JSONObject entry = new JSONObject()
+          .put("size", page.file.length())
+          .put("mtime", page.file.lastModified())
+          .put("sha256", hash(page.file))
+          .put("title", page.title)
+          .put("page-shortname", page.shortname)
+          .put("page-permalink", page.permalink);
+        if (! page.kidShortnames.isEmpty()) {
+          entry.put("page-children", String.join(", ", page.kidShortnames));
+        }
+        json.put(page.file.getAbsolutePath(), entry);
+      }
+      final JSONObject wrapper = new JSONObject()
+        .put("version", VERSION)
+        .put("pages", json);
+      final File tmp = new File(cacheFile.getPath() + ".tmp");
+      try (Writer w = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8")) {
+        wrapper.write(w);
+      }
+      Files.move(tmp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** SHA-256 of the file contents as a hex string (memoized for the life of this cache) */
+    private String hash(File file) throws IOException {
+      final String path = file.getAbsolutePath();
+      String result = hashes.get(path);
+      if (null == result) {
+        result = Sha256.of(file);
+        hashes.put(path, result);
+      }
+      return result;
+    }
+  }
+
+  /**
+   * A pure java reader for the handful of header values we care about, that only reads as much of 
+   * each file as needed to get to the end of the (AsciiDoc) document header.
+   * <p>
+   * This is <em>not</em> a complete AsciiDoc header parser: it only understands (optional) leading 
+   * blank or comment lines, a level-0 document title, attribute entries and comment lines -- where the 
+   * title and the values of the attributes we care about contain no markup, attribute references, or 
+   * replacements that Asciidoctor would substitute.  For any header outside of that subset 
+   * (author/revision lines, block comments, line continuations, includes or other directives, etc...) 
+   * {@link #read} returns null so the caller can fall back to Asciidoctor.
+   * </p>
+   * <p>
+   * In "verify" mode callers are expected to always read the header with Asciidoctor as well, and pass 
+   * both to {@link #compare}; any differences are reported by {@link #report}, which fails the build.
+   * </p>
+   */
+  public static final class FastHeaderReader {
+    private static final Pattern ATTRIBUTE_ENTRY = Pattern.compile("^:(!?)(\\w[\\w\\-]*)(!?):(?:[ \\t]+(.*))?$");
+    /** characters we know asciidoctor leaves alone (except the special chars, which we escape) */
+    private static final Pattern SIMPLE_TEXT = Pattern.compile("[A-Za-z0-9 \\t,.:;/()?!&<>\\-]*");
+    /** sequences made up of SIMPLE_TEXT chars that asciidoctor would still replace */
+    private static final List<String> REPLACEMENTS
+      = Arrays.asList("--", "...", "(C)", "(R)", "(TM)", "->", "<-");
+
+    public final boolean verify;
+    private final AtomicInteger numRead = new AtomicInteger(0);
+    private final AtomicInteger numFallbacks = new AtomicInteger(0);
+    private final Queue<String> mismatches = new ConcurrentLinkedQueue<String>();
+    
+    public FastHeaderReader(boolean verify) {
+      this.verify = verify;
+    }
+
+    /** 
+     * Returns a Page for the specified file, or null if the header isn't simple enough for us to parse.
+     * Safe to call from multiple threads.
+     */
+    public Page read(File file) throws IOException {
+      numRead.incrementAndGet();
+      try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"))) {
+        String title = null;
+        final Map<String,String> attrs = new HashMap<String,String>();
+        String line = r.readLine();
+        if (null != line && line.startsWith("\uFEFF")) {
+          line = line.substring(1);
+        }
+        for (; null != line; line = r.readLine()) {
+          if (line.startsWith("//") && ! line.startsWith("///")) {
+            continue; // line comment
+          }
+          if (null == title) {
+            if (line.trim().isEmpty()) {
+              continue; // leading blank lines
+            }
+            if (! (line.startsWith("= ") || line.startsWith("=\t"))) {
+              return fallback();
+            }
+            title = line.substring(2).trim();
+            if (title.isEmpty() || title.endsWith(" =") || ! isSimpleText(title)) {
+              return fallback();
+            }
+            continue;
+          }
+          if (line.isEmpty()) {
+            break; // end of header
+          }
+          final Matcher m = ATTRIBUTE_ENTRY.matcher(line);
+          if (! m.matches() || line.endsWith(" \\") || line.endsWith(" +")) {
+            return fallback();
+          }
+          final String name = m.group(2);
+          if (! (name.equals("page-shortname") || name.equals("page-permalink") || name.equals("page-children"))) {
+            continue;
+          }
+          if (! (m.group(1).isEmpty() && m.group(3).isEmpty())) {
+            attrs.remove(name);
+          } else {
+            final String value = (null == m.group(4)) ? "" : m.group(4).trim();
+            if (! isSimpleText(value)) {
+              return fallback();
             }
-            previous.set(page);
-
-            
-            // HACK: where this file actually lives will determine what we need here...
-            w.write("include::../");
-            w.write(page.file.getName());
-            w.write("[leveloffset=+"+Math.max(0, depth.intValue())+"]\n\n");
-            depth.incrementAndGet();
-            return true;
-          } catch (IOException ioe) {
-            throw new RuntimeException("IOE recursively acting on " + page.shortname, ioe);
+            attrs.put(name, escape(value));
           }
         }
-        public void postKids(Page page) {
-          depth.decrementAndGet();
+        if (null == title) {
+          return fallback();
+        }
+        // like asciidoctor, treat anything after the last ': ' as a subtitle
+        final int subtitle = title.lastIndexOf(": ");
+        if (0 < subtitle) {
+          title = title.substring(0, subtitle);
+        }
+        return new Page(file, escape(title),
+                        attrs.get("page-shortname"), attrs.get("page-permalink"), attrs.get("page-children"));
+      }
+    }
+
+    /** Records any differences between the pages we read, and the pages Asciidoctor read */
+    public void compare(Page fast, Page doctor) {
+      final List<String> diffs = new ArrayList<String>();
+      if (! Objects.equals(fast.title, doctor.title)) {
+        diffs.add("title: '" + fast.title + "' vs '" + doctor.title + "'");
+      }
+      if (! Objects.equals(fast.shortname, doctor.shortname)) {
+        diffs.add("page-shortname: '" + fast.shortname + "' vs '" + doctor.shortname + "'");
+      }
+      if (! Objects.equals(fast.permalink, doctor.permalink)) {
+        diffs.add("page-permalink: '" + fast.permalink + "' vs '" + doctor.permalink + "'");
+      }
+      if (! fast.kidShortnames.equals(doctor.kidShortnames)) {
+        diffs.add("page-children: " + fast.kidShortnames + " vs " + doctor.kidShortnames);
+      }
+      if (! diffs.isEmpty()) {
+        mismatches.add(fast.file.toString() + " " + diffs);
+      }
+    }
+
+    /** prints a summary of how many files we read, throwing an exception if any failed verification */
+    public void report() {
+      System.out.println("Fast header reader: " + numRead.get() + " files, "
+                         + numFallbacks.get() + " fell back to Asciidoctor");
+      if (verify) {
+        if (! mismatches.isEmpty()) {
+          for (String mismatch : mismatches) {
+            System.err.println("ERROR: header mismatch (fast vs asciidoctor): " + mismatch);
+          }
+          throw new RuntimeException(mismatches.size() + " headers read differently then Asciidoctor");
         }
-      });
+        System.out.println("Verified " + (numRead.get() - numFallbacks.get()) + " headers against Asciidoctor");
+      }
     }
     
-    // Build up the scrollnav file for jekyll's footer
-    File scrollnavFile = new File(new File(adocDir, "_data"), "scrollnav.json");
-    if (scrollnavFile.exists()) {
-      throw new RuntimeException(scrollnavFile.toString() + " already exists");
-    }
-    System.out.println("Creating " + scrollnavFile.toString());
-    try (Writer w = new OutputStreamWriter(new FileOutputStream(scrollnavFile), "UTF-8")) {
-      JSONObject scrollnav = new JSONObject();
-      for (Page p : allPages.values()) {
-        JSONObject current = new JSONObject();
-        Page prev = prevPage.get(p.shortname);
-        Page next = nextPage.get(p.shortname);
-        if (null != prev) {
-          current.put("prev",
-                      new JSONObject()
-                      .put("url", prev.permalink)
-                      .put("title", prev.title));
-        }
-        if (null != next) {
-          current.put("next",
-                      new JSONObject()
-                      .put("url", next.permalink)
-                      .put("title", next.title));
-        }
-        scrollnav.put(p.shortname, current);
-      }
-      scrollnav.write(w);
+    private Page fallback() {
+      numFallbacks.incrementAndGet();
+      return null;
+    }
+    private static boolean isSimpleText(String text) {
+      if (! SIMPLE_TEXT.matcher(text).matches()) {
+        return false;
+      }
+      for (String replacement : REPLACEMENTS) {
+        if (text.contains(replacement)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    /** the same "special characters" substitution asciidoctor does on headers */
+    private static String escape(String text) {
+      return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+  }
+
+  /** @see #HEADER_READER_PROP */
+  public static FastHeaderReader getFastHeaderReader() {
+    final String mode = System.getProperty(HEADER_READER_PROP, "asciidoctor");
+    if (mode.equals("asciidoctor")) {
+      return null;
+    } else if (mode.equals("fast")) {
+      return new FastHeaderReader(false);
+    } else if (mode.equals("verify")) {
+      return new FastHeaderReader(true);
+    }
+    throw new RuntimeException(HEADER_READER_PROP + " must be one of asciidoctor, fast, or verify: " + mode);
+  }
+
+  /** Writes the scrollnav entry for a page, <code>prev</code> and/or <code>next</code> may be null */
+  static void writeScrollnavEntry(JsonStreamWriter json, Page page, Page prev, Page next) throws IOException {
+    json.name(page.shortname).beginObject();
+    if (null != prev) {
+      json.name("prev").beginObject().field("url", prev.permalink).field("title", prev.title).endObject();
+    }
+    if (null != next) {
+      json.name("next").beginObject().field("url", next.permalink).field("title", next.title).endObject();
+    }
+    json.endObject();
+  }
+
+  /**
+   * Hands out Writers for each of the files we generate.  Everything written goes to a temp file,
+   * (while computing a hash) and once everything has been written {@link #commit} compares each
+   * hash to that of any existing file.
+   * <p>
+   * By default it's an error if an output file already exists.  In incremental mode, existing files 
+   * are only replaced if the bytes differ, so their mtimes remain useful to downstream build steps.
+   * </p>
+   */
+  public static final class NavArtifacts {
+    private final boolean incremental;
+    private final Map<File,MessageDigest> pending = new LinkedHashMap<File,MessageDigest>();
+    private final List<File> changed = new ArrayList<File>();
+    private final List<File> unchanged = new ArrayList<File>();
+    public NavArtifacts(boolean incremental) {
+      this.incremental = incremental;
+    }
+
+    /** The returned Writer must be closed, and then {@link #commit} called, for anything to be written */
+    public Writer create(final File file) throws IOException {
+      if (file.exists() && ! incremental) {
+        throw new RuntimeException(file.toString() + " already exists");
+      }
+      System.out.println("Creating " + file.toString());
+      final MessageDigest digest = Sha256.newDigest();
+      pending.put(file, digest);
+      return new OutputStreamWriter(new DigestOutputStream
+                                    (new BufferedOutputStream(new FileOutputStream(tmpFile(file))), digest),
+                                    "UTF-8");
     }
     
-    // Build up the sidebar file for jekyll
-    File sidebarFile = new File(new File(adocDir, "_data"), "sidebar.json");
-    if (sidebarFile.exists()) {
-      throw new RuntimeException(sidebarFile.toString() + " already exists");
-    }
-    System.out.println("Creating " + sidebarFile.toString());
-    try (Writer w = new OutputStreamWriter(new FileOutputStream(sidebarFile), "UTF-8")) {
-      // A stack for tracking what we're working on as we recurse
-      final Stack<JSONObject> stack = new Stack<JSONObject>();
+    /** Replaces each file we've created if (and only if) the new contents differ */
+    public void commit() throws IOException {
+      for (Map.Entry<File,MessageDigest> entry : pending.entrySet()) {
+        final File file = entry.getKey();
+        final File tmp = tmpFile(file);
+        final String newHash = Sha256.toHex(entry.getValue().digest());
+        if (file.exists() && file.length() == tmp.length() && Sha256.of(file).equals(newHash)) {
+          Files.delete(tmp.toPath());
+          unchanged.add(file);
+        } else {
+          // rename, so nothing downstream ever sees a partially written file
+          Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+          changed.add(file);
+        }
+      }
+      pending.clear();
+    }
+
+    /** 
+     * Deletes any files in the specified dir that weren't created (and committed) since this 
+     * instance was constructed
+     */
+    public void removeUncommitted(File dir) throws IOException {
+      for (File file : dir.listFiles()) {
+        if (! (changed.contains(file) || unchanged.contains(file))) {
+          Files.delete(file.toPath());
+          changed.add(file);
+          System.out.println("Removed: " + file.toString());
+        }
+      }
+    }
+
+    /** removes any temp files that were never committed */
+    public void cleanup() throws IOException {
+      for (File file : pending.keySet()) {
+        Files.deleteIfExists(tmpFile(file).toPath());
+      }
+    }
+    
+    /** Lists which files changed (and which didn't) */
+    public void report() {
+      for (File file : unchanged) {
+        System.out.println("Unchanged: " + file.toString());
+      }
+      for (File file : changed) {
+        System.out.println("Changed: " + file.toString());
+      }
+      System.out.println(changed.size() + " changed, " + unchanged.size() + " unchanged");
+    }
+
+    private static File tmpFile(File file) {
+      return new File(file.getPath() + ".tmp");
+    }
+  }
+
+  /** @see #HEADER_THREADS_PROP */
+  public static int getHeaderThreads() {
+    final int threads = Integer.getInteger(HEADER_THREADS_PROP, 1);
+    if (threads < 0) {
+      throw new RuntimeException(HEADER_THREADS_PROP + " must not be negative: " + threads);
+    }
+    return (0 == threads) ? Runtime.getRuntime().availableProcessors() : threads;
+  }
+
+  /**
+   * A compact, int based, view of the parent/child relationships between all known pages: each page is 
+   * identified by it's (iteration order) position in the Collection used to build the index, and the 
+   * (resolved) children of every page are stored in a single int array, with offsets per page.
+   * <p>
+   * This lets us validate the entire tree in one (iterative) O(N) pass, reporting every problem found 
+   * instead of failing on the first one, before we ever link up the {@link Page#kids}
+   * </p>
+   */
+  public static final class PageIndex {
+    private static final byte NEW = 0;
+    private static final byte IN_PROGRESS = 1;
+    private static final byte DONE = 2;
+    
+    private final Page[] pages;
+    private final Map<Page,Integer> ids;
+    /** kids of page <code>i</code> are <code>kidIds[kidOffsets[i]]</code> up to (excluding) <code>kidIds[kidOffsets[i+1]]</code> */
+    private final int[] kidOffsets;
+    /** -1 for any kid shortname that doesn't match a known page */
+    private final int[] kidIds;
+
+    public PageIndex(Collection<Page> allPages) {
+      this.pages = allPages.toArray(new Page[allPages.size()]);
+      this.ids = new IdentityHashMap<Page,Integer>(pages.length);
+      final Map<String,Integer> shortnames = new HashMap<String,Integer>(pages.length * 2);
+      int numKids = 0;
+      for (int i = 0; i < pages.length; i++) {
+        ids.put(pages[i], i);
+        shortnames.put(pages[i].shortname, i);
+        numKids += pages[i].kidShortnames.size();
+      }
+      this.kidOffsets = new int[pages.length + 1];
+      this.kidIds = new int[numKids];
+      int k = 0;
+      for (int i = 0; i < pages.length; i++) {
+        kidOffsets[i] = k;
+        for (String kidShortname : pages[i].kidShortnames) {
+          final Integer kid = shortnames.get(kidShortname);
+          kidIds[k++] = (null == kid) ? -1 : kid;
+        }
+      }
+      kidOffsets[pages.length] = k;
+    }
+
+    /**
+     * Checks that every page is reachable from the root exactly once, by way of known children, 
+     * w/o any cycles, and that no page is deeper then <code>maxDepth</code>
+     * @return a description of every problem found, empty if there are none
+     */
+    public List<String> validate(Page root, int maxDepth) {
+      final List<String> problems = new ArrayList<String>();
       
-      mainPage.depthFirstWalk(new Page.RecursiveAction() {
-        public boolean act(Page page) {
-          final int depth = stack.size();
-          if (4 < depth) {
-            System.err.println("ERROR: depth==" + depth + " for " + page.permalink);
-            System.err.println("sidebar.html template can not support pages this deep");
-            System.exit(-1);
+      // missing kids, and pages with multiple parents
+      final int[] numParents = new int[pages.length];
+      for (int i = 0; i < pages.length; i++) {
+        for (int k = kidOffsets[i]; k < kidOffsets[i+1]; k++) {
+          if (-1 == kidIds[k]) {
+            problems.add("Unable to locate " + pages[i].kidShortnames.get(k - kidOffsets[i])
+                         + "; child of " + pages[i].shortname + " (" + pages[i].file.toString() + ")");
+          } else {
+            numParents[kidIds[k]]++;
           }
-          
-          final JSONObject current = new JSONObject()
-            .put("title",page.title)
-            .put("url", page.permalink)
-            .put("depth", depth)
-            .put("kids", new JSONArray());
-          
-          if (0 < depth) {
-            JSONObject parent = stack.peek();
-            ((JSONArray)parent.get("kids")).put(current);
+        }
+      }
+      final Map<Integer,List<String>> multipleParents = new TreeMap<Integer,List<String>>();
+      for (int i = 0; i < pages.length; i++) {
+        for (int k = kidOffsets[i]; k < kidOffsets[i+1]; k++) {
+          if (-1 != kidIds[k] && 1 < numParents[kidIds[k]]) {
+            if (! multipleParents.containsKey(kidIds[k])) {
+              multipleParents.put(kidIds[k], new ArrayList<String>(numParents[kidIds[k]]));
+            }
+            multipleParents.get(kidIds[k]).add(pages[i].shortname);
           }
-          
-          stack.push(current);
-          return true;
-        }
-        public void postKids(Page page) {
-          final JSONObject current = stack.pop();
-          if (0 == stack.size()) {
-            assert page == mainPage;
-            current.write(w);
+        }
+      }
+      for (Map.Entry<Integer,List<String>> entry : multipleParents.entrySet()) {
+        problems.add(pages[entry.getKey()].shortname + " is listed as a child more then once, by: " + entry.getValue());
+      }
+
+      // depth first walk from the root using explicit stacks,
+      // looking for cycles & pages that are too deep
+      final byte[] state = new byte[pages.length];
+      final int[] stack = new int[pages.length];       // page ids
+      final int[] nextKid = new int[pages.length];     // next offset into kidIds for each page on the stack
+      final int[] stackPosition = new int[pages.length]; // where each IN_PROGRESS page is on the stack
+      int top = 0;
+      final int rootId = ids.get(root);
+      stack[top] = rootId;
+      nextKid[top] = kidOffsets[rootId];
+      stackPosition[rootId] = top;
+      state[rootId] = IN_PROGRESS;
+      while (0 <= top) {
+        final int current = stack[top];
+        if (nextKid[top] == kidOffsets[current+1]) {
+          state[current] = DONE;
+          top--;
+          continue;
+        }
+        final int kid = kidIds[nextKid[top]++];
+        if (-1 == kid || DONE == state[kid]) {
+          continue; // already reported
+        }
+        if (IN_PROGRESS == state[kid]) {
+          final StringBuilder cycle = new StringBuilder();
+          for (int i = stackPosition[kid]; i <= top; i++) {
+            cycle.append(pages[stack[i]].shortname).append(" -> ");
           }
+          problems.add("Cycle found in page-children: " + cycle.append(pages[kid].shortname));
+          continue;
+        }
+        top++;
+        stack[top] = kid;
+        nextKid[top] = kidOffsets[kid];
+        stackPosition[kid] = top;
+        state[kid] = IN_PROGRESS;
+        if (maxDepth < top) {
+          problems.add("depth==" + top + " for " + pages[kid].permalink
+                       + ", sidebar.html template can not support pages deeper then " + maxDepth);
         }
-      });
+      }
+
+      // anything we didn't reach is an orphan
+      for (int i = 0; i < pages.length; i++) {
+        if (NEW == state[i]) {
+          problems.add("Orphan page, not reachable from " + root.shortname + ": "
+                       + pages[i].shortname + " (" + pages[i].file.toString() + ")");
+        }
+      }
+      return problems;
+    }
+
+    /** 
+     * (Re)populates the {@link Page#kids} of every page in the index.  
+     * Should only be called if {@link #validate} found no problems.
+     */
+    public void linkKids() {
+      for (int i = 0; i < pages.length; i++) {
+        pages[i].mutableKids.clear();
+        for (int k = kidOffsets[i]; k < kidOffsets[i+1]; k++) {
+          pages[i].mutableKids.add(pages[kidIds[k]]);
+        }
+      }
     }
-    
   }
 
   /** Simple struct for modeling the key metadata for dealing with page navigation */
@@ -186,21 +1088,29 @@ public class BuildNavAndPDFBody {
     public final String permalink;
     public final List<String> kidShortnames;
     /** NOTE: not populated on construction
-     * @see #buildKidsRecursive
+     * @see PageIndex#linkKids
      */
     public final List<Page> kids;
     private final List<Page> mutableKids;
     public Page(File file, DocumentHeader header) {
-      this.file = file;
-      this.title = header.getDocumentTitle().getMain();
-      
       // TODO: do error checking if attribute metadata we care about is missing
-      Map<String,Object> attrs = header.getAttributes();
-      this.shortname = (String) attrs.get("page-shortname");
-      this.permalink = (String) attrs.get("page-permalink");
+      this(file, header.getDocumentTitle().getMain(),
+           (String) header.getAttributes().get("page-shortname"),
+           (String) header.getAttributes().get("page-permalink"),
+           (String) header.getAttributes().get("page-children"));
+    }
+    /** 
+     * @param kidsString the (raw) value of the <code>page-children</code> attribute, 
+     *        may be null if the page has no children
+     */
+    public Page(File file, String title, String shortname, String permalink, String kidsString) {
+      this.file = file;
+      this.title = title;
+      this.shortname = shortname;
+      this.permalink = permalink;
       
-      if (attrs.containsKey("page-children")) {
-        String kidsString = ((String) attrs.get("page-children")).trim();
+      if (null != kidsString) {
+        kidsString = kidsString.trim();
         this.kidShortnames = Collections.<String>unmodifiableList
           (Arrays.asList(kidsString.split(",\\s+")));
         this.mutableKids = new ArrayList<Page>(kidShortnames.size());
@@ -211,28 +1121,33 @@ public class BuildNavAndPDFBody {
       this.kids = Collections.<Page>unmodifiableList(mutableKids);
     }
 
-    /** Recursively populates {@link #kids} from {@link #kidShortnames} via the <code>allPages</code> Map */
-    public void buildKidsRecursive(Map<String,Page> allPages) {
-      for (String kidShortname : kidShortnames) {
-        Page kid = allPages.get(kidShortname);
-        if (null == kid) {
-          throw new RuntimeException("Unable to locate " + kidShortname + "; child of " + shortname + "("+file.toString());
-        }
-        mutableKids.add(kid);
-        kid.buildKidsRecursive(allPages);
-      }
-    }
-
     /** 
-     * Do a depth first recursive action on this node and it's {@link #kids} 
+     * Do a depth first action on this node and it's {@link #kids}.
+     * Uses an explicit stack instead of recursion, so there is no limit on how deep the tree can be, but 
+     * it assumes the tree has no cycles.
      * @see RecursiveAction
+     * @see PageIndex#validate
      */
     public void depthFirstWalk(RecursiveAction action) {
-      if (action.act(this)) {
-        for (Page kid : kids) {
-          kid.depthFirstWalk(action);
+      if (! action.act(this)) {
+        return;
+      }
+      final Deque<Page> pages = new ArrayDeque<Page>();
+      final Deque<Iterator<Page>> remainingKids = new ArrayDeque<Iterator<Page>>();
+      pages.push(this);
+      remainingKids.push(kids.iterator());
+      while (! pages.isEmpty()) {
+        final Iterator<Page> iter = remainingKids.peek();
+        if (iter.hasNext()) {
+          final Page kid = iter.next();
+          if (action.act(kid)) {
+            pages.push(kid);
+            remainingKids.push(kid.kids.iterator());
+          }
+        } else {
+          remainingKids.pop();
+          action.postKids(pages.pop());
         }
-        action.postKids(this);
       }
     }
 
@@ -0,0 +1,243 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.solr.refguide.PhaseTimings;
+
+import org.asciidoctor.Asciidoctor.Factory;
+import org.asciidoctor.Asciidoctor;
+import org.asciidoctor.AttributesBuilder;
+import org.asciidoctor.OptionsBuilder;
+import org.asciidoctor.SafeMode;
+import org.asciidoctor.ast.Document;
+import org.asciidoctor.extension.Treeprocessor;
+
+import org.jruby.Ruby;
+import org.jruby.RubyHash;
+import org.jruby.java.proxies.RubyObjectHolderProxy;
+import org.jruby.runtime.ThreadContext;
+import org.jruby.runtime.builtin.IRubyObject;
+
+/**
+ * Checks the ids &amp; xrefs in the asciidoc pages, using the same rules as {@link CheckLinksAndAnchors},
+ * w/o having to build (or render any part of) the HTML site first.
+ * <p>
+ * Every page is loaded (but never converted) by Asciidoctor, and an {@link AnchorCollector} tree processor
+ * collects the ids it registered while parsing the page -- so section ids are exactly the ones Asciidoctor
+ * generates (even for titles using attributes) rather then approximations.  Each page is loaded on it's own
+ * (included w/a <code>leveloffset</code>, the same way the PDF body includes it, so the page title gets the
+ * same id it has in the PDF) since Asciidoctor quietly de-duplicates ids w/in a single document.  (Even w/in
+ * a page it only registers an explicit anchor once, so every occurrence of one is taken from the lines of the
+ * page, see below, and only the ids it generated are taken from what it registered.)
+ * </p>
+ * <p>
+ * Explicit anchors in list items, table cells &amp; titles aren't registered until they are converted, and
+ * xrefs are never registered, so both are also scanned for in the (non-verbatim) lines of the page, w/the
+ * conditionals, includes &amp; attribute references processed, starting from the attributes the page was
+ * loaded w/ (see {@link AdocLines}) -- an xref that still references an attribute is reported, rather then
+ * guessing where it goes.  Each xref is checked as the link it becomes: <code>&lt;&lt;page.adoc#id&gt;&gt;</code> must point at a page that
+ * exists and an id in that page which doesn't occur in any other page, <code>&lt;&lt;page.adoc&gt;&gt;</code>
+ * has no '#anchor' (which doesn't work in the PDF), and <code>&lt;&lt;id&gt;&gt;</code> must point at an id
+ * in the same page.
+ * </p>
+ */
+public class CheckAdocAnchors {
+
+  /** The attribute each page is loaded with, set to the path of the page, so the collector knows which is which */
+  public static final String PAGE_ATTRIBUTE = "check-adoc-page";
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println("usage: CheckAdocAnchors <adocdir> [name=value]...");
+      System.exit(-1);
+    }
+    final File adocDir = new File(args[0]);
+    final File[] pages = adocDir.listFiles(BuildNavAndPDFBody.ADOC_FILE_NAMES);
+    if (null == pages || 0 == pages.length) {
+      System.err.println("No asciidoc files found, wrong adocDir?");
+      System.exit(-1);
+    }
+    // (listFiles order depends on the filesystem)
+    Arrays.sort(pages);
+
+    // the same ids as the PDF (and HTML) unless overridden
+    final Map<String,Object> attributes = new LinkedHashMap<String,Object>();
+    attributes.put("idprefix", "");
+    attributes.put("idseparator", "-");
+    for (int i = 1; i < args.length; i++) {
+      final String[] attribute = args[i].split("=", 2);
+      attributes.put(attribute[0], (1 == attribute.length) ? "" : attribute[1]);
+    }
+
+    final PhaseTimings timings = PhaseTimings.fromSystemProperties("CheckAdocAnchors");
+    final long start = System.nanoTime();
+    final Asciidoctor doctor = Factory.create();
+    final int problems;
+    try {
+      problems = checkAll(doctor, pages, attributes, timings);
+    } finally {
+      doctor.shutdown();
+    }
+    timings.writeReport();
+    System.out.println("Checked " + pages.length + " pages in "
+                       + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+
+    if (0 < problems) {
+      System.err.println("Total of " + problems + " problems found");
+      System.exit(-1);
+    }
+  }
+
+  /**
+   * Loads every page (in the directory of the page) w/an {@link AnchorCollector}, then reports the problems
+   * in the same order as {@link CheckLinksAndAnchors#checkAll}: the problems w/each page (in page order),
+   * every id that occurs multiple times (sorted) and the pages it occurs in, and then every broken xref.
+   * @return the total number of problems found
+   */
+  public static int checkAll(Asciidoctor doctor, File[] pages, Map<String,Object> attributes,
+                             PhaseTimings timings) throws IOException {
+    final AnchorCollector collector = new AnchorCollector();
+    doctor.javaExtensionRegistry().treeprocessor(collector);
+
+    final CheckLinksAndAnchors.PageResult[] results = new CheckLinksAndAnchors.PageResult[pages.length];
+    for (int i = 0; i < pages.length; i++) {
+      final String path = pages[i].getAbsolutePath();
+      final Map<String,Object> pageAttributes = new LinkedHashMap<String,Object>(attributes);
+      pageAttributes.put(PAGE_ATTRIBUTE, path);
+      PhaseTimings.Timer timer = timings.start("load", pages[i]);
+      doctor.load("= " + pages[i].getName() + "\n\ninclude::" + pages[i].getName() + "[leveloffset=+1]\n",
+                  OptionsBuilder.options()
+                  .safe(SafeMode.UNSAFE)
+                  .baseDir(pages[i].getAbsoluteFile().getParentFile())
+                  .attributes(AttributesBuilder.attributes().attributes(pageAttributes))
+                  .asMap());
+      timer.stop();
+
+      final Collected collected = collector.remove(path);
+      if (null == collected) {
+        throw new RuntimeException("BUG: no ids were collected from " + path);
+      }
+      timer = timings.start("check", pages[i]);
+      results[i] = new CheckLinksAndAnchors.PageResult(pages[i]);
+      CheckLinksAndAnchors.checkIdsAndLinks(collected.content, results[i]);
+      for (String target : collected.unresolvedXrefs) {
+        results[i].problems.add(results[i].uri + " contains xref w/ an unresolved attribute reference: " + target);
+      }
+      timer.stop();
+    }
+
+    int problems = 0;
+    for (CheckLinksAndAnchors.PageResult result : results) {
+      for (String problem : result.problems) {
+        problems++;
+        System.err.println(problem);
+      }
+    }
+    final PhaseTimings.Timer timer = timings.start("anchors", null);
+    final AnchorIndex anchors = CheckLinksAndAnchors.buildAnchorIndex(results);
+    problems += CheckLinksAndAnchors.reportDuplicateIds(results, anchors);
+    problems += CheckLinksAndAnchors.checkRelativeLinks(results, anchors, null);
+    timer.stop();
+    return problems;
+  }
+
+  /** What was collected from a page */
+  public static final class Collected {
+    public final CheckLinksAndAnchors.MainContent content = new CheckLinksAndAnchors.MainContent();
+    /** the targets of the xrefs that still reference an attribute once the known ones are replaced */
+    public final List<String> unresolvedXrefs = new ArrayList<String>();
+  }
+
+  /**
+   * Collects the ids &amp; xrefs of every document loaded w/{@link #PAGE_ATTRIBUTE} set (ignoring any others)
+   * as the "main content" of the page, for {@link CheckLinksAndAnchors} to check.  The href of each xref is
+   * relative to the page, ex: <code>other.adoc#id</code> or <code>#id</code>.
+   * <p>
+   * The registered ids are read straight from the Ruby document, since (in this version of AsciidoctorJ)
+   * wrapping each node of the tree in a Java proxy costs a few milliseconds per node.
+   * </p>
+   */
+  public static final class AnchorCollector extends Treeprocessor {
+    /** page path =&gt; what was collected from it, until it's removed */
+    private final Map<String,Collected> pages = new HashMap<String,Collected>();
+
+    public Document process(Document document) {
+      final IRubyObject doc = ((RubyObjectHolderProxy) document.getDocumentRuby()).__ruby_object();
+      final Ruby ruby = doc.getRuntime();
+      final ThreadContext context = ruby.getCurrentContext();
+      final IRubyObject page = doc.callMethod(context, "attr", ruby.newString(PAGE_ATTRIBUTE));
+      if (page.isNil()) {
+        return document;
+      }
+      final File file = new File(page.toString());
+
+      // (the attributes set in the header, plus the ones it was loaded w/)
+      final Map<String,String> attributes = new HashMap<String,String>();
+      for (Object attribute : ((RubyHash) doc.callMethod(context, "attributes")).entrySet()) {
+        final Map.Entry<?,?> entry = (Map.Entry<?,?>) attribute;
+        attributes.put(entry.getKey().toString(), (null == entry.getValue()) ? "" : entry.getValue().toString());
+      }
+      final Collected collected = new Collected();
+      // every occurrence of every explicit anchor, so an id used twice is reported the way the HTML check does
+      final List<String> anchors = new ArrayList<String>();
+      try {
+        for (String line : AdocLines.readContentLines(file, attributes)) {
+          if (line.startsWith("//")) {
+            continue;
+          }
+          anchors.addAll(AdocLines.explicitAnchors(line));
+          for (String target : AdocLines.xrefTargets(line)) {
+            if (0 <= target.indexOf('{')) {
+              collected.unresolvedXrefs.add(target);
+            } else {
+              collected.content.hrefs.add(xrefHref(target));
+            }
+          }
+        }
+      } catch (IOException ioe) {
+        throw new RuntimeException("IOE reading " + file.toString(), ioe);
+      }
+      // Asciidoctor only registers an id once, so the ids it registered only add the ones it generated
+      final Set<String> explicit = new HashSet<String>(anchors);
+      final RubyHash references = (RubyHash) doc.callMethod(context, "references");
+      for (Object id : ((RubyHash) references.get(ruby.newSymbol("ids"))).keySet()) {
+        if (! explicit.contains(id.toString())) {
+          collected.content.ids.add(id.toString());
+        }
+      }
+      collected.content.ids.addAll(anchors);
+      synchronized (pages) {
+        pages.put(file.getPath(), collected);
+      }
+      return document;
+    }
+
+    /** @return what was collected from the page (loaded w/the specified path), or null if it wasn't loaded */
+    public Collected remove(String path) {
+      synchronized (pages) {
+        return pages.remove(path);
+      }
+    }
+  }
+
+  /**
+   * The (relative) href an xref target becomes, ex: <code>other.adoc#id</code> (or <code>other#id</code>)
+   * =&gt; <code>other.adoc#id</code>, <code>other.adoc</code> =&gt; <code>other.adoc</code>, and
+   * <code>id</code> =&gt; <code>#id</code>
+   */
+  static String xrefHref(String target) {
+    final int hash = target.indexOf('#');
+    if (hash < 0) {
+      return target.endsWith(".adoc") ? target : ("#" + target);
+    }
+    final String page = target.substring(0, hash);
+    return (page.isEmpty() || page.endsWith(".adoc")) ? target : (page + ".adoc" + target.substring(hash));
+  }
+}
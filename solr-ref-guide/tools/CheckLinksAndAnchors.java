@@ -3,19 +3,36 @@ import java.io.*;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.apache.solr.refguide.PhaseTimings;
+import org.apache.solr.refguide.TextFileReader;
+
+import org.json.*;
+
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
@@ -38,8 +55,15 @@ import org.jsoup.select.NodeVisitor;
  * This tool parses the generated HTML site, looking for these situations in order to fail the build -- since the 
  * equivilent PDF will be broken
  * </p>
- * 
- * TODO: This class could also generally check that no (relative) links are broken?
+ * <p>
+ * Once every page has been parsed, it also checks that no (relative) links are broken: every relative link must
+ * point to a page that exists, and (if it has a fragment) to an id in that page which doesn't occur in any other 
+ * page.  This is done using the ids already collected from every page, w/o re-reading anything.
+ * </p>
+ * <p>
+ * Since it already has to look at the main content of every page, it can also write a {@link SearchIndex} of the
+ * text in it, see {@link #SEARCH_INDEX_PROP}.
+ * </p>
  *
  * @see https://github.com/asciidoctor/asciidoctor/issues/1865
  * @see https://github.com/asciidoctor/asciidoctor/issues/1866
@@ -52,9 +76,46 @@ public class CheckLinksAndAnchors {
     }
   }
   
+  /** 
+   * System property specifying the number of threads used to check pages, 0 means one per cpu.  
+   * The output is the same regardless of how many threads are used.
+   */
+  public static final String THREADS_PROP = "check.threads";
+
+  /**
+   * System property controlling how the ids &amp; links in the main content of each page are found: 
+   * <code>dom</code> (the default) parses the entire page with Jsoup, <code>stream</code> uses a
+   * {@link MainContentScanner}, and <code>verify</code> uses both -- reporting any differences as problems.
+   */
+  public static final String EXTRACTOR_PROP = "check.extractor";
+
+  /**
+   * System property specifying a file to use for caching what was found in each page between runs, so only 
+   * pages that changed need to be parsed again.  If unset, when using the <code>verify</code> extractor, or when
+   * building a search index (since the text of cached pages isn't kept), no cache is used.
+   * @see PageCache
+   */
+  public static final String CACHE_PROP = "check.cache";
+
+  /**
+   * System property that, if true, causes every (absolute) http &amp; https link to be checked as well.
+   * @see ExternalLinkChecker
+   */
+  public static final String EXTERNAL_PROP = "check.external";
+
+  /**
+   * System property specifying a file to write the {@link AnchorIndex} of every id in every page to, so other 
+   * tools can look up anchors w/o re-parsing the site.  If unset, no file is written.
+   */
+  public static final String ANCHOR_INDEX_PROP = "check.anchor.index";
+
+  /**
+   * System property specifying a directory to write a {@link SearchIndex} of the text in the main content of 
+   * every page to.  If unset, no text is collected and no index is written.
+   */
+  public static final String SEARCH_INDEX_PROP = "check.search.index";
+  
   public static void main(String[] args) throws Exception {
-    int problems = 0;
-    
     if (args.length != 1) {
       System.err.println("usage: CheckLinksAndAnchors <htmldir>");
       System.exit(-1);
@@ -66,99 +127,1207 @@ public class CheckLinksAndAnchors {
       System.err.println("No HTML Files found, wrong htmlDir? forgot to built the site?");
       System.exit(-1);
     }
+    // (listFiles order depends on the filesystem)
+    Arrays.sort(pages);
 
-    final Map<String,List<File>> knownIds = new HashMap<>();
-    final Set<String> problemIds = new HashSet<>(0);
+    final PhaseTimings timings = PhaseTimings.fromSystemProperties("CheckLinksAndAnchors");
+    final String extractor = getExtractor();
+    final String cachePath = System.getProperty(CACHE_PROP, "");
+    final String searchIndexPath = System.getProperty(SEARCH_INDEX_PROP, "");
+    if (! (cachePath.isEmpty() || searchIndexPath.isEmpty())) {
+      System.out.println("Not using the check cache, since a search index is being built");
+    }
+    final PageCache cache = (cachePath.isEmpty() || extractor.equals("verify") || ! searchIndexPath.isEmpty())
+      ? null : new PageCache(new File(cachePath));
+    final ExternalLinkChecker external
+      = Boolean.getBoolean(EXTERNAL_PROP) ? ExternalLinkChecker.fromSystemProperties() : null;
+    final String anchorIndexPath = System.getProperty(ANCHOR_INDEX_PROP, "");
+    final int problems = checkAll(pages, getThreads(), extractor, cache, external,
+                                  anchorIndexPath.isEmpty() ? null : new File(anchorIndexPath),
+                                  searchIndexPath.isEmpty() ? null : new File(searchIndexPath), timings);
+    timings.writeReport();
     
-    for (File file : pages) {
-      //System.out.println("input File URI: " + file.toURI().toString());
-      
-      final String fileContents = readFile(file.getPath());
-      final Document doc = Jsoup.parse(fileContents);
-      final Element mainContent = doc.select("#main-content").first();
-      if (mainContent == null) {
+    if (0 < problems) {
+      System.err.println("Total of " + problems + " problems found");
+      System.exit(-1);
+    }
+  }
+
+  /** @see #THREADS_PROP */
+  public static int getThreads() {
+    final int threads = Integer.getInteger(THREADS_PROP, 1);
+    if (threads < 0) {
+      throw new RuntimeException(THREADS_PROP + " must not be negative: " + threads);
+    }
+    return (0 == threads) ? Runtime.getRuntime().availableProcessors() : threads;
+  }
+
+  /** @see #EXTRACTOR_PROP */
+  public static String getExtractor() {
+    final String mode = System.getProperty(EXTRACTOR_PROP, "dom");
+    if (! (mode.equals("dom") || mode.equals("stream") || mode.equals("verify"))) {
+      throw new RuntimeException(EXTRACTOR_PROP + " must be one of dom, stream, or verify: " + mode);
+    }
+    return mode;
+  }
+
+  /**
+   * Checks every page (using the specified number of threads) and then reports all problems found, 
+   * in page order, followed by every id that occurs multiple times (sorted) and the pages it occurs in, 
+   * followed by every broken relative link (in page order), and then every broken external link (in page order).
+   * @param extractor one of <code>dom</code>, <code>stream</code>, or <code>verify</code>
+   * @param cache if non-null, used to skip re-parsing unchanged pages (and is saved when done)
+   * @param external if non-null, used to check every external link
+   * @param anchorIndexFile if non-null, the {@link AnchorIndex} is written there
+   * @param searchIndexDir if non-null, a {@link SearchIndex} is written there (the cache must be null)
+   * @return the total number of problems found
+   * @see #EXTRACTOR_PROP
+   */
+  public static int checkAll(final File[] pages, final int numThreads, final String extractor,
+                             final PageCache cache, final ExternalLinkChecker external,
+                             final File anchorIndexFile, final File searchIndexDir,
+                             final PhaseTimings timings) throws Exception {
+    if (null != cache && null != searchIndexDir) {
+      throw new IllegalArgumentException("A search index can't be built from cached pages");
+    }
+    final boolean collectText = (null != searchIndexDir);
+    final PageResult[] results = new PageResult[pages.length];
+    final int numWorkers = Math.max(1, Math.min(numThreads, pages.length));
+    if (1 == numWorkers) {
+      new CheckWorker(pages, results, new AtomicInteger(0), extractor, collectText, cache, timings).call();
+    } else {
+      System.out.println("Checking " + pages.length + " pages using " + numWorkers + " threads");
+      final AtomicInteger nextPage = new AtomicInteger(0);
+      final ExecutorService pool = Executors.newFixedThreadPool(numWorkers);
+      try {
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>(numWorkers);
+        for (int i = 0; i < numWorkers; i++) {
+          futures.add(pool.submit(new CheckWorker(pages, results, nextPage, extractor, collectText, cache, timings)));
+        }
+        for (Future<Void> future : futures) {
+          try {
+            future.get();
+          } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+              throw (Exception) e.getCause();
+            }
+            throw e;
+          }
+        }
+      } finally {
+        pool.shutdownNow();
+      }
+    }
+
+    // merge the results in page order, so the output never depends on which thread checked what
+    int problems = 0;
+    for (PageResult result : results) {
+      for (String problem : result.problems) {
+        problems++;
+        System.err.println(problem);
+      }
+    }
+
+    PhaseTimings.Timer timer = timings.start("anchor-index", null);
+    final AnchorIndex anchors = buildAnchorIndex(results);
+    if (null != anchorIndexFile) {
+      anchors.write(anchorIndexFile);
+    }
+    timer.stop();
+
+    if (null != searchIndexDir) {
+      timer = timings.start("search-index", null);
+      final SearchIndex.Builder search = new SearchIndex.Builder(SearchIndex.DEFAULT_PREFIX_LENGTH);
+      for (PageResult result : results) {
+        search.add(result.terms);
+      }
+      final int numShards = search.write(searchIndexDir);
+      timer.stop();
+      System.out.println("Search index: " + search.getNumTerms() + " terms in " + numShards + " shards: "
+                         + searchIndexDir.toString());
+    }
+
+    problems += reportDuplicateIds(results, anchors);
+
+    timer = timings.start("relative-links", null);
+    problems += checkRelativeLinks(results, anchors, cache);
+    timer.stop();
+
+    if (null != external) {
+      timer = timings.start("external-links", null);
+      problems += checkExternalLinks(results, external);
+      timer.stop();
+    }
+
+    if (null != cache) {
+      System.out.println("Check cache: " + cache.getHits() + " pages re-used, " + cache.getMisses() + " parsed, "
+                         + cache.getRechecked() + " re-used pages had their links re-checked");
+      cache.save(results);
+    }
+    return problems;
+  }
+
+  /** The pages in the index are numbered the same as the results, and named by their file names */
+  static AnchorIndex buildAnchorIndex(PageResult[] results) {
+    final List<String> names = new ArrayList<String>(results.length);
+    final List<List<String>> ids = new ArrayList<List<String>>(results.length);
+    for (PageResult result : results) {
+      names.add(result.file.getName());
+      ids.add(result.ids);
+    }
+    return AnchorIndex.build(names, ids);
+  }
+
+  /**
+   * Reports every id that occurs multiple times (sorted as Strings, not by their bytes like the index) 
+   * and the pages it occurs in.
+   * @return the number of problematic ids found
+   */
+  static int reportDuplicateIds(PageResult[] results, AnchorIndex anchors) {
+    final Map<String,Integer> problemIds = new TreeMap<>();
+    for (int i = 0; i < anchors.getNumIds(); i++) {
+      if (1 < anchors.getNumOccurrences(i)) {
+        problemIds.put(anchors.getId(i), i);
+      }
+    }
+    for (Map.Entry<String,Integer> id : problemIds.entrySet()) {
+      System.err.println("ID occurs multiple times: " + id.getKey());
+      for (int n = 0; n < anchors.getNumOccurrences(id.getValue()); n++) {
+        System.err.println(" ... " + results[anchors.getOccurrencePage(id.getValue(), n)].uri.toString());
+      }
+    }
+    return problemIds.size();
+  }
+
+  /**
+   * Resolves every relative link against the pages (and ids in them) we've already checked, w/o touching the
+   * filesystem unless a link points at something other then a page.  Each link costs a constant number of hash 
+   * lookups (of the page, and of the fragment in the anchor index), so this is linear in the total number of links.
+   * <p>
+   * Pages re-used from the cache already know the problems with their links, and are only re-checked if 
+   * the cache says they might link to something that has changed.
+   * </p>
+   * @param anchors every id in every page, and the page(s) it occurs in
+   * @return the number of broken links found
+   */
+  static int checkRelativeLinks(PageResult[] results, AnchorIndex anchors, PageCache cache) {
+    final Map<String,PageResult> pagesByPath = new HashMap<>(results.length * 2);
+    for (PageResult result : results) {
+      pagesByPath.put(result.uri.getPath(), result);
+    }
+    final Set<String> stalePages = (null == cache) ? null : cache.findStalePages(results, pagesByPath);
+    // links can also point to things that aren't pages (ex: images), we only check that those exist
+    final Map<String,Boolean> otherFiles = new HashMap<>();
+    
+    int problems = 0;
+    for (PageResult result : results) {
+      if (null == result.linkProblems || (null != stalePages && stalePages.contains(result.uri.getPath()))) {
+        checkRelativeLinks(result, results, pagesByPath, anchors, otherFiles);
+      }
+      for (String problem : result.linkProblems) {
+        problems++;
+        System.err.println(problem);
+      }
+    }
+    return problems;
+  }
+
+  /**
+   * Checks every unique external URL (ignoring fragments) linked to by any page, then reports the broken ones 
+   * for every page that links to them.
+   * @return the number of broken links found
+   */
+  private static int checkExternalLinks(PageResult[] results, ExternalLinkChecker external) throws Exception {
+    final Set<String> urls = new LinkedHashSet<String>();
+    for (PageResult result : results) {
+      for (String href : result.externalLinks) {
+        urls.add(ExternalLinkChecker.toCheckedUrl(href));
+      }
+    }
+    final Map<String,ExternalLinkChecker.Result> checked = external.check(urls);
+    int numCached = 0;
+    int numBroken = 0;
+    for (ExternalLinkChecker.Result result : checked.values()) {
+      numCached += result.cached ? 1 : 0;
+      numBroken += result.isOk() ? 0 : 1;
+    }
+    System.out.println("Checked " + urls.size() + " external URLs (" + numCached + " were cached): "
+                       + numBroken + " broken");
+    
+    int problems = 0;
+    for (PageResult result : results) {
+      for (String href : result.externalLinks) {
+        final ExternalLinkChecker.Result url = checked.get(ExternalLinkChecker.toCheckedUrl(href));
+        if (! url.isOk()) {
+          problems++;
+          System.err.println(result.uri + " contains link to a broken URL (" + url.error + "): " + href);
+        }
+      }
+    }
+    return problems;
+  }
+
+  private static void checkRelativeLinks(PageResult result, PageResult[] results, Map<String,PageResult> pagesByPath,
+                                         AnchorIndex anchors, Map<String,Boolean> otherFiles) {
+    result.linkProblems = new ArrayList<String>();
+    for (RelativeLink link : result.relativeLinks) {
+      final PageResult target = pagesByPath.get(link.path);
+      if (null == target) {
+        Boolean exists = otherFiles.get(link.path);
+        if (null == exists) {
+          exists = new File(link.path).exists();
+          otherFiles.put(link.path, exists);
+        }
+        if (! exists) {
+          result.linkProblems.add(result.uri + " contains link to a page that doesn't exist: " + link.href);
+        }
+        continue;
+      }
+      if (null == link.fragment || link.fragment.isEmpty() || isIgnoredId(link.fragment)) {
+        continue;
+      }
+      final int id = anchors.find(link.fragment);
+      final int numPages = (id < 0) ? 0 : anchors.getNumOccurrences(id);
+      if (0 == numPages || (1 == numPages && results[anchors.getOccurrencePage(id, 0)] != target)) {
+        result.linkProblems.add(result.uri + " contains link to an id that doesn't exist in " + target.file.getName()
+                                + ": " + link.href
+                                + ((0 == numPages) ? "" : "\n ... id only exists in " 
+                                   + anchors.getPageName(anchors.getOccurrencePage(id, 0))));
+      } else if (1 < numPages) {
+        result.linkProblems.add(result.uri + " contains link to an id that occurs multiple times: " + link.href);
+      }
+    }
+  }
+
+  /** The ids in the main content of a single page, it's relative links, and the problems found with it's links */
+  public static final class PageResult {
+    public final File file;
+    public final URI uri;
+    /** in document order (excluding the special ids we ignore) */
+    public final List<String> ids = new ArrayList<String>();
+    /** in document order (excluding any w/invalid syntax), checked once every page has been checked */
+    public final List<RelativeLink> relativeLinks = new ArrayList<RelativeLink>();
+    /** the hrefs of all (absolute) http &amp; https links, in document order */
+    public final List<String> externalLinks = new ArrayList<String>();
+    /** the message for each problem, in document order */
+    public final List<String> problems = new ArrayList<String>();
+    /** the message for each problem w/a relative link, null until they've been checked */
+    public List<String> linkProblems = null;
+    /** the terms in the main content, null unless text is being collected for a search index */
+    public SearchIndex.PageTerms terms = null;
+    public PageResult(File file) {
+      this.file = file;
+      this.uri = file.toURI();
+    }
+  }
+
+  /** A relative link, already resolved against the page it's in */
+  public static final class RelativeLink {
+    public final String href;
+    /** the (decoded) absolute path of the file the link points to */
+    public final String path;
+    /** the (decoded) fragment, null if there is none */
+    public final String fragment;
+    public RelativeLink(String href, String path, String fragment) {
+      this.href = href;
+      this.path = path;
+      this.fragment = fragment;
+    }
+  }
+
+  /** 
+   * Pulls the next unchecked page index from a shared counter, and checks that page into the 
+   * corresponding slot of the <code>results</code> array, until there are no pages left.
+   */
+  private static final class CheckWorker implements Callable<Void> {
+    private final File[] pages;
+    private final PageResult[] results;
+    private final AtomicInteger nextPage;
+    private final String extractor;
+    private final boolean collectText;
+    private final PageCache cache;
+    private final PhaseTimings timings;
+    private final TextFileReader textReader = new TextFileReader(false);
+    public CheckWorker(File[] pages, PageResult[] results, AtomicInteger nextPage,
+                       String extractor, boolean collectText, PageCache cache, PhaseTimings timings) {
+      this.pages = pages;
+      this.results = results;
+      this.nextPage = nextPage;
+      this.extractor = extractor;
+      this.collectText = collectText;
+      this.cache = cache;
+      this.timings = timings;
+    }
+    public Void call() throws IOException {
+      for (int i = nextPage.getAndIncrement(); i < pages.length; i = nextPage.getAndIncrement()) {
+        if (null != cache) {
+          final PhaseTimings.Timer timer = timings.start("cache", pages[i]);
+          results[i] = cache.get(pages[i]);
+          timer.stop();
+          if (null != results[i]) {
+            continue;
+          }
+        }
+        results[i] = checkFile(pages[i], extractor, collectText, textReader, timings);
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Collects all of the ids in the main content of a single HTML file and checks all of it's links.
+   * With the <code>dom</code> extractor reading, parsing, selecting and checking are each timed as a separate 
+   * phase; with the <code>stream</code> extractor the first three are a single "scan" phase.
+   * @param collectText if true, the terms in the main content are collected as well
+   */
+  static PageResult checkFile(File file, String extractor, boolean collectText, TextFileReader textReader,
+                              PhaseTimings timings) throws IOException {
+    //System.out.println("input File URI: " + file.toURI().toString());
+    final PageResult result = new PageResult(file);
+    
+    final MainContent content = extractor.equals("dom")
+      ? domMainContent(file, collectText, textReader, timings) : scanMainContent(file, collectText, timings);
+    if (extractor.equals("verify")) {
+      final String diff = content.diff(domMainContent(file, collectText, textReader, timings));
+      if (null != diff) {
+        result.problems.add(file.toURI().toString()
+                            + " main content scanned differently then Jsoup parsed it: " + diff);
+      }
+    }
+
+    PhaseTimings.Timer timer = timings.start("check", file);
+    checkIdsAndLinks(content, result);
+    timer.stop();
+
+    if (collectText) {
+      timer = timings.start("search-terms", file);
+      result.terms = new SearchIndex.PageTerms(file.getName(), pageTitle(content.title));
+      for (MainContent.TextSection section : content.sections) {
+        result.terms.addSection(section.id, section.text);
+      }
+      timer.stop();
+    }
+    return result;
+  }
+
+  /** the title of the page, w/o the site title that jekyll appends to it */
+  private static String pageTitle(String title) {
+    final int siteTitle = title.lastIndexOf(" | ");
+    return (siteTitle < 0) ? title : title.substring(0, siteTitle);
+  }
+
+  private static MainContent domMainContent(File file, boolean collectText, TextFileReader textReader,
+                                           PhaseTimings timings) throws IOException {
+    PhaseTimings.Timer timer = timings.start("read", file);
+    final String fileContents = textReader.read(file);
+    timer.stop();
+    
+    timer = timings.start("parse", file);
+    final Document doc = Jsoup.parse(fileContents);
+    timer.stop();
+    
+    timer = timings.start("select", file);
+    final Element mainContent = doc.select("#main-content").first();
+    if (mainContent == null) {
+      throw new RuntimeException(file.getName() + " has no main-content div");
+    }
+    final MainContent content = new MainContent(collectText);
+    for (Element node : mainContent.select("[id]")) {
+      content.ids.add(node.id());
+    }
+    for (Element link : mainContent.select("a[href]")) {
+      content.hrefs.add(link.attr("href"));
+    }
+    if (collectText) {
+      content.title = doc.title();
+      mainContent.traverse(new NodeVisitor() {
+        public void head(Node node, int depth) {
+          if (node instanceof TextNode) {
+            content.appendText(((TextNode) node).getWholeText());
+            content.appendText(" ");
+          } else if (node instanceof Element && node.hasAttr("id")) {
+            content.startSection(node.attr("id"));
+          }
+        }
+        public void tail(Node node, int depth) {
+          // NOOP
+        }
+      });
+    }
+    timer.stop();
+    return content;
+  }
+
+  private static MainContent scanMainContent(File file, boolean collectText,
+                                             PhaseTimings timings) throws IOException {
+    final PhaseTimings.Timer timer = timings.start("scan", file);
+    final MainContent content = new MainContent(collectText);
+    try (Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8")) {
+      if (! new MainContentScanner(reader).scan(content)) {
         throw new RuntimeException(file.getName() + " has no main-content div");
       }
+    }
+    timer.stop();
+    return content;
+  }
+
+  /** Records the (non-ignored) ids of a page, and the problems w/it's links that don't depend on other pages */
+  static void checkIdsAndLinks(MainContent content, PageResult result) {
+    final String fileUri = result.uri.toString();
+    
+    // collect all of the IDs in this doc
+    for (String id : content.ids) {
+      assert null != id;
+      assert 0 != id.length();
+
+      if (isIgnoredId(id)) {
+        continue;
+      }
+      result.ids.add(id);
+    }
+    
+    // check for (relative) links that don't include a fragment
+    for (String href : content.hrefs) {
+      if (0 == href.length()) {
+        result.problems.add(fileUri + " contains link with empty href");
+      }
+      try {
+        final URI uri = new URI(href);
+        if (! uri.isAbsolute()) {
+          final String frag = uri.getFragment();
+          if (null == frag || "".equals(frag)) {
+            // we must have a fragment for intra-page links to work correctly
+            result.problems.add(fileUri + " contains relative link w/o an '#anchor': " + href);
+          }
+          if (null == uri.getAuthority()) { // not a link to another host
+            final URI target = result.uri.resolve(uri);
+            result.relativeLinks.add(new RelativeLink(href, target.getPath(), frag));
+          }
+        } else if (null != ExternalLinkChecker.toCheckedUrl(href)) {
+          result.externalLinks.add(href);
+        }
+      } catch (URISyntaxException ex) {
+        result.problems.add(fileUri + " contains link w/ invalid syntax: " + href + "\n ... " + ex.toString());
+      }
+    }
+  }
+
+  /**
+   * A persistent cache of what was found in each page (it's ids, relative links, and the problems with both) 
+   * so that unchanged pages don't need to be re-parsed on every run.
+   * <p>
+   * Like {@link BuildNavAndPDFBody.HeaderCache}, entries are keyed by absolute path and are only used if the 
+   * size &amp; SHA-256 of the file still match.  Since the problems w/a page's relative links also depend on 
+   * every other page, the cache also records a reverse index of which pages link to each path &amp; id, which 
+   * {@link #findStalePages} uses to find the re-used pages whose links need to be checked again.  
+   * If the cache file can't be read, or was written by an incompatible version of this tool, it's ignored 
+   * completely.
+   * </p>
+   */
+  public static final class PageCache {
+    /** bump this any time the format, or what we check in each page, changes */
+    public static final int VERSION = 2;
+
+    private final File cacheFile;
+    private final Map<String,JSONObject> entries = new HashMap<String,JSONObject>();
+    /** path (of a page, or some other file) =&gt; the pages that link to it */
+    private final Map<String,JSONArray> linkedPaths = new HashMap<String,JSONArray>();
+    /** id =&gt; the pages that link to it (in any page) */
+    private final Map<String,JSONArray> linkedIds = new HashMap<String,JSONArray>();
+    private final Map<String,String> hashes = new ConcurrentHashMap<String,String>();
+    private final AtomicInteger hits = new AtomicInteger(0);
+    private final AtomicInteger misses = new AtomicInteger(0);
+    private int rechecked = 0;
+
+    public PageCache(File cacheFile) {
+      this.cacheFile = cacheFile;
+      if (! cacheFile.exists()) {
+        return;
+      }
+      try (Reader r = new InputStreamReader(new FileInputStream(cacheFile), "UTF-8")) {
+        final JSONObject json = new JSONObject(new JSONTokener(r));
+        if (VERSION != json.optInt("version", -1)) {
+          System.out.println("Ignoring check cache from a different version: " + cacheFile.toString());
+          return;
+        }
+        final JSONObject pages = json.getJSONObject("pages");
+        for (String path : pages.keySet()) {
+          entries.put(path, pages.getJSONObject(path));
+        }
+        final JSONObject paths = json.getJSONObject("linkedPaths");
+        for (String path : paths.keySet()) {
+          linkedPaths.put(path, paths.getJSONArray(path));
+        }
+        final JSONObject ids = json.getJSONObject("linkedIds");
+        for (String id : ids.keySet()) {
+          linkedIds.put(id, ids.getJSONArray(id));
+        }
+      } catch (IOException | JSONException e) {
+        System.out.println("Ignoring unreadable check cache: " + cacheFile.toString() + " (" + e.toString() + ")");
+        entries.clear();
+        linkedPaths.clear();
+        linkedIds.clear();
+      }
+    }
+
+    public int getHits() {
+      return hits.get();
+    }
+    public int getMisses() {
+      return misses.get();
+    }
+    public int getRechecked() {
+      return rechecked;
+    }
+
+    /**
+     * Returns the PageResult for the specified file if the cache has a valid entry for it, else null.
+     * Safe to call from multiple threads.
+     */
+    public PageResult get(File file) throws IOException {
+      final PageResult result = new PageResult(file);
+      final JSONObject entry = entries.get(result.uri.getPath());
+      if (null == entry
+          || entry.optLong("size", -1L) != file.length()
+          || ! entry.optString("sha256", "").equals(hash(file))) {
+        misses.incrementAndGet();
+        return null;
+      }
+      hits.incrementAndGet();
+      addAll(result.ids, entry.getJSONArray("ids"));
+      addAll(result.externalLinks, entry.getJSONArray("externalLinks"));
+      addAll(result.problems, entry.getJSONArray("problems"));
+      result.linkProblems = new ArrayList<String>();
+      addAll(result.linkProblems, entry.getJSONArray("linkProblems"));
+      final JSONArray links = entry.getJSONArray("links");
+      for (int i = 0; i < links.length(); i++) {
+        final JSONObject link = links.getJSONObject(i);
+        result.relativeLinks.add(new RelativeLink(link.getString("href"), link.getString("path"),
+                                                  link.optString("fragment", null)));
+      }
+      return result;
+    }
+
+    /**
+     * Returns the paths of the re-used pages whose links need to be checked again, because they link to:
+     * an id that was added, removed, or moved (to/from another page, or duplicated); 
+     * a page that was added or removed; or something other then a page (which could have changed at any time).
+     * @param results every page, either re-used from this cache or freshly checked
+     */
+    public Set<String> findStalePages(PageResult[] results, Map<String,PageResult> pagesByPath) {
+      final Set<String> stale = new HashSet<String>();
+      
+      // ids whose pages differ from when the cache was written
+      final Map<String,List<String>> idPages = new HashMap<String,List<String>>();
+      for (PageResult result : results) {
+        for (String id : result.ids) {
+          addPage(idPages, id, result.uri.getPath());
+        }
+      }
+      final Map<String,List<String>> oldIdPages = new HashMap<String,List<String>>();
+      for (Map.Entry<String,JSONObject> entry : entries.entrySet()) {
+        final JSONArray ids = entry.getValue().getJSONArray("ids");
+        for (int i = 0; i < ids.length(); i++) {
+          addPage(oldIdPages, ids.getString(i), entry.getKey());
+        }
+      }
+      for (Map.Entry<String,List<String>> entry : idPages.entrySet()) {
+        final List<String> oldPages = oldIdPages.remove(entry.getKey());
+        if (! sorted(entry.getValue()).equals(null == oldPages ? null : sorted(oldPages))) {
+          addAll(stale, linkedIds.get(entry.getKey()));
+        }
+      }
+      for (String removedId : oldIdPages.keySet()) {
+        addAll(stale, linkedIds.get(removedId));
+      }
+
+      // pages that were added or removed, and things that aren't pages
+      for (String path : pagesByPath.keySet()) {
+        if (! entries.containsKey(path)) {
+          addAll(stale, linkedPaths.get(path));
+        }
+      }
+      for (Map.Entry<String,JSONArray> entry : linkedPaths.entrySet()) {
+        if (! pagesByPath.containsKey(entry.getKey())) {
+          addAll(stale, entry.getValue());
+        }
+      }
+
+      for (PageResult result : results) {
+        if (null != result.linkProblems && stale.contains(result.uri.getPath())) {
+          rechecked++;
+        }
+      }
+      return stale;
+    }
+
+    /** (Over)writes the cache file to contain exactly the specified pages */
+    public void save(PageResult[] results) throws IOException {
+      final JSONObject pages = new JSONObject();
+      final JSONObject paths = new JSONObject();
+      final JSONObject ids = new JSONObject();
+      for (PageResult result : results) {
+        final String path = result.uri.getPath();
+        final JSONArray links = new JSONArray();
+        for (RelativeLink link : result.relativeLinks) {
+          links.put(new JSONObject()
+                    .put("href", link.href)
+                    .put("path", link.path)
+                    .putOpt("fragment", link.fragment));
+          addPage(paths, link.path, path);
+          if (null != link.fragment && ! link.fragment.isEmpty()) {
+            addPage(ids, link.fragment, path);
+          }
+        }
+        pages.put(path, new JSONObject()
+                  .put("size", result.file.length())
+                  .put("sha256", hash(result.file))
+                  .put("ids", new JSONArray(result.ids))
+                  .put("links", links)
+                  .put("externalLinks", new JSONArray(result.externalLinks))
+                  .put("problems", new JSONArray(result.problems))
+                  .put("linkProblems", new JSONArray(result.linkProblems)));
+      }
+      final JSONObject wrapper = new JSONObject()
+        .put("version", VERSION)
+        .put("pages", pages)
+        .put("linkedPaths", paths)
+        .put("linkedIds", ids);
+      final File tmp = new File(cacheFile.getPath() + ".tmp");
+      try (Writer w = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8")) {
+        wrapper.write(w);
+      }
+      Files.move(tmp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** SHA-256 of the file contents as a hex string (memoized for the life of this cache) */
+    private String hash(File file) throws IOException {
+      final String path = file.getAbsolutePath();
+      String result = hashes.get(path);
+      if (null == result) {
+        result = Sha256.of(file);
+        hashes.put(path, result);
+      }
+      return result;
+    }
+
+    private static void addPage(Map<String,List<String>> idPages, String id, String page) {
+      List<String> pages = idPages.get(id);
+      if (null == pages) {
+        pages = new ArrayList<String>(1);
+        idPages.put(id, pages);
+      }
+      pages.add(page);
+    }
+    /** adds the page to the (JSON) list of pages for the key, unless it was the last one added */
+    private static void addPage(JSONObject index, String key, String page) {
+      final JSONArray pages = index.optJSONArray(key);
+      if (null == pages) {
+        index.put(key, new JSONArray().put(page));
+      } else if (! page.equals(pages.getString(pages.length() - 1))) {
+        pages.put(page);
+      }
+    }
+    private static List<String> sorted(List<String> pages) {
+      if (1 < pages.size()) {
+        Collections.sort(pages);
+      }
+      return pages;
+    }
+    private static void addAll(Collection<String> dest, JSONArray values) {
+      if (null != values) {
+        for (int i = 0; i < values.length(); i++) {
+          dest.add(values.getString(i));
+        }
+      }
+    }
+  }
+
+  /** special case ids that we ignore */
+  private static boolean isIgnoredId(String id) {
+    return id.equals("preamble") || id.equals("main-content");
+  }
+
+  /** 
+   * The (raw) ids and link hrefs in the main content of a page, in document order -- and optionally the title 
+   * of the page and the text in the main content, split up into sections by the ids
+   */
+  public static final class MainContent {
+    /** the id of every element (including the main-content element itself) */
+    public final List<String> ids = new ArrayList<String>();
+    /** the href of every <code>a</code> element that has one */
+    public final List<String> hrefs = new ArrayList<String>();
+    /** the text of the (first) <code>title</code> element, null unless collecting text */
+    public String title;
+    /** 
+     * the text before the first id, and after each (non-ignored) id, null unless collecting text.
+     * The text has a space wherever there was a tag (or a text node ended), and isn't otherwise normalized.
+     */
+    public final List<TextSection> sections;
+    private static final Pattern WHITESPACE = Pattern.compile("[ \\t\\n\\f\\r]+");
+
+    public MainContent() {
+      this(false);
+    }
+    public MainContent(boolean collectText) {
+      this.title = collectText ? "" : null;
+      this.sections = collectText ? new ArrayList<TextSection>() : null;
+      if (collectText) {
+        sections.add(new TextSection(null));
+      }
+    }
+
+    /** starts a new section, if the id is one we don't ignore */
+    public void startSection(String id) {
+      if (! (id.isEmpty() || isIgnoredId(id))) {
+        sections.add(new TextSection(id));
+      }
+    }
+    /** appends to the current section */
+    public void appendText(CharSequence text) {
+      sections.get(sections.size() - 1).text.append(text);
+    }
+
+    /** The text after an id */
+    public static final class TextSection {
+      /** null for the text before the first id */
+      public final String id;
+      public final StringBuilder text = new StringBuilder();
+      public TextSection(String id) {
+        this.id = id;
+      }
+    }
+
+    /** a description of the first difference between this and other, or null if there is none */
+    public String diff(MainContent other) {
+      final String idDiff = diff("id", ids, other.ids);
+      if (null != idDiff) {
+        return idDiff;
+      }
+      final String hrefDiff = diff("href", hrefs, other.hrefs);
+      if (null != hrefDiff || null == sections) {
+        return hrefDiff;
+      }
+      if (! normalize(title).equals(normalize(other.title))) {
+        return "title: '" + title + "' vs '" + other.title + "'";
+      }
+      return diff("section", sectionStrings(), other.sectionStrings());
+    }
+    /** each section as it's id and (whitespace normalized) text */
+    private List<String> sectionStrings() {
+      final List<String> strings = new ArrayList<String>(sections.size());
+      for (TextSection section : sections) {
+        strings.add(section.id + ": " + normalize(section.text));
+      }
+      return strings;
+    }
+    private static String normalize(CharSequence text) {
+      return WHITESPACE.matcher(text).replaceAll(" ").trim();
+    }
+    private static String diff(String type, List<String> mine, List<String> theirs) {
+      for (int i = 0; i < Math.max(mine.size(), theirs.size()); i++) {
+        final String a = (i < mine.size()) ? mine.get(i) : null;
+        final String b = (i < theirs.size()) ? theirs.get(i) : null;
+        if (! Objects.equals(a, b)) {
+          return type + " #" + i + ": '" + a + "' vs '" + b + "'";
+        }
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Finds the ids &amp; link hrefs (and optionally the text) in the main content of a page in a single pass over
+   * it's HTML, without ever
+   * building a DOM or holding more then one tag (and a buffer of chars) in memory -- and without even reading 
+   * the rest of the page once the main content ends.
+   * <p>
+   * This is a simplified version of the HTML5 tokenizer that Jsoup uses: it understands tags, attributes 
+   * (quoted or not, w/character references), comments, doctypes, and the elements whose content is raw text 
+   * (ex: <code>script</code> &amp; <code>style</code>).  The end of the main content is found by counting the 
+   * start &amp; end tags w/the same name as the element with the <code>main-content</code> id.  Jsoup's
+   * error recovery for badly nested markup (which might move elements in or out of the main content) is not 
+   * emulated, since our generated site doesn't have any -- the <code>verify</code> mode of 
+   * {@link #EXTRACTOR_PROP} exists to prove that.
+   * </p>
+   * <p>
+   * Text is collected like Jsoup's text nodes: entities are decoded (except in raw text elements), and the 
+   * contents of <code>script</code> &amp; <code>style</code> elements are skipped.
+   * </p>
+   */
+  public static final class MainContentScanner {
+    private static final Set<String> VOID_ELEMENTS = new HashSet<String>
+      (Arrays.asList("area", "base", "br", "col", "embed", "hr", "img", "input", "keygen",
+                     "link", "meta", "param", "source", "track", "wbr"));
+    private static final Set<String> RAW_TEXT_ELEMENTS = new HashSet<String>
+      (Arrays.asList("script", "style", "title", "textarea", "xmp", "iframe", "noembed", "noframes"));
+    /** the raw text elements whose content is still decoded (ie: RCDATA) */
+    private static final String CDATA_START = "[CDATA[";
+    private static final Set<String> ESCAPABLE_RAW_TEXT_ELEMENTS = new HashSet<String>
+      (Arrays.asList("title", "textarea"));
+    
+    private final Reader in;
+    private final char[] buf = new char[8192];
+    private int pos = 0;
+    private int len = 0;
+    /** chars that have been read, but need to be read again (most recent last) */
+    private final int[] pushedBack = new int[2];
+    private int numPushedBack = 0;
+    private boolean afterCR = false;
 
-      // Add all of the IDs in this doc to knownIds (and problemIds if needed)
-      final Elements nodesWithIds = mainContent.select("[id]");
-      for (Element node : nodesWithIds) {
-        final String id = node.id();
-        assert null != id;
-        assert 0 != id.length();
+    // the current tag
+    private final StringBuilder tagName = new StringBuilder();
+    private final StringBuilder attrName = new StringBuilder();
+    private final StringBuilder attrValue = new StringBuilder();
+    private String id;
+    private String href;
+    private boolean selfClosing;
 
-        // special case ids that we ignore
-        if (id.equals("preamble") || id.equals("main-content")) {
+    /** the text since the last tag, null unless collecting the text of the main content */
+    private StringBuilder text;
+
+    public MainContentScanner(Reader in) {
+      this.in = in;
+    }
+
+    /** 
+     * Adds the ids &amp; hrefs in the main content to the specified MainContent (and the title &amp; text, if
+     * it's collecting text)
+     * @return false if there is no main content
+     */
+    public boolean scan(MainContent content) throws IOException {
+      final boolean collectText = (null != content.sections);
+      boolean foundTitle = false;
+      String mainTag = null;
+      int depth = 0;
+      for (int c = read(); -1 != c; c = read()) {
+        if ('<' != c) {
+          if (null != text) {
+            text.append((char) c);
+          }
           continue;
         }
-        
-        if (knownIds.containsKey(id)) {
-          problemIds.add(id);
+        // (like Jsoup, the text only ends where there's a tag or comment)
+        c = read();
+        if ('!' == c) {
+          readMarkupDeclaration(content);
+        } else if ('?' == c) {
+          endText(content, true);
+          skipPast('>');
+        } else if ('/' == c) {
+          c = read();
+          if (isLetter(c)) {
+            endText(content, true);
+            readTag(c, false);
+            if (null != mainTag && mainTag.contentEquals(tagName) && 0 == --depth) {
+              return true;
+            }
+          } else if (-1 == c) {
+            append(text, '<');
+            append(text, '/');
+          } else if ('>' != c) {
+            endText(content, true);
+            skipPast('>'); // bogus comment
+          }
+        } else if (isLetter(c)) {
+          endText(content, true);
+          if (! readTag(c, true)) {
+            break; // EOF in the middle of a tag
+          }
+          final String name = tagName.toString();
+          if (null == mainTag && "main-content".equals(id)) {
+            mainTag = name;
+            text = collectText ? new StringBuilder() : null;
+          }
+          if (null != mainTag) {
+            if (null != id) {
+              content.ids.add(id);
+              if (collectText) {
+                content.startSection(id);
+              }
+            }
+            if (null != href && name.equals("a")) {
+              content.hrefs.add(href);
+            }
+            if (name.equals(mainTag) && ! (selfClosing || VOID_ELEMENTS.contains(name)) ) {
+              depth++;
+            }
+            if (0 == depth) {
+              return true; // the main content element was empty
+            }
+          }
+          if (RAW_TEXT_ELEMENTS.contains(name) && ! selfClosing) {
+            final boolean escapable = ESCAPABLE_RAW_TEXT_ELEMENTS.contains(name);
+            if (collectText && ! foundTitle && name.equals("title")) {
+              // like Jsoup's Document.title(), the first title element wherever it is
+              final StringBuilder title = new StringBuilder();
+              readRawText(name, title);
+              content.title = MainContent.normalize(decode(title, true));
+              foundTitle = true;
+              if (null != text) {
+                text.append(title);
+                endText(content, true);
+              }
+            } else if (null != text && ! (name.equals("script") || name.equals("style"))) {
+              readRawText(name, text);
+              endText(content, escapable);
+            } else {
+              readRawText(name, null);
+            }
+          }
         } else {
-          knownIds.put(id, new ArrayList<File>(1));
+          unread(c); // just a '<' in the text
+          if (null != text) {
+            text.append('<');
+          }
         }
-        knownIds.get(id).add(file);
       }
-      
-      // check for (relative) links that don't include a fragment
-      final Elements links = mainContent.select("a[href]");
-      for (Element link : links) {
-        final String href = link.attr("href");
-        if (0 == href.length()) {
-          problems++;
-          System.err.println(file.toURI().toString() + " contains link with empty href");
-        }
-        try {
-          final URI uri = new URI(href);
-          if (! uri.isAbsolute()) {
-            final String frag = uri.getFragment();
-            if (null == frag || "".equals(frag)) {
-              // we must have a fragment for intra-page links to work correctly
-              problems++;
-              System.err.println(file.toURI().toString() + " contains relative link w/o an '#anchor': " + href);
+      // EOF: Jsoup would implicitly close any open main content
+      endText(content, true);
+      return null != mainTag;
+    }
+
+    /** adds the text since the last tag (if any) to the current section, followed by a space */
+    private void endText(MainContent content, boolean escapable) {
+      if (null != text) {
+        flushText(content, escapable);
+        content.appendText(" ");
+      }
+    }
+    /** adds the text since the last tag (if any) to the current section, w/o ending it */
+    private void flushText(MainContent content, boolean escapable) {
+      if (null != text) {
+        content.appendText(decode(text, escapable));
+        text.setLength(0);
+      }
+    }
+
+    private static CharSequence decode(StringBuilder text, boolean escapable) {
+      return (escapable && 0 <= text.indexOf("&")) ? Parser.unescapeEntities(text.toString(), false) : text;
+    }
+
+    /**
+     * Reads a start or end tag (the first letter of it's name has already been read) through it's closing '&gt;', 
+     * only keeping track of the (lowercased) name, and the values of the id and href attributes
+     * @return false if EOF was reached first
+     */
+    private boolean readTag(int c, boolean keepAttributes) throws IOException {
+      tagName.setLength(0);
+      id = null;
+      href = null;
+      selfClosing = false;
+      for (; ! (isSpace(c) || '/' == c || '>' == c); c = read()) {
+        if (-1 == c) {
+          return false;
+        }
+        tagName.append(Character.toLowerCase((char) c));
+      }
+      while (true) {
+        // before attribute name
+        while (isSpace(c)) {
+          c = read();
+        }
+        if ('>' == c) {
+          return true;
+        } else if (-1 == c) {
+          return false;
+        } else if ('/' == c) {
+          c = read();
+          if ('>' == c) {
+            selfClosing = true;
+            return true;
+          }
+          continue;
+        }
+        // attribute name (the first char may be anything, even an '=')
+        attrName.setLength(0);
+        do {
+          attrName.append(Character.toLowerCase((char) c));
+          c = read();
+        } while (! (-1 == c || isSpace(c) || '/' == c || '=' == c || '>' == c));
+        while (isSpace(c)) {
+          c = read();
+        }
+        final boolean keepValue = keepAttributes && (contentEquals(attrName, "id") || contentEquals(attrName, "href"));
+        String value = "";
+        if ('=' == c) {
+          c = read();
+          while (isSpace(c)) {
+            c = read();
+          }
+          attrValue.setLength(0);
+          if ('"' == c || '\'' == c) {
+            final int quote = c;
+            for (c = read(); quote != c; c = read()) {
+              if (-1 == c) {
+                return false;
+              }
+              if (keepValue) {
+                attrValue.append((char) c);
+              }
+            }
+            c = read();
+          } else {
+            for (; ! (-1 == c || isSpace(c) || '>' == c); c = read()) {
+              if (keepValue) {
+                attrValue.append((char) c);
+              }
             }
           }
-        } catch (URISyntaxException ex) {
-          problems++;
-          System.err.println(file.toURI().toString() + " contains link w/ invalid syntax: " + href);
-          System.err.println(" ... " + ex.toString());
+          if (keepValue) {
+            value = attrValue.toString();
+            if (0 <= value.indexOf('&')) {
+              value = Parser.unescapeEntities(value, true);
+            }
+          }
+        }
+        if (keepValue) {
+          // like Jsoup, the last of any duplicate attributes wins
+          if (contentEquals(attrName, "id")) {
+            id = value;
+          } else {
+            href = value;
+          }
+        }
+      }
+    }
+
+    /** 
+     * skips a comment, doctype, etc... (the '&lt;!' has already been read), except for CDATA sections which,
+     * like Jsoup, are (raw) text that's part of the current text
+     */
+    private void readMarkupDeclaration(MainContent content) throws IOException {
+      int c = read();
+      if ('[' == c) {
+        for (int i = 1; i < CDATA_START.length(); i++) {
+          c = read();
+          if (CDATA_START.charAt(i) != c) {
+            endText(content, true);
+            if ('>' != c && -1 != c) {
+              skipPast('>'); // bogus comment
+            }
+            return;
+          }
+        }
+        flushText(content, true);
+        // ends at the first "]]>"
+        int brackets = 0;
+        for (c = read(); -1 != c; c = read()) {
+          if ('>' == c && 2 <= brackets) {
+            if (null != text) {
+              text.setLength(text.length() - 2);
+            }
+            break;
+          }
+          brackets = (']' == c) ? brackets + 1 : 0;
+          append(text, c);
+        }
+        flushText(content, false);
+        return;
+      }
+      endText(content, true);
+      if ('-' == c) {
+        c = read();
+        if ('-' == c) {
+          // a comment: ends at the first "-->", counting the dashes that opened it (so "<!-->" is empty)
+          int dashes = 2;
+          for (c = read(); -1 != c; c = read()) {
+            if ('>' == c && 2 <= dashes) {
+              return;
+            }
+            dashes = ('-' == c) ? dashes + 1 : 0;
+          }
+          return;
         }
       }
+      unread(c);
+      skipPast('>');
     }
 
-    // if there are problematic ids, report them
-    for (String id : problemIds) {
-      problems++;
-      System.err.println("ID occurs multiple times: " + id);
-      for (File file : knownIds.get(id)) {
-        System.err.println(" ... " + file.toURI().toString());
+    /** 
+     * reads everything up to and including the end tag for the specified raw text element, appending the raw 
+     * text (w/o the end tag) to <code>into</code> unless it's null
+     */
+    private void readRawText(String name, StringBuilder into) throws IOException {
+      for (int c = read(); -1 != c; c = read()) {
+        final int mark = (null == into) ? 0 : into.length();
+        append(into, c);
+        if ('<' != c) {
+          continue;
+        }
+        c = read();
+        if ('/' != c) {
+          unread(c);
+          continue;
+        }
+        append(into, c);
+        int i = 0;
+        for (c = read(); i < name.length() && Character.toLowerCase((char) c) == name.charAt(i); c = read()) {
+          append(into, c);
+          i++;
+        }
+        if (i == name.length() && (isSpace(c) || '/' == c || '>' == c)) {
+          if (null != into) {
+            into.setLength(mark);
+          }
+          if ('>' != c) {
+            skipPast('>');
+          }
+          return;
+        }
+        unread(c);
       }
     }
 
-    
-    if (0 < problems) {
-      System.err.println("Total of " + problems + " problems found");
-      System.exit(-1);
+    private static void append(StringBuilder into, int c) {
+      if (null != into) {
+        into.append((char) c);
+      }
     }
-  }
 
-  static String readFile(String fileName) throws IOException {
-    InputStream in = new FileInputStream(fileName);
-    Reader reader = new InputStreamReader(in,"UTF-8");
-    BufferedReader br = new BufferedReader(reader);
-    try {
-      StringBuilder sb = new StringBuilder();
-      String line = br.readLine();
-      while (line != null) {
-        sb.append(line);
-        sb.append("\n");
-        line = br.readLine();
+    private void skipPast(char end) throws IOException {
+      for (int c = read(); -1 != c && end != c; c = read()) {
+        // NOOP
       }
-      return sb.toString();
-    } finally {
-      br.close();
+    }
+
+    /** the next char, with line endings normalized to '\n' (like TextFileReader), or -1 on EOF */
+    private int read() throws IOException {
+      if (0 < numPushedBack) {
+        return pushedBack[--numPushedBack];
+      }
+      int c = next();
+      if (afterCR && '\n' == c) {
+        c = next();
+      }
+      afterCR = ('\r' == c);
+      return afterCR ? '\n' : c;
+    }
+    private void unread(int c) {
+      pushedBack[numPushedBack++] = c;
+    }
+    private int next() throws IOException {
+      if (pos == len) {
+        len = in.read(buf, 0, buf.length);
+        pos = 0;
+        if (len <= 0) {
+          len = 0;
+          return -1;
+        }
+      }
+      return buf[pos++];
+    }
+
+    private static boolean isLetter(int c) {
+      return ('a' <= c && c <= 'z') || ('A' <= c && c <= 'Z');
+    }
+    private static boolean isSpace(int c) {
+      return ' ' == c || '\t' == c || '\n' == c || '\f' == c;
+    }
+    private static boolean contentEquals(StringBuilder sb, String s) {
+      return sb.length() == s.length() && sb.indexOf(s) == 0;
     }
   }
-  
+
 }
 
@@ -0,0 +1,315 @@
+import java.io.*;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.*;
+
+/**
+ * Checks that (absolute) http &amp; https URLs aren't broken, concurrently, w/o hammering any one host.
+ * <p>
+ * Each URL is checked w/a <code>HEAD</code> request, falling back to a <code>GET</code> (whose body is never
+ * read) if that fails (other then by timing out) or the status is an error -- since plenty of servers don't 
+ * support <code>HEAD</code>.
+ * Redirects are followed, and any final status below 400 is considered OK.  At most {@link #PER_HOST_PROP}
+ * requests are made to the same host at a time, and the URLs are interleaved by host so the threads aren't
+ * all stuck waiting on the same one.
+ * </p>
+ * <p>
+ * If {@link #CACHE_PROP} is set, URLs that were OK are recorded there and not checked again until
+ * {@link #TTL_PROP} hours later.  Broken URLs are never cached, so transient failures are always re-checked.
+ * </p>
+ * <p>
+ * Nothing here is specific to the ref guide (or to the real internet): ex, pointing it at a local stub
+ * server using <code>http://localhost:PORT/...</code> URLs.
+ * </p>
+ */
+public final class ExternalLinkChecker {
+
+  /** System property specifying the number of URLs checked at once (across all hosts) */
+  public static final String THREADS_PROP = "check.external.threads";
+  /** System property specifying the number of URLs checked at once for any single host */
+  public static final String PER_HOST_PROP = "check.external.per.host";
+  /** System property specifying the connect (and request) timeout for each request, in seconds */
+  public static final String TIMEOUT_PROP = "check.external.timeout";
+  /** System property specifying a file to use for caching the URLs that were OK between runs */
+  public static final String CACHE_PROP = "check.external.cache";
+  /** System property specifying how many hours a cached OK URL is trusted for */
+  public static final String TTL_PROP = "check.external.ttl";
+
+  /** bump this any time the format of the cache file changes */
+  public static final int CACHE_VERSION = 1;
+
+  private static final String USER_AGENT = "Solr-Ref-Guide-Link-Checker";
+
+  private final int numThreads;
+  private final int perHost;
+  private final Duration timeout;
+  private final File cacheFile;
+  private final long ttlMillis;
+  private final HttpClient client;
+
+  /** URL =&gt; when it was last found to be OK, only accessed from the calling thread */
+  private final Map<String,Long> cache = new HashMap<String,Long>();
+  private final Map<String,Semaphore> hostLimits = new ConcurrentHashMap<String,Semaphore>();
+
+  /**
+   * @param cacheFile may be null, in which case every URL is always checked
+   */
+  public ExternalLinkChecker(int numThreads, int perHost, Duration timeout, File cacheFile, Duration ttl) {
+    if (numThreads < 1 || perHost < 1) {
+      throw new IllegalArgumentException("threads and per host limit must be positive");
+    }
+    this.numThreads = numThreads;
+    this.perHost = perHost;
+    this.timeout = timeout;
+    this.cacheFile = cacheFile;
+    this.ttlMillis = ttl.toMillis();
+    this.client = HttpClient.newBuilder()
+      .connectTimeout(timeout)
+      .followRedirects(HttpClient.Redirect.NORMAL)
+      .build();
+    loadCache();
+  }
+
+  /** An instance configured by the system properties, see {@link #THREADS_PROP} etc... */
+  public static ExternalLinkChecker fromSystemProperties() {
+    final String cachePath = System.getProperty(CACHE_PROP, "");
+    return new ExternalLinkChecker(Integer.getInteger(THREADS_PROP, 8),
+                                   Integer.getInteger(PER_HOST_PROP, 2),
+                                   Duration.ofSeconds(Integer.getInteger(TIMEOUT_PROP, 10)),
+                                   cachePath.isEmpty() ? null : new File(cachePath),
+                                   Duration.ofHours(Integer.getInteger(TTL_PROP, 24)));
+  }
+
+  /** The outcome of checking a single URL */
+  public static final class Result {
+    public final String url;
+    /** the final HTTP status, or -1 if there was no response (or the result came from the cache) */
+    public final int status;
+    /** why the URL is broken, null if it's OK */
+    public final String error;
+    /** true if this result came from the cache */
+    public final boolean cached;
+    public Result(String url, int status, String error, boolean cached) {
+      this.url = url;
+      this.status = status;
+      this.error = error;
+      this.cached = cached;
+    }
+    public boolean isOk() {
+      return null == error;
+    }
+  }
+
+  /**
+   * Returns the URL that is actually checked for the specified href (w/o any fragment), or null if it's not
+   * an absolute http or https URL.  Hrefs that differ only in their fragments are only checked once.
+   */
+  public static String toCheckedUrl(String href) {
+    try {
+      final URI uri = new URI(href);
+      final String scheme = uri.getScheme();
+      if (null == scheme || null == uri.getHost()
+          || ! (scheme.equalsIgnoreCase("http") || scheme.equalsIgnoreCase("https"))) {
+        return null;
+      }
+      final int hash = href.indexOf('#');
+      return (hash < 0) ? href : href.substring(0, hash);
+    } catch (URISyntaxException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Checks every URL (which must have come from {@link #toCheckedUrl}), and saves the cache (if any).
+   * @return the result for every URL, keyed by URL
+   */
+  public Map<String,Result> check(Collection<String> urls) throws Exception {
+    final Map<String,Result> results = new HashMap<String,Result>();
+    final long now = System.currentTimeMillis();
+
+    // interleave the URLs by host, so we work our way through every host at once
+    final Map<String,List<String>> byHost = new LinkedHashMap<String,List<String>>();
+    for (String url : urls) {
+      final Long checked = cache.get(url);
+      if (null != checked && now - checked < ttlMillis) {
+        results.put(url, new Result(url, -1, null, true));
+        continue;
+      }
+      final String host = URI.create(url).getHost().toLowerCase(Locale.ROOT);
+      List<String> hostUrls = byHost.get(host);
+      if (null == hostUrls) {
+        hostUrls = new ArrayList<String>();
+        byHost.put(host, hostUrls);
+      }
+      hostUrls.add(url);
+    }
+    final List<String> todo = new ArrayList<String>();
+    final List<Iterator<String>> hosts = new ArrayList<Iterator<String>>();
+    for (List<String> hostUrls : byHost.values()) {
+      hosts.add(hostUrls.iterator());
+    }
+    while (! hosts.isEmpty()) {
+      for (Iterator<Iterator<String>> it = hosts.iterator(); it.hasNext(); ) {
+        final Iterator<String> host = it.next();
+        todo.add(host.next());
+        if (! host.hasNext()) {
+          it.remove();
+        }
+      }
+    }
+
+    final Result[] checked = new Result[todo.size()];
+    final int numWorkers = Math.max(1, Math.min(numThreads, todo.size()));
+    final AtomicInteger nextUrl = new AtomicInteger(0);
+    final ExecutorService pool = Executors.newFixedThreadPool(numWorkers);
+    try {
+      final List<Future<Void>> futures = new ArrayList<Future<Void>>(numWorkers);
+      for (int i = 0; i < numWorkers; i++) {
+        futures.add(pool.submit(new CheckWorker(todo, checked, nextUrl)));
+      }
+      for (Future<Void> future : futures) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof Exception) {
+            throw (Exception) e.getCause();
+          }
+          throw e;
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+
+    for (Result result : checked) {
+      results.put(result.url, result);
+      if (result.isOk()) {
+        cache.put(result.url, now);
+      }
+    }
+    saveCache();
+    return results;
+  }
+
+  /**
+   * Pulls the next unchecked URL index from a shared counter, and checks that URL into the corresponding
+   * slot of the <code>results</code> array, until there are no URLs left.
+   */
+  private final class CheckWorker implements Callable<Void> {
+    private final List<String> urls;
+    private final Result[] results;
+    private final AtomicInteger nextUrl;
+    public CheckWorker(List<String> urls, Result[] results, AtomicInteger nextUrl) {
+      this.urls = urls;
+      this.results = results;
+      this.nextUrl = nextUrl;
+    }
+    public Void call() throws InterruptedException {
+      for (int i = nextUrl.getAndIncrement(); i < urls.size(); i = nextUrl.getAndIncrement()) {
+        results[i] = checkUrl(urls.get(i));
+      }
+      return null;
+    }
+  }
+
+  private Result checkUrl(String url) throws InterruptedException {
+    final URI uri = URI.create(url);
+    final String host = uri.getHost().toLowerCase(Locale.ROOT);
+    hostLimits.putIfAbsent(host, new Semaphore(perHost));
+    final Semaphore limit = hostLimits.get(host);
+    limit.acquire();
+    try {
+      try {
+        final int status = client.send(request(uri).method("HEAD", HttpRequest.BodyPublishers.noBody()).build(),
+                                       HttpResponse.BodyHandlers.discarding()).statusCode();
+        if (status < 400) {
+          return new Result(url, status, null, false);
+        }
+      } catch (HttpTimeoutException e) {
+        return new Result(url, -1, e.toString(), false); // a GET isn't going to be any faster
+      } catch (IOException e) {
+        // NOOP: try a GET, some servers don't like HEAD at all
+      }
+      final HttpResponse<InputStream> response
+        = client.send(request(uri).GET().build(), HttpResponse.BodyHandlers.ofInputStream());
+      response.body().close(); // we only care about the status
+      final int status = response.statusCode();
+      return new Result(url, status, (status < 400) ? null : ("HTTP " + status), false);
+    } catch (IOException e) {
+      return new Result(url, -1, e.toString(), false);
+    } finally {
+      limit.release();
+    }
+  }
+
+  private HttpRequest.Builder request(URI uri) {
+    return HttpRequest.newBuilder(uri).timeout(timeout).header("User-Agent", USER_AGENT);
+  }
+
+  private void loadCache() {
+    if (null == cacheFile || ! cacheFile.exists()) {
+      return;
+    }
+    try (Reader r = new InputStreamReader(new FileInputStream(cacheFile), "UTF-8")) {
+      final JSONObject json = new JSONObject(new JSONTokener(r));
+      if (CACHE_VERSION != json.optInt("version", -1)) {
+        System.out.println("Ignoring external link cache from a different version: " + cacheFile.toString());
+        return;
+      }
+      final JSONObject urls = json.getJSONObject("urls");
+      for (String url : urls.keySet()) {
+        cache.put(url, urls.getLong(url));
+      }
+    } catch (IOException | JSONException e) {
+      System.out.println("Ignoring unreadable external link cache: " + cacheFile.toString()
+                         + " (" + e.toString() + ")");
+      cache.clear();
+    }
+  }
+
+  /** (Over)writes the cache file w/every URL that is still within the TTL */
+  private void saveCache() throws IOException {
+    if (null == cacheFile) {
+      return;
+    }
+    final long now = System.currentTimeMillis();
+    final JSONObject urls = new JSONObject();
+    for (Map.Entry<String,Long> entry : cache.entrySet()) {
+      if (now - entry.getValue() < ttlMillis) {
+        urls.put(entry.getKey(), entry.getValue().longValue());
+      }
+    }
+    final JSONObject wrapper = new JSONObject()
+      .put("version", CACHE_VERSION)
+      .put("urls", urls);
+    final File tmp = new File(cacheFile.getPath() + ".tmp");
+    try (Writer w = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8")) {
+      wrapper.write(w);
+    }
+    Files.move(tmp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+}
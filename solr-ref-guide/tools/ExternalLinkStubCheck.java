@@ -0,0 +1,217 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Checks {@link ExternalLinkChecker} entirely offline, against a local stub HTTP server
+ * (<code>com.sun.net.httpserver</code>) that is reached through two host names (<code>localhost</code> and
+ * <code>127.0.0.1</code>) so the per host limit can be seen at work.
+ * <p>
+ * The stub has a path for each case the checker has to get right: OK, 404, a <code>HEAD</code> that isn't
+ * supported (405), a redirect to an OK URL and one to a 404, and a URL slower then the timeout.  A URL on a
+ * port nothing is listening on covers a refused connection.  Every URL is checked twice w/the same cache file:
+ * the first run must classify every URL correctly w/o ever making more then <code>perHost</code> requests to
+ * either host at once, and the second run must only request the broken URLs again.
+ * </p>
+ * <pre>
+ * java -cp ... ExternalLinkStubCheck
+ * </pre>
+ */
+public class ExternalLinkStubCheck {
+
+  private static final int THREADS = 8;
+  private static final int PER_HOST = 2;
+  private static final Duration TIMEOUT = Duration.ofSeconds(1);
+  /** how long the stub takes to answer every request, so requests to the same host overlap */
+  private static final long DELAY_MILLIS = 50;
+  /** how long before the timeout a slow request stops counting as in progress */
+  private static final long SLOW_MARGIN_MILLIS = 100;
+  /** how many URLs (on each host) there are for each case */
+  private static final int COPIES = 4;
+
+  /** the first part of the path of each case =&gt; whether the URL should be OK */
+  private static final Map<String,Boolean> CASES = new LinkedHashMap<String,Boolean>();
+  static {
+    CASES.put("ok", true);
+    CASES.put("missing", false);
+    CASES.put("nohead", true);
+    CASES.put("redirect", true);
+    CASES.put("deadredirect", false);
+    CASES.put("slow", false);
+  }
+
+  public static void main(String[] args) throws Exception {
+    final Stub stub = new Stub();
+    final HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 100);
+    final ExecutorService executor = Executors.newCachedThreadPool();
+    server.setExecutor(executor);
+    server.createContext("/", stub);
+    server.start();
+    final File cacheFile = Files.createTempFile("external-links-cache", ".json").toFile();
+    cacheFile.delete(); // start w/o a cache
+    final List<String> problems = new ArrayList<String>();
+    try {
+      final int port = server.getAddress().getPort();
+      final Map<String,Boolean> expected = new TreeMap<String,Boolean>();
+      for (String host : new String[] { "localhost", "127.0.0.1" }) {
+        for (Map.Entry<String,Boolean> c : CASES.entrySet()) {
+          for (int i = 0; i < COPIES; i++) {
+            expected.put("http://" + host + ":" + port + "/" + c.getKey() + "/" + i, c.getValue());
+          }
+        }
+      }
+      expected.put("http://127.0.0.1:" + unusedPort() + "/refused", false);
+
+      // first run: everything is checked
+      final ExternalLinkChecker checker
+        = new ExternalLinkChecker(THREADS, PER_HOST, TIMEOUT, cacheFile, Duration.ofHours(1));
+      final Map<String,ExternalLinkChecker.Result> results = checker.check(expected.keySet());
+      for (Map.Entry<String,Boolean> url : expected.entrySet()) {
+        final ExternalLinkChecker.Result result = results.get(url.getKey());
+        if (null == result) {
+          problems.add("no result for " + url.getKey());
+        } else if (result.isOk() != url.getValue()) {
+          problems.add(url.getKey() + " should " + (url.getValue() ? "" : "not ") + "be OK, but got: status="
+                       + result.status + " error=" + result.error);
+        }
+      }
+      for (Map.Entry<String,Integer> host : stub.maxConcurrent().entrySet()) {
+        System.out.println("max concurrent requests to " + host.getKey() + ": " + host.getValue());
+        if (PER_HOST < host.getValue()) {
+          problems.add(host.getKey() + " got " + host.getValue() + " requests at once, limit is " + PER_HOST);
+        }
+      }
+
+      // second run (w/a new checker reading the same cache): only the broken URLs are requested again
+      stub.requested.clear();
+      final Map<String,ExternalLinkChecker.Result> again
+        = new ExternalLinkChecker(THREADS, PER_HOST, TIMEOUT, cacheFile, Duration.ofHours(1)).check(expected.keySet());
+      for (Map.Entry<String,Boolean> url : expected.entrySet()) {
+        final boolean cached = again.get(url.getKey()).cached;
+        if (cached != url.getValue()) {
+          problems.add(url.getKey() + (cached ? " was cached, but it's broken" : " wasn't cached, but it's OK"));
+        }
+        if (url.getValue() && stub.requested.containsKey(url.getKey().replaceFirst("^http://", ""))) {
+          problems.add(url.getKey() + " was requested again, but it was cached");
+        }
+      }
+    } finally {
+      server.stop(0);
+      executor.shutdownNow();
+      cacheFile.delete();
+    }
+
+    for (String problem : problems) {
+      System.err.println(problem);
+    }
+    if (! problems.isEmpty()) {
+      System.err.println("Total of " + problems.size() + " problems found");
+      System.exit(-1);
+    }
+    System.out.println("ExternalLinkChecker passed every check against the stub server");
+  }
+
+  /** @return a (loopback) port nothing is listening on */
+  private static int unusedPort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+      return socket.getLocalPort();
+    }
+  }
+
+  /** Answers each request based on the first part of it's path, see {@link #CASES} */
+  private static final class Stub implements HttpHandler {
+    /** host =&gt; requests in progress */
+    private final ConcurrentHashMap<String,AtomicInteger> current = new ConcurrentHashMap<String,AtomicInteger>();
+    /** host =&gt; the most requests that were ever in progress at once */
+    private final ConcurrentHashMap<String,AtomicInteger> max = new ConcurrentHashMap<String,AtomicInteger>();
+    /** host:port/path =&gt; how many times it was requested (w/any method) */
+    final ConcurrentHashMap<String,AtomicInteger> requested = new ConcurrentHashMap<String,AtomicInteger>();
+
+    public void handle(HttpExchange exchange) throws IOException {
+      final String hostHeader = exchange.getRequestHeaders().getFirst("Host");
+      final String host = hostHeader.replaceFirst(":\\d+$", "");
+      final String path = exchange.getRequestURI().getPath();
+      final String name = path.replaceFirst("^/([^/]*).*$", "$1");
+      final boolean head = "HEAD".equals(exchange.getRequestMethod());
+      counter(requested, hostHeader + path).incrementAndGet();
+      final int now = counter(current, host).incrementAndGet();
+      final AtomicInteger most = counter(max, host);
+      for (int m = most.get(); m < now && ! most.compareAndSet(m, now); m = most.get()) {
+        // retry
+      }
+      try {
+        // a request stops counting as in progress before it's answered (since the checker can move on to
+        // another URL as soon as it has the answer) or, if it's slow, just before the checker times out
+        Thread.sleep("slow".equals(name) ? (TIMEOUT.toMillis() - SLOW_MARGIN_MILLIS) : DELAY_MILLIS);
+        current.get(host).decrementAndGet();
+        if ("slow".equals(name)) {
+          Thread.sleep(2 * TIMEOUT.toMillis());
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        exchange.close();
+        return;
+      }
+
+      int status = 200;
+      if ("missing".equals(name)) {
+        status = 404;
+      } else if ("nohead".equals(name) && head) {
+        status = 405;
+      } else if ("redirect".equals(name)) {
+        exchange.getResponseHeaders().add("Location", "/ok/redirected");
+        status = 301;
+      } else if ("deadredirect".equals(name)) {
+        exchange.getResponseHeaders().add("Location", "/missing/redirected");
+        status = 302;
+      }
+      try {
+        if (head) {
+          exchange.sendResponseHeaders(status, -1);
+        } else {
+          // (more then the checker should ever read)
+          final byte[] body = new byte[64 * 1024];
+          exchange.sendResponseHeaders(status, body.length);
+          try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+          }
+        }
+      } catch (IOException e) {
+        // the checker hung up (ex: w/o reading the body, or after it timed out) as it should
+      } finally {
+        exchange.close();
+      }
+    }
+
+    /** @return the most requests each host ever had in progress at once */
+    Map<String,Integer> maxConcurrent() {
+      final Map<String,Integer> result = new TreeMap<String,Integer>();
+      for (Map.Entry<String,AtomicInteger> host : max.entrySet()) {
+        result.put(host.getKey(), host.getValue().get());
+      }
+      return result;
+    }
+
+    private static AtomicInteger counter(ConcurrentHashMap<String,AtomicInteger> counters, String key) {
+      final AtomicInteger created = new AtomicInteger();
+      final AtomicInteger counter = counters.putIfAbsent(key, created);
+      return (null == counter) ? created : counter;
+    }
+  }
+}
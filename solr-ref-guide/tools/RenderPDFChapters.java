@@ -0,0 +1,346 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.asciidoctor.Asciidoctor.Factory;
+import org.asciidoctor.Asciidoctor;
+import org.asciidoctor.AttributesBuilder;
+import org.asciidoctor.OptionsBuilder;
+import org.asciidoctor.SafeMode;
+
+/**
+ * Renders each of the chapter PDF body files written by {@link BuildNavAndPDFBody} (when
+ * {@link BuildNavAndPDFBody#PDF_CHAPTERS_PROP} is set) into it's own PDF, concurrently, using multiple
+ * worker JVMs.
+ * <p>
+ * asciidoctor-pdf is single threaded, and rendering the entire guide as one PDF is by far the slowest part
+ * of the build.  Each worker JVM gets it's own Asciidoctor instance, and renders a (roughly equal sized)
+ * share of the chapters one after another.  Since links &amp; xrefs can only be resolved within a single PDF,
+ * any reference from one chapter to an anchor in another chapter is reported.
+ * </p>
+ * <p>
+ * If {@link #COMPARE_PROP} is set, the entire guide is then also rendered as a single PDF (in a single
+ * worker) so the times can be compared.
+ * </p>
+ */
+public class RenderPDFChapters {
+
+  /** System property: number of worker JVMs, 0 (the default) == one per cpu */
+  public static final String WORKERS_PROP = "pdf.workers";
+  /** System property: extra (whitespace seperated) args for each worker JVM, ex: <code>-Xmx1g</code> */
+  public static final String WORKER_JVM_ARGS_PROP = "pdf.worker.jvmargs";
+  /** System property: if true, also render the entire guide as a single PDF and compare the times */
+  public static final String COMPARE_PROP = "pdf.compare";
+
+  /** The attribute the chapter document uses to include the body file of the chapter to render */
+  public static final String CHAPTER_ATTRIBUTE = "pdf-chapter";
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 4) {
+      System.err.println("usage: RenderPDFChapters <adocdir> <outdir> <chapter-doc> <all-doc> [name=value]...");
+      System.exit(-1);
+    }
+    final File adocDir = new File(args[0]);
+    final File outDir = new File(args[1]);
+    final File chapterDoc = new File(args[2]);
+    final File allDoc = new File(args[3]);
+    final List<String> attributes = Arrays.asList(args).subList(4, args.length);
+
+    final File chaptersDir = new File(new File(adocDir, "_data"), BuildNavAndPDFBody.PDF_CHAPTERS_DIR);
+    final File[] chapters = chaptersDir.listFiles(BuildNavAndPDFBody.ADOC_FILE_NAMES);
+    if (null == chapters || 0 == chapters.length) {
+      throw new RuntimeException("No chapter files found in " + chaptersDir + ", was BuildNavAndPDFBody run with -D"
+                                 + BuildNavAndPDFBody.PDF_CHAPTERS_PROP + "=true ?");
+    }
+    Arrays.sort(chapters);
+    if (! (outDir.exists() || outDir.mkdirs())) {
+      throw new RuntimeException("Unable to create dir: " + outDir.toString());
+    }
+
+    final int crossRefs = reportCrossChapterRefs(adocDir, chapters);
+
+    final int numWorkers = Math.min(chapters.length, getWorkers());
+    System.out.println("Rendering " + chapters.length + " chapters using " + numWorkers + " worker JVMs");
+    final long chaptersStart = System.nanoTime();
+    final List<Process> workers = new ArrayList<Process>(numWorkers);
+    for (List<File> share : divideChapters(adocDir, chapters, numWorkers)) {
+      workers.add(startWorker(adocDir, outDir, chapterDoc, attributes, share));
+    }
+    waitFor(workers);
+    final long chaptersMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - chaptersStart);
+    System.out.println("Rendered " + chapters.length + " chapter PDFs in " + chaptersMillis + "ms");
+
+    if (Boolean.getBoolean(COMPARE_PROP)) {
+      System.out.println("Rendering entire guide as a single PDF, for comparison");
+      final long allStart = System.nanoTime();
+      waitFor(Collections.singletonList(startWorker(adocDir, outDir, allDoc, attributes,
+                                                    Collections.<File>emptyList())));
+      final long allMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - allStart);
+      System.out.println("Single PDF: " + allMillis + "ms, " + chapters.length + " chapter PDFs using " + numWorkers
+                         + " workers: " + chaptersMillis + "ms, speedup: "
+                         + String.format(Locale.ROOT, "%.2f", ((double) allMillis) / Math.max(1L, chaptersMillis)) + "x");
+    }
+    if (0 < crossRefs) {
+      System.err.println("Total of " + crossRefs + " cross chapter references, which will not resolve in the chapter PDFs");
+    }
+  }
+
+  /** @see #WORKERS_PROP */
+  public static int getWorkers() {
+    final int workers = Integer.getInteger(WORKERS_PROP, 0);
+    if (workers < 0) {
+      throw new RuntimeException(WORKERS_PROP + " must not be negative: " + workers);
+    }
+    return (0 == workers) ? Runtime.getRuntime().availableProcessors() : workers;
+  }
+
+  /**
+   * Divides up the chapters into (at most) the specified number of shares, of roughly equal sizes
+   * (based on the size of all the pages in each chapter) so all the workers finish around the same time.
+   * Each share is in the original chapter order.
+   */
+  public static List<List<File>> divideChapters(File adocDir, File[] chapters, int numShares) throws IOException {
+    final long[] sizes = new long[chapters.length];
+    final Integer[] biggestFirst = new Integer[chapters.length];
+    for (int i = 0; i < chapters.length; i++) {
+      for (String page : readIncludedPages(chapters[i])) {
+        sizes[i] += new File(adocDir, page).length();
+      }
+      biggestFirst[i] = i;
+    }
+    Arrays.sort(biggestFirst, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        return Long.compare(sizes[b], sizes[a]);
+      }
+    });
+    // greedily give the next biggest chapter to whichever share is currently smallest
+    final long[] shareSizes = new long[numShares];
+    final List<SortedSet<Integer>> shares = new ArrayList<SortedSet<Integer>>(numShares);
+    for (int i = 0; i < numShares; i++) {
+      shares.add(new TreeSet<Integer>());
+    }
+    for (int chapter : biggestFirst) {
+      int smallest = 0;
+      for (int i = 1; i < numShares; i++) {
+        if (shareSizes[i] < shareSizes[smallest]) {
+          smallest = i;
+        }
+      }
+      shares.get(smallest).add(chapter);
+      shareSizes[smallest] += sizes[chapter];
+    }
+    final List<List<File>> result = new ArrayList<List<File>>(numShares);
+    for (SortedSet<Integer> share : shares) {
+      if (! share.isEmpty()) {
+        final List<File> files = new ArrayList<File>(share.size());
+        for (int chapter : share) {
+          files.add(chapters[chapter]);
+        }
+        result.add(files);
+      }
+    }
+    return result;
+  }
+
+  private static Process startWorker(File adocDir, File outDir, File doc, List<String> attributes,
+                                     List<File> chapters) throws IOException {
+    final List<String> cmd = new ArrayList<String>();
+    cmd.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+    final String jvmArgs = System.getProperty(WORKER_JVM_ARGS_PROP, "").trim();
+    if (! jvmArgs.isEmpty()) {
+      cmd.addAll(Arrays.asList(jvmArgs.split("\\s+")));
+    }
+    cmd.add("-cp");
+    cmd.add(System.getProperty("java.class.path"));
+    cmd.add(Worker.class.getName());
+    cmd.add(adocDir.getPath());
+    cmd.add(outDir.getPath());
+    cmd.add(doc.getPath());
+    for (String attribute : attributes) {
+      cmd.add("-a");
+      cmd.add(attribute);
+    }
+    for (File chapter : chapters) {
+      cmd.add(chapter.getName());
+    }
+    return new ProcessBuilder(cmd).inheritIO().start();
+  }
+
+  private static void waitFor(List<Process> workers) throws InterruptedException {
+    int failures = 0;
+    try {
+      for (Process worker : workers) {
+        if (0 != worker.waitFor()) {
+          failures++;
+        }
+      }
+    } finally {
+      for (Process worker : workers) {
+        worker.destroy();
+      }
+    }
+    if (0 < failures) {
+      throw new RuntimeException(failures + " worker JVM(s) failed, see above for details");
+    }
+  }
+
+  private static final Pattern INCLUDE = Pattern.compile("^include::(?:\\.\\./)*([^\\[/]+)\\[.*$");
+
+  /** @return the file names of the pages included by a chapter body file, in order */
+  public static List<String> readIncludedPages(File chapter) throws IOException {
+    final List<String> pages = new ArrayList<String>();
+    for (String line : Files.readAllLines(chapter.toPath(), StandardCharsets.UTF_8)) {
+      final Matcher m = INCLUDE.matcher(line);
+      if (m.matches()) {
+        pages.add(m.group(1));
+      }
+    }
+    return pages;
+  }
+
+  private static final Pattern SECTION_TITLE = Pattern.compile("^={2,6}\\s+(\\S.*?)\\s*$");
+  private static final Pattern ENTITY = Pattern.compile("&(?:[a-z][a-z]+\\d{0,2}|#\\d{2,5}|#x[\\da-f]{3,4});");
+  private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}_]+");
+
+  /**
+   * Scans the pages of every chapter for the anchors they define and the xrefs they contain, and reports
+   * every xref (to a page, or to an anchor) that is only defined in some other chapter.
+   * <p>
+   * Only anchors that are explicitly defined, or are generated from section titles (using the same
+   * <code>idprefix</code> &amp; <code>idseparator</code> as the PDF build) are considered.
+   * </p>
+   * @return the number of cross chapter references found
+   */
+  public static int reportCrossChapterRefs(File adocDir, File[] chapters) throws IOException {
+    final Map<String,Integer> chapterOfPage = new HashMap<String,Integer>();
+    final Map<String,Set<Integer>> chaptersOfAnchor = new HashMap<String,Set<Integer>>();
+    final List<List<String>> pagesOfChapter = new ArrayList<List<String>>();
+    for (int c = 0; c < chapters.length; c++) {
+      final List<String> pages = readIncludedPages(chapters[c]);
+      pagesOfChapter.add(pages);
+      for (String page : pages) {
+        chapterOfPage.put(page, c);
+        for (String line : AdocLines.readContentLines(new File(adocDir, page))) {
+          for (String anchor : anchorsDefinedIn(line)) {
+            if (! chaptersOfAnchor.containsKey(anchor)) {
+              chaptersOfAnchor.put(anchor, new TreeSet<Integer>());
+            }
+            chaptersOfAnchor.get(anchor).add(c);
+          }
+        }
+      }
+    }
+    int problems = 0;
+    for (int c = 0; c < chapters.length; c++) {
+      for (String page : pagesOfChapter.get(c)) {
+        for (String line : AdocLines.readContentLines(new File(adocDir, page))) {
+          for (String target : AdocLines.xrefTargets(line)) {
+            final int hash = target.indexOf('#');
+            final String targetPage = (hash < 0) ? (target.endsWith(".adoc") ? target : "") : target.substring(0, hash);
+            final String anchor = (hash < 0) ? (target.endsWith(".adoc") ? "" : target) : target.substring(hash + 1);
+            final Set<Integer> targetChapters;
+            if (! targetPage.isEmpty()) {
+              targetChapters = chapterOfPage.containsKey(targetPage)
+                ? Collections.singleton(chapterOfPage.get(targetPage)) : Collections.<Integer>emptySet();
+            } else {
+              targetChapters = chaptersOfAnchor.containsKey(anchor)
+                ? chaptersOfAnchor.get(anchor) : Collections.<Integer>emptySet();
+            }
+            if (! (targetChapters.isEmpty() || targetChapters.contains(c))) {
+              problems++;
+              System.err.println("Cross chapter reference in " + page + " (" + chapters[c].getName() + "): " + target
+                                 + " is in " + chapters[targetChapters.iterator().next()].getName());
+            }
+          }
+        }
+      }
+    }
+    return problems;
+  }
+
+  private static List<String> anchorsDefinedIn(String line) {
+    final List<String> anchors = AdocLines.explicitAnchors(line);
+    final Matcher section = SECTION_TITLE.matcher(line);
+    if (section.matches()) {
+      anchors.add(sectionId(section.group(1)));
+    }
+    return anchors;
+  }
+
+  /**
+   * Approximates the id asciidoctor generates for a section title when <code>idprefix</code> is empty
+   * and <code>idseparator</code> is <code>-</code>
+   */
+  static String sectionId(String title) {
+    String id = ENTITY.matcher(title.toLowerCase(Locale.ROOT)).replaceAll("-");
+    id = NON_WORD.matcher(id).replaceAll("-");
+    while (id.startsWith("-")) {
+      id = id.substring(1);
+    }
+    while (id.endsWith("-")) {
+      id = id.substring(0, id.length() - 1);
+    }
+    return id;
+  }
+
+  /**
+   * Renders documents to PDF, in a worker JVM, using a single Asciidoctor instance.
+   * <p>
+   * If any chapter body files are specified, then the document is rendered once for each of them (with
+   * {@link #CHAPTER_ATTRIBUTE} set to the chapter) into a PDF named after the chapter.  Otherwise the
+   * document is rendered once into a PDF named after the document.
+   * </p>
+   */
+  public static final class Worker {
+    public static void main(String[] args) throws Exception {
+      if (args.length < 3) {
+        System.err.println("usage: RenderPDFChapters$Worker <adocdir> <outdir> <doc> [-a name=value]... [chapter]...");
+        System.exit(-1);
+      }
+      final File adocDir = new File(args[0]);
+      final File outDir = new File(args[1]);
+      final File doc = new File(args[2]);
+      final Map<String,Object> attributes = new LinkedHashMap<String,Object>();
+      final List<String> chapters = new ArrayList<String>();
+      for (int i = 3; i < args.length; i++) {
+        if ("-a".equals(args[i])) {
+          final String[] attribute = args[++i].split("=", 2);
+          attributes.put(attribute[0], (1 == attribute.length) ? "" : attribute[1]);
+        } else {
+          chapters.add(args[i]);
+        }
+      }
+
+      final Asciidoctor doctor = Factory.create();
+      try {
+        if (chapters.isEmpty()) {
+          render(doctor, adocDir, doc, attributes, new File(outDir, doc.getName().replaceAll("\\.adoc$", ".pdf")));
+        }
+        for (String chapter : chapters) {
+          attributes.put(CHAPTER_ATTRIBUTE, chapter);
+          render(doctor, adocDir, doc, attributes, new File(outDir, chapter.replaceAll("\\.adoc$", ".pdf")));
+        }
+      } finally {
+        doctor.shutdown();
+      }
+    }
+
+    private static void render(Asciidoctor doctor, File adocDir, File doc, Map<String,Object> attributes,
+                               File pdf) {
+      final long start = System.nanoTime();
+      doctor.convertFile(doc, OptionsBuilder.options()
+                         .backend("pdf")
+                         .docType("book")
+                         .safe(SafeMode.UNSAFE)
+                         .baseDir(adocDir)
+                         .toFile(pdf)
+                         .attributes(AttributesBuilder.attributes().attributes(attributes)));
+      System.out.println("Rendered " + pdf.getName() + " in "
+                         + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+    }
+  }
+}
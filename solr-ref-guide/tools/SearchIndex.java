@@ -0,0 +1,473 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.json.*;
+
+/**
+ * A full text (inverted) index of the main content of every page of the HTML site, that can be searched by the
+ * browser (or w/{@link #search}) w/o having to download, let alone index, every page.
+ * <p>
+ * Every page is split up into sections: the text before the first id (along w/the page title, see
+ * {@link #TITLE_BOOST}) and the text after each id -- so a hit can link straight to the section it's in.
+ * The index is a directory of JSON files:
+ * </p>
+ * <pre>
+ * index.json            {"version":1, "prefixLength":N, "shards":[key, ...],
+ *                        "pages":[file name, ...], "titles":[page title, ...],
+ *                        "sectionPages":[page number, delta encoded, ...], "sectionAnchors":[id or "", ...]}
+ * terms-&lt;key&gt;.json     {"version":1, "terms":[term, ...], "postings":[[section, tf, section, tf, ...], ...]}
+ * </pre>
+ * <p>
+ * Each term is in the shard whose key is the first <code>prefixLength</code> chars of the term (w/any char
+ * other then <code>a-z</code> &amp; <code>0-9</code> replaced by <code>_</code>) so a query only needs the
+ * shards for it's terms.  The terms in each shard are sorted (by <code>String.compareTo</code>) and each term's
+ * posting list is the sections it occurs in, in order, w/each section number delta encoded (relative to the
+ * previous one in the list) and followed by the number of times the term occurs in that section.
+ * </p>
+ * <pre>
+ * java -cp ... SearchIndex build/html-site/search-index some words
+ * </pre>
+ * @see #tokenize
+ */
+public final class SearchIndex {
+  /** bump this any time the format changes */
+  public static final int VERSION = 1;
+  /** terms longer then this are never indexed (or searched for) */
+  public static final int MAX_TERM_LENGTH = 40;
+  /** each occurrence of a term in a page's title counts as this many occurrences in the top section */
+  public static final int TITLE_BOOST = 5;
+  public static final int DEFAULT_PREFIX_LENGTH = 1;
+  public static final String INDEX_FILE = "index.json";
+
+  private final File dir;
+  private final int prefixLength;
+  private final List<String> pages;
+  private final List<String> titles;
+  private final int[] sectionPages;
+  private final String[] sectionAnchors;
+  /** shard key =&gt; shard, loaded the first time it's needed */
+  private final Map<String,Shard> shards = new HashMap<String,Shard>();
+  private final List<String> shardKeys;
+
+  private SearchIndex(File dir, JSONObject json) throws IOException {
+    if (VERSION != json.optInt("version", -1)) {
+      throw new IOException("Search index from a different version: " + dir);
+    }
+    this.dir = dir;
+    this.prefixLength = json.getInt("prefixLength");
+    this.pages = strings(json.getJSONArray("pages"));
+    this.titles = strings(json.getJSONArray("titles"));
+    this.shardKeys = strings(json.getJSONArray("shards"));
+    final JSONArray pageDeltas = json.getJSONArray("sectionPages");
+    final JSONArray anchors = json.getJSONArray("sectionAnchors");
+    this.sectionPages = new int[pageDeltas.length()];
+    this.sectionAnchors = new String[anchors.length()];
+    int page = 0;
+    for (int i = 0; i < sectionPages.length; i++) {
+      page += pageDeltas.getInt(i);
+      sectionPages[i] = page;
+      sectionAnchors[i] = anchors.getString(i).isEmpty() ? null : anchors.getString(i);
+    }
+  }
+
+  /** Opens a search index (previously written by a {@link Builder}) only reading the shards as they're needed */
+  public static SearchIndex open(File dir) throws IOException {
+    return new SearchIndex(dir, readJson(new File(dir, INDEX_FILE)));
+  }
+
+  public int getNumPages() {
+    return pages.size();
+  }
+  public int getNumSections() {
+    return sectionPages.length;
+  }
+
+  /**
+   * Splits text into (lowercased) terms: every run of letters &amp; digits, except those longer then
+   * {@link #MAX_TERM_LENGTH}.  Used for both the text being indexed, and the queries.
+   */
+  public static List<String> tokenize(CharSequence text) {
+    final List<String> terms = new ArrayList<String>();
+    final StringBuilder term = new StringBuilder();
+    for (int i = 0; i <= text.length(); i++) {
+      final char c = (i < text.length()) ? text.charAt(i) : ' ';
+      if (Character.isLetterOrDigit(c)) {
+        term.append(c);
+      } else if (0 < term.length()) {
+        if (term.length() <= MAX_TERM_LENGTH) {
+          terms.add(term.toString().toLowerCase(Locale.ROOT));
+        }
+        term.setLength(0);
+      }
+    }
+    return terms;
+  }
+
+  /** A single section of a page that matched a query */
+  public static final class Hit {
+    /** the file name of the page */
+    public final String page;
+    public final String title;
+    /** the id the section starts at, null for the top of the page */
+    public final String anchor;
+    public final double score;
+    public Hit(String page, String title, String anchor, double score) {
+      this.page = page;
+      this.title = title;
+      this.anchor = anchor;
+      this.score = score;
+    }
+    /** relative to the site (the parent of the index dir) */
+    public String getUrl() {
+      return (null == anchor) ? page : (page + "#" + anchor);
+    }
+  }
+
+  /**
+   * Returns the (at most) maxHits sections that contain every term in the query, best first.  Each section is
+   * scored by the sum of it's tf * idf for every term (where idf is <code>log(1 + numSections / df)</code>),
+   * ties are broken by page order.
+   * <p>
+   * Not thread safe, since shards are loaded (and kept) as they're needed.
+   * </p>
+   */
+  public List<Hit> search(String query, int maxHits) throws IOException {
+    final List<int[]> postings = new ArrayList<int[]>();
+    for (String term : new LinkedHashSet<String>(tokenize(query))) {
+      final int[] termPostings = postings(term);
+      if (null == termPostings) {
+        return Collections.emptyList(); // every term has to match
+      }
+      postings.add(termPostings);
+    }
+    if (postings.isEmpty()) {
+      return Collections.emptyList();
+    }
+    // intersect, starting w/the rarest term so the candidates only shrink
+    Collections.sort(postings, new Comparator<int[]>() {
+      public int compare(int[] a, int[] b) {
+        return Integer.compare(a.length, b.length);
+      }
+    });
+    final int[] sections = new int[postings.get(0).length / 2];
+    final double[] scores = new double[sections.length];
+    int numMatches = 0;
+    final int[] rarest = postings.get(0);
+    for (int i = 0; i < rarest.length; i += 2) {
+      sections[numMatches] = rarest[i];
+      scores[numMatches] = rarest[i + 1] * idf(rarest.length / 2);
+      numMatches++;
+    }
+    for (int[] termPostings : postings.subList(1, postings.size())) {
+      final double idf = idf(termPostings.length / 2);
+      int kept = 0;
+      int p = 0;
+      for (int i = 0; i < numMatches; i++) {
+        while (p < termPostings.length && termPostings[p] < sections[i]) {
+          p += 2;
+        }
+        if (p < termPostings.length && termPostings[p] == sections[i]) {
+          sections[kept] = sections[i];
+          scores[kept] = scores[i] + termPostings[p + 1] * idf;
+          kept++;
+        }
+      }
+      numMatches = kept;
+    }
+
+    final Integer[] order = new Integer[numMatches];
+    for (int i = 0; i < numMatches; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        final int cmp = Double.compare(scores[b], scores[a]);
+        return (0 != cmp) ? cmp : Integer.compare(a, b);
+      }
+    });
+    final List<Hit> hits = new ArrayList<Hit>(Math.min(maxHits, numMatches));
+    for (int i = 0; i < Math.min(maxHits, numMatches); i++) {
+      final int section = sections[order[i]];
+      final int page = sectionPages[section];
+      hits.add(new Hit(pages.get(page), titles.get(page), sectionAnchors[section], scores[order[i]]));
+    }
+    return hits;
+  }
+
+  private double idf(int df) {
+    return Math.log(1.0D + ((double) sectionPages.length) / df);
+  }
+
+  /** the (decoded) sections &amp; term frequencies for the term, or null if it's not in the index */
+  private int[] postings(String term) throws IOException {
+    final String key = shardKey(term, prefixLength);
+    if (! shardKeys.contains(key)) {
+      return null;
+    }
+    Shard shard = shards.get(key);
+    if (null == shard) {
+      shard = new Shard(readJson(new File(dir, shardFileName(key))));
+      shards.put(key, shard);
+    }
+    final int i = Arrays.binarySearch(shard.terms, term);
+    if (i < 0) {
+      return null;
+    }
+    final JSONArray encoded = shard.postings.getJSONArray(i);
+    final int[] decoded = new int[encoded.length()];
+    int section = 0;
+    for (int p = 0; p < decoded.length; p += 2) {
+      section += encoded.getInt(p);
+      decoded[p] = section;
+      decoded[p + 1] = encoded.getInt(p + 1);
+    }
+    return decoded;
+  }
+
+  /** The terms w/the same shard key */
+  private static final class Shard {
+    final String[] terms;
+    /** still encoded, only the postings of the terms searched for are ever decoded */
+    final JSONArray postings;
+    Shard(JSONObject json) throws IOException {
+      if (VERSION != json.optInt("version", -1)) {
+        throw new IOException("Search index shard from a different version");
+      }
+      this.terms = strings(json.getJSONArray("terms")).toArray(new String[0]);
+      this.postings = json.getJSONArray("postings");
+    }
+  }
+
+  /** the first prefixLength chars of the term, w/any char that's not <code>a-z0-9</code> replaced by '_' */
+  public static String shardKey(String term, int prefixLength) {
+    final StringBuilder key = new StringBuilder(prefixLength);
+    for (int i = 0; i < Math.min(prefixLength, term.length()); i++) {
+      final char c = term.charAt(i);
+      key.append((('a' <= c && c <= 'z') || ('0' <= c && c <= '9')) ? c : '_');
+    }
+    return key.toString();
+  }
+
+  private static String shardFileName(String key) {
+    return "terms-" + key + ".json";
+  }
+
+  /**
+   * The terms (and how many times each occurs) in each section of a single page, ready to be added to a
+   * {@link Builder} -- pages can be tokenized concurrently, but must be added in order.
+   */
+  public static final class PageTerms {
+    public final String page;
+    public final String title;
+    /** the id each section starts at, the first section is always the top of the page (null) */
+    private final List<String> anchors = new ArrayList<String>();
+    private final List<Map<String,Integer>> sections = new ArrayList<Map<String,Integer>>();
+
+    /**
+     * @param page the file name of the page
+     * @param title the title of the page, whose terms are added to the top section
+     */
+    public PageTerms(String page, String title) {
+      this.page = page;
+      this.title = title;
+      anchors.add(null);
+      sections.add(new HashMap<String,Integer>());
+      for (String term : tokenize(title)) {
+        add(sections.get(0), term, TITLE_BOOST);
+      }
+    }
+
+    /**
+     * Adds the text of a section, the text before the first id should be added w/a null id.
+     * Sections w/o any terms are dropped.
+     */
+    public void addSection(String id, CharSequence text) {
+      final List<String> terms = tokenize(text);
+      if (null != id && ! terms.isEmpty()) {
+        anchors.add(id);
+        sections.add(new HashMap<String,Integer>());
+      }
+      final Map<String,Integer> section = (null == id) ? sections.get(0) : sections.get(sections.size() - 1);
+      for (String term : terms) {
+        add(section, term, 1);
+      }
+    }
+
+    private static void add(Map<String,Integer> section, String term, int count) {
+      final Integer old = section.get(term);
+      section.put(term, (null == old) ? count : (old + count));
+    }
+  }
+
+  /** Collects the terms of every page (in order) and writes them as a new index */
+  public static final class Builder {
+    private final int prefixLength;
+    private final List<String> pages = new ArrayList<String>();
+    private final List<String> titles = new ArrayList<String>();
+    private final List<Integer> sectionPages = new ArrayList<Integer>();
+    private final List<String> sectionAnchors = new ArrayList<String>();
+    /** term =&gt; pairs of section &amp; tf */
+    private final Map<String,Postings> postings = new HashMap<String,Postings>();
+
+    /** @param prefixLength the number of leading chars of each term used to pick it's shard */
+    public Builder(int prefixLength) {
+      if (prefixLength < 1) {
+        throw new IllegalArgumentException("prefixLength must be positive: " + prefixLength);
+      }
+      this.prefixLength = prefixLength;
+    }
+
+    public void add(PageTerms page) {
+      final int pageNum = pages.size();
+      pages.add(page.page);
+      titles.add(page.title);
+      for (int s = 0; s < page.sections.size(); s++) {
+        final int section = sectionPages.size();
+        sectionPages.add(pageNum);
+        sectionAnchors.add(page.anchors.get(s));
+        for (Map.Entry<String,Integer> term : page.sections.get(s).entrySet()) {
+          Postings termPostings = postings.get(term.getKey());
+          if (null == termPostings) {
+            termPostings = new Postings();
+            postings.put(term.getKey(), termPostings);
+          }
+          termPostings.add(section, term.getValue());
+        }
+      }
+    }
+
+    public int getNumTerms() {
+      return postings.size();
+    }
+
+    /**
+     * (Re)writes the index into the specified directory, removing any shards left over from a previous index
+     * @return the number of shards written
+     */
+    public int write(File dir) throws IOException {
+      dir.mkdirs();
+      final File[] old = dir.listFiles();
+      if (null != old) {
+        for (File file : old) {
+          if (file.getName().startsWith("terms-") && file.getName().endsWith(".json")) {
+            Files.delete(file.toPath());
+          }
+        }
+      }
+
+      // group the (sorted) terms by shard
+      final Map<String,List<String>> byShard = new TreeMap<String,List<String>>();
+      final List<String> sortedTerms = new ArrayList<String>(postings.keySet());
+      Collections.sort(sortedTerms);
+      for (String term : sortedTerms) {
+        final String key = shardKey(term, prefixLength);
+        List<String> terms = byShard.get(key);
+        if (null == terms) {
+          terms = new ArrayList<String>();
+          byShard.put(key, terms);
+        }
+        terms.add(term);
+      }
+      for (Map.Entry<String,List<String>> shard : byShard.entrySet()) {
+        final JSONArray shardPostings = new JSONArray();
+        for (String term : shard.getValue()) {
+          shardPostings.put(postings.get(term).encode());
+        }
+        writeJson(new File(dir, shardFileName(shard.getKey())), new JSONObject()
+                  .put("version", VERSION)
+                  .put("terms", new JSONArray(shard.getValue()))
+                  .put("postings", shardPostings));
+      }
+
+      final JSONArray pageDeltas = new JSONArray();
+      final JSONArray anchors = new JSONArray();
+      int previous = 0;
+      for (int i = 0; i < sectionPages.size(); i++) {
+        pageDeltas.put(sectionPages.get(i) - previous);
+        previous = sectionPages.get(i);
+        anchors.put(null == sectionAnchors.get(i) ? "" : sectionAnchors.get(i));
+      }
+      // written last, so a partially written index is never mistaken for a complete one
+      writeJson(new File(dir, INDEX_FILE), new JSONObject()
+                .put("version", VERSION)
+                .put("prefixLength", prefixLength)
+                .put("shards", new JSONArray(byShard.keySet()))
+                .put("pages", new JSONArray(pages))
+                .put("titles", new JSONArray(titles))
+                .put("sectionPages", pageDeltas)
+                .put("sectionAnchors", anchors));
+      return byShard.size();
+    }
+  }
+
+  /** a growable array of section &amp; tf pairs, in section order */
+  private static final class Postings {
+    private int[] pairs = new int[4];
+    private int size = 0;
+    void add(int section, int tf) {
+      if (size == pairs.length) {
+        pairs = Arrays.copyOf(pairs, size * 2);
+      }
+      pairs[size++] = section;
+      pairs[size++] = tf;
+    }
+    JSONArray encode() {
+      final JSONArray encoded = new JSONArray();
+      int previous = 0;
+      for (int i = 0; i < size; i += 2) {
+        encoded.put(pairs[i] - previous);
+        encoded.put(pairs[i + 1]);
+        previous = pairs[i];
+      }
+      return encoded;
+    }
+  }
+
+  private static List<String> strings(JSONArray array) {
+    final List<String> strings = new ArrayList<String>(array.length());
+    for (int i = 0; i < array.length(); i++) {
+      strings.add(array.getString(i));
+    }
+    return strings;
+  }
+
+  private static JSONObject readJson(File file) throws IOException {
+    try (Reader r = new InputStreamReader(new FileInputStream(file), "UTF-8")) {
+      return new JSONObject(new JSONTokener(r));
+    } catch (JSONException e) {
+      throw new IOException("Unreadable search index file: " + file, e);
+    }
+  }
+
+  private static void writeJson(File file, JSONObject json) throws IOException {
+    final File tmp = new File(file.getPath() + ".tmp");
+    try (Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8"))) {
+      json.write(w);
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /** Prints the best hits for a query against an index dir */
+  public static void main(String[] args) throws Exception {
+    if (args.length < 2) {
+      System.err.println("usage: SearchIndex <index-dir> <query terms>...");
+      System.exit(-1);
+    }
+    final SearchIndex index = open(new File(args[0]));
+    final String query = String.join(" ", Arrays.asList(args).subList(1, args.length));
+    for (Hit hit : index.search(query, 10)) {
+      System.out.println(String.format(Locale.ROOT, "%8.3f %s (%s)", hit.score, hit.getUrl(), hit.title));
+    }
+  }
+}
@@ -0,0 +1,45 @@
+import java.io.*;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+/**
+ * SHA-256 hashes of files (as hex strings), for the tools that decide what to do based on whether a file's
+ * contents changed: {@link BuildNavAndPDFBody} &amp; {@link CheckLinksAndAnchors}.
+ */
+public final class Sha256 {
+
+  private Sha256() {
+    // only static methods
+  }
+
+  /** SHA-256 of the file contents as a hex string (w/o reading the whole file into memory) */
+  public static String of(File file) throws IOException {
+    final MessageDigest digest = newDigest();
+    try (InputStream in = new DigestInputStream(new FileInputStream(file), digest)) {
+      final byte[] buf = new byte[8192];
+      while (-1 != in.read(buf)) {
+        // NOOP: just consume
+      }
+    }
+    return toHex(digest.digest());
+  }
+
+  /** @return a new SHA-256 digest */
+  public static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  public static String toHex(byte[] bytes) {
+    final StringBuilder hex = new StringBuilder();
+    for (byte b : bytes) {
+      hex.append(String.format(Locale.ROOT, "%02x", b));
+    }
+    return hex.toString();
+  }
+}